@@ -1,10 +1,31 @@
 import tester.Tester;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 // Represents a generic list that can be traversed in either direction, from the front or from
 // the back.
-class Deque<T> {
+class Deque<T> implements Iterable<T> {
   Sentinel<T> header;
   
   /*
@@ -19,6 +40,14 @@ class Deque<T> {
     ... this.removeFromTail() ... -- T
     ... this.find(Predicate<T>) ... -- ANode<T>
     ... this.removeNode(ANode<T>) ... -- void
+    ... this.concat(Deque<T>) ... -- void
+    ... this.addAllAtTail(Iterable<? extends T>) ... -- void
+    ... this.drainTo(Collection<? super T>, int) ... -- int
+    ... this.clearedBySplice() ... -- void
+    ... this.iterator() ... -- Iterator<T>
+    ... this.spliterator() ... -- Spliterator<T>
+    ... this.stream() ... -- Stream<T>
+    ... this.parallelStream() ... -- Stream<T>
     Methods on fields:
     ... this.header.replacePrev(ANode<T>) ...        -- void
     ... this.header.replaceNext(ANode<T>) ...        -- void
@@ -27,11 +56,13 @@ class Deque<T> {
     ... this.header.selfDelete() ...                 -- void
     ... this.header.selfRemove() ...                 -- T
     ... this.header.findToSentinel(Predicate<T>) ... -- T
-    ... this.header.addAtHead(T) ...                 -- void
-    ... this.header.addAtTail(T) ...                 -- void
+    ... this.header.addAtHead(T) ...                 -- Node<T>
+    ... this.header.addAtTail(T) ...                 -- Node<T>
     ... this.header.removeFromHead() ...             -- T
     ... this.header.removeFromTail() ...             -- T
     ... this.header.find(Predicate<T>) ...           -- ANode<T>
+    ... this.header.spliceAtTail(Sentinel<T>) ...    -- void
+    ... this.header.drainTo(Collection<? super T>, int) ... -- int
    */
   
   Deque() {
@@ -42,7 +73,8 @@ class Deque<T> {
     this.header = s;
   }
   
-  // Counts the number of nodes in this Deque, not including the header node.
+  // Counts the number of nodes in this Deque, not including the header node. The count is kept
+  // up to date as nodes are added and removed, so this takes constant time.
   int size() {
     /*
     TEMPLATE: Same as class template
@@ -109,7 +141,8 @@ class Deque<T> {
     return this.header.find(pred);
   }
   
-  // Removes the provided node from the Deque. If the provided node is a Sentinel, does nothing.
+  // Removes the provided node from the Deque. If the provided node is a Sentinel, or has already
+  // been removed, does nothing.
   // NOTE: Does not need to return anything, since the user already must already have access to
   // the node in question in order to pass it to the method.
   void removeNode(ANode<T> node) {
@@ -122,6 +155,383 @@ class Deque<T> {
      */
     node.selfDelete();
   }
+  
+  // Moves every node of the given Deque onto the end of this Deque, in order, leaving the given
+  // Deque empty. Only the ends of the two lists are relinked, so this takes constant time no
+  // matter how long either Deque is. Throws an IllegalArgumentException if both Deques share
+  // the same header.
+  // EFFECT: links the nodes of other between the last node and the header of this, and empties
+  // other
+  void concat(Deque<T> other) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... other ...                    -- Deque<T>
+    Fields of parameters:
+    ... other.header ...             -- Sentinel<T>
+    Methods on parameters:
+    ... other.clearedBySplice() ...  -- void
+     */
+    if (other.header == this.header) {
+      throw new IllegalArgumentException("Cannot concatenate a deque onto itself");
+    }
+    this.header.spliceAtTail(other.header);
+    other.clearedBySplice();
+  }
+  
+  // Inserts every value produced by the given Iterable at the tail of this Deque, in order. The
+  // values are linked into a separate list first, which is then spliced onto this Deque all at
+  // once, so iterating over this Deque itself appends a copy of it.
+  // EFFECT: adds a node for each value in items to the end of this Deque
+  void addAllAtTail(Iterable<? extends T> items) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... items ...             -- Iterable<? extends T>
+    Methods on parameters:
+    ... items.iterator() ...  -- Iterator<? extends T>
+     */
+    Deque<T> batch = new Deque<>();
+    for (T item : items) {
+      batch.header.addAtTail(item);
+    }
+    this.concat(batch);
+  }
+  
+  // Removes up to max values from the front of this Deque and adds them to the given collection
+  // in order, producing how many were moved. The size of this Deque is updated once for all the
+  // removed nodes, rather than once per node. Throws an IllegalArgumentException if max is
+  // negative. If target throws an exception, the values it already took stay removed, and the
+  // rest stay in this Deque.
+  // EFFECT: removes the first min(max, size()) nodes of this Deque, and adds their data to target
+  int drainTo(Collection<? super T> target, int max) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... target ...           -- Collection<? super T>
+    ... max ...              -- int
+    Methods on parameters:
+    ... target.add(T) ...    -- boolean
+     */
+    if (max < 0) {
+      throw new IllegalArgumentException("Cannot drain a negative number of elements");
+    }
+    return this.header.drainTo(target, max);
+  }
+  
+  // Forgets anything this Deque keeps about its nodes besides the list itself, after every node
+  // was moved to another Deque by concat. A plain Deque keeps nothing else.
+  // EFFECT: none for a Deque
+  void clearedBySplice() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    
+    // The body for this method is empty, since the counter of the header was already replaced.
+  }
+  
+  // Produces an Iterator over the data of this Deque from front to back. The Iterator fails fast:
+  // if this Deque is changed other than through the Iterator itself, its next use throws a
+  // ConcurrentModificationException.
+  @Override
+  public Iterator<T> iterator() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return new DequeIterator<>(this);
+  }
+  
+  // Produces a Spliterator over the data of this Deque from front to back, which can be split
+  // to traverse this Deque in parallel. It fails fast in the same way as iterator.
+  @Override
+  public Spliterator<T> spliterator() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return Spliterators.spliterator(this.iterator(), this.size(),
+        Spliterator.ORDERED | Spliterator.SIZED);
+  }
+  
+  // Produces a sequential Stream of the data of this Deque from front to back
+  Stream<T> stream() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return StreamSupport.stream(this.spliterator(), false);
+  }
+  
+  // Produces a parallel Stream of the data of this Deque
+  Stream<T> parallelStream() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return StreamSupport.stream(this.spliterator(), true);
+  }
+
+}
+
+// Represents a Deque that also indexes its nodes by a key computed from their data, so that the
+// node with a given key can be found or removed in constant time instead of searching the whole
+// list. Each key keeps its nodes in a LinkedHashSet, so removing a node that shares its key with
+// many others does not search them either. The index is kept up to date by every method of the
+// Deque, but not by changes made directly to its nodes (such as constructing a Node next to its
+// header).
+class IndexedDeque<K, T> extends Deque<T> {
+  // computes the key of each data in this deque
+  Function<T, K> keyOf;
+  // the nodes with each key, in the order they were added
+  HashMap<K, LinkedHashSet<ANode<T>>> index;
+  
+  /*
+    TEMPLATE for IndexedDeque
+    Fields:
+    ... this.header ... -- Sentinel<T>
+    ... this.keyOf ... -- Function<T, K>
+    ... this.index ... -- HashMap<K, LinkedHashSet<ANode<T>>>
+    Methods:
+    ... this.size() ... -- int
+    ... this.addAtHead(T) ... -- void
+    ... this.addAtTail(T) ... -- void
+    ... this.removeFromHead() ... -- T
+    ... this.removeFromTail() ... -- T
+    ... this.find(Predicate<T>) ... -- ANode<T>
+    ... this.removeNode(ANode<T>) ... -- void
+    ... this.concat(Deque<T>) ... -- void
+    ... this.drainTo(Collection<? super T>, int) ... -- int
+    ... this.clearedBySplice() ... -- void
+    ... this.findByKey(K) ... -- ANode<T>
+    ... this.containsKey(K) ... -- boolean
+    ... this.removeByKey(K) ... -- boolean
+    ... this.addToIndex(ANode<T>, T) ... -- void
+    ... this.removeFromIndex(ANode<T>, T) ... -- boolean
+    Methods on fields:
+    ... this.keyOf.apply(T) ... -- K
+    ... this.header.addAtHead(T) ... -- Node<T>
+    ... this.header.addAtTail(T) ... -- Node<T>
+    ... this.header.first() ... -- ANode<T>
+    ... this.header.last() ... -- ANode<T>
+   */
+  
+  IndexedDeque(Function<T, K> keyOf) {
+    super();
+    this.keyOf = keyOf;
+    this.index = new HashMap<>();
+  }
+  
+  // Consumes a value of type T and inserts it at the front of the list, indexed by its key.
+  // EFFECT: adds a node to the front of the list and to the index
+  @Override
+  void addAtHead(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    this.addToIndex(this.header.addAtHead(that), that);
+  }
+  
+  // Consumes a value of type T and inserts it at the tail of the list, indexed by its key.
+  // EFFECT: adds a node to the end of the list and to the index
+  @Override
+  void addAtTail(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    this.addToIndex(this.header.addAtTail(that), that);
+  }
+  
+  // Removes the first node from this IndexedDeque and returns its data, throwing an exception if
+  // this IndexedDeque is empty
+  // EFFECT: removes the first node from the list and from the index
+  @Override
+  T removeFromHead() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ANode<T> node = this.header.first();
+    T data = super.removeFromHead();
+    this.removeFromIndex(node, data);
+    return data;
+  }
+  
+  // Removes the last node from this IndexedDeque and returns its data, throwing an exception if
+  // this IndexedDeque is empty
+  // EFFECT: removes the last node from the list and from the index
+  @Override
+  T removeFromTail() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ANode<T> node = this.header.last();
+    T data = super.removeFromTail();
+    this.removeFromIndex(node, data);
+    return data;
+  }
+  
+  // Removes the provided node from the Deque and from the index. If the provided node is the
+  // Sentinel of this IndexedDeque, does nothing.
+  // EFFECT: removes the node from its list and from the index
+  @Override
+  void removeNode(ANode<T> node) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... node ...               -- ANode<T>
+    Methods on parameters:
+    ... node.getData() ...     -- T
+    ... node.selfDelete() ...  -- void
+     */
+    if (node != this.header) {
+      this.removeFromIndex(node, node.getData());
+    }
+    super.removeNode(node);
+  }
+  
+  // Moves every node of the given Deque onto the end of this IndexedDeque, in order, leaving the
+  // given Deque empty. The moved nodes are indexed one by one, so this takes time proportional
+  // to the size of other rather than constant time.
+  // EFFECT: links the nodes of other at the end of this, adds them to the index and empties other
+  @Override
+  void concat(Deque<T> other) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... other ...                    -- Deque<T>
+    Fields of parameters:
+    ... other.header ...             -- Sentinel<T>
+    Methods on parameters:
+    ... other.size() ...             -- int
+    ... other.clearedBySplice() ...  -- void
+     */
+    ANode<T> node = other.header.first();
+    int moved = other.size();
+    super.concat(other);
+    for (int i = 0; i < moved; i += 1) {
+      this.addToIndex(node, node.getData());
+      node = node.next;
+    }
+  }
+  
+  // Removes up to max values from the front of this IndexedDeque and adds them to the given
+  // collection in order, producing how many were moved. Each node is removed from the list and
+  // from the index as soon as target has taken its data, so if target throws an exception, the
+  // values it already took stay removed, and the rest stay in this IndexedDeque and its index.
+  // Throws an IllegalArgumentException if max is negative.
+  // EFFECT: removes the first min(max, size()) nodes from the list and from the index, and adds
+  // their data to target
+  @Override
+  int drainTo(Collection<? super T> target, int max) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... target ...           -- Collection<? super T>
+    ... max ...              -- int
+    Methods on parameters:
+    ... target.add(T) ...    -- boolean
+     */
+    if (max < 0) {
+      throw new IllegalArgumentException("Cannot drain a negative number of elements");
+    }
+    int drained = 0;
+    while (drained < max && this.header.first() != this.header) {
+      ANode<T> node = this.header.first();
+      target.add(node.getData());
+      this.removeNode(node);
+      drained += 1;
+    }
+    return drained;
+  }
+  
+  // Forgets the index of this IndexedDeque, after every node was moved to another Deque by concat
+  // EFFECT: empties the index
+  @Override
+  void clearedBySplice() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.index.clear();
+  }
+  
+  // Produces the first node added to this IndexedDeque (and not yet removed) whose data has the
+  // given key. If there is none, returns the header node in this IndexedDeque.
+  ANode<T> findByKey(K key) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... key ... -- K
+     */
+    LinkedHashSet<ANode<T>> nodes = this.index.get(key);
+    if (nodes == null) {
+      return this.header;
+    } else {
+      return nodes.iterator().next();
+    }
+  }
+  
+  // Determines whether any data in this IndexedDeque has the given key
+  boolean containsKey(K key) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... key ... -- K
+     */
+    return this.index.containsKey(key);
+  }
+  
+  // Removes the node that findByKey produces for the given key, producing whether there was one
+  // EFFECT: removes the node from the list and from the index
+  boolean removeByKey(K key) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... key ... -- K
+     */
+    ANode<T> node = this.findByKey(key);
+    this.removeNode(node);
+    return node != this.header;
+  }
+  
+  // Adds the given node holding the given data to the index
+  // EFFECT: adds the node to the end of the nodes with the key of data
+  void addToIndex(ANode<T> node, T data) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... node ... -- ANode<T>
+    ... data ... -- T
+     */
+    K key = this.keyOf.apply(data);
+    LinkedHashSet<ANode<T>> nodes = this.index.get(key);
+    if (nodes == null) {
+      // Most keys belong to a single node, so buckets start small
+      nodes = new LinkedHashSet<>(2);
+      this.index.put(key, nodes);
+    }
+    nodes.add(node);
+  }
+  
+  // Removes the given node holding the given data from the index, producing whether it was
+  // indexed by this IndexedDeque
+  // EFFECT: removes the node from the nodes with the key of data, and the key if no nodes are left
+  boolean removeFromIndex(ANode<T> node, T data) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... node ... -- ANode<T>
+    ... data ... -- T
+     */
+    K key = this.keyOf.apply(data);
+    LinkedHashSet<ANode<T>> nodes = this.index.get(key);
+    if (nodes == null || !nodes.remove(node)) {
+      return false;
+    }
+    if (nodes.isEmpty()) {
+      this.index.remove(key);
+    }
+    return true;
+  }
 }
 
 // Represents a node or sentinel in a generic list that can be traversed in either direction, from
@@ -129,12 +539,15 @@ class Deque<T> {
 abstract class ANode<T> {
   ANode<T> next;
   ANode<T> prev;
+  // the counter of the list this belongs to, shared by its sentinel and all of its nodes
+  DequeCounter counter;
   
   /*
     TEMPLATE for ANode
     Fields:
     ... this.next ...                         -- ANode<T>
     ... this.prev ...                         -- ANode<T>
+    ... this.counter ...                      -- DequeCounter
     Methods:
     ... this.replacePrev(ANode<T>) ...        -- void
     ... this.replaceNext(ANode<T>) ...        -- void
@@ -143,6 +556,7 @@ abstract class ANode<T> {
     ... this.selfDelete() ...                 -- void
     ... this.selfRemove() ...                 -- T
     ... this.findToSentinel(Predicate<T>) ... -- T
+    ... this.getData() ...                    -- T
     Methods on fields:
     ... this.next.replacePrev(ANode<T>) ...        -- void
     ... this.next.replaceNext(ANode<T>) ...        -- void
@@ -229,6 +643,9 @@ abstract class ANode<T> {
   // Finds the first occurrence of a Node that satisfies pred before the next Sentinel. If no
   // such node is found, returns the next Sentinel.
   abstract ANode<T> findToSentinel(Predicate<T> pred);
+  
+  // Gets the data of this node, throwing an exception if this is a Sentinel.
+  abstract T getData();
 }
 
 // Represents a sentinel in a generic list that can be traversed in either direction, from
@@ -238,6 +655,7 @@ class Sentinel<T> extends ANode<T> {
   Sentinel() {
     this.next = this;
     this.prev = this;
+    this.counter = new DequeCounter();
   }
   
   /*
@@ -245,6 +663,7 @@ class Sentinel<T> extends ANode<T> {
     Fields:
     ... this.next ...                         -- ANode<T>
     ... this.prev ...                         -- ANode<T>
+    ... this.counter ...                      -- DequeCounter
     Methods:
     ... this.replacePrev(ANode<T>) ...        -- void
     ... this.replaceNext(ANode<T>) ...        -- void
@@ -253,12 +672,22 @@ class Sentinel<T> extends ANode<T> {
     ... this.selfDelete() ...                 -- void
     ... this.selfRemove() ...                 -- T
     ... this.findToSentinel(Predicate<T>) ... -- T
-    ... this.addAtHead(T) ...                 -- void
-    ... this.addAtTail(T) ...                 -- void
+    ... this.addAtHead(T) ...                 -- Node<T>
+    ... this.addAtTail(T) ...                 -- Node<T>
+    ... this.first() ...                      -- ANode<T>
+    ... this.last() ...                       -- ANode<T>
     ... this.removeFromHead() ...             -- T
     ... this.removeFromTail() ...             -- T
     ... this.find(Predicate<T>) ...           -- ANode<T>
+    ... this.getData() ...                    -- T
+    ... this.modCount() ...                   -- int
+    ... this.spliceAtTail(Sentinel<T>) ...    -- void
+    ... this.drainTo(Collection<? super T>, int) ... -- int
     Methods on fields:
+    ... this.counter.size() ...                    -- int
+    ... this.counter.modCount() ...                -- int
+    ... this.counter.forwardTo(DequeCounter) ...   -- DequeCounter
+    ... this.counter.removedMany(int) ...          -- void
     
     ... this.next.replacePrev(ANode<T>) ...        -- void
     ... this.next.replaceNext(ANode<T>) ...        -- void
@@ -277,12 +706,21 @@ class Sentinel<T> extends ANode<T> {
     ... this.prev.findToSentinel(Predicate<T>) ... -- T
    */
   
-  // Counts the number of nodes following this Sentinel before arriving back at the Sentinel.
+  // Counts the number of nodes following this Sentinel before arriving back at the Sentinel,
+  // as kept by the counter of this list.
   int size() {
     /*
     TEMPLATE: Same as class template
      */
-    return this.next.sizeToSentinel();
+    return this.counter.size();
+  }
+  
+  // Gets the number of times a node has been added to or removed from this list
+  int modCount() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.counter.modCount();
   }
   
   // Gets the total number of nodes (including this one, if it is a node) until the next sentinel
@@ -295,28 +733,103 @@ class Sentinel<T> extends ANode<T> {
     return 0;
   }
   
-  // Adds an element to the start of the list.
+  // Adds an element to the start of the list, producing the node that holds it.
   // EFFECT: modifies the previous and next elements in this list to refer to
   // this element instead of referring to each other
-  void addAtHead(T data) {
+  Node<T> addAtHead(T data) {
     /*
     TEMPLATE
     Parameters:
     ... data ... -- T
      */
-    new Node<>(data, this.next, this);
+    return new Node<>(data, this.next, this);
   }
   
-  // Adds an element to the end of the list.
+  // Adds an element to the end of the list, producing the node that holds it.
   // EFFECT: modifies the previous and next elements in this list to refer to
   // this element instead of referring to each other
-  void addAtTail(T data) {
+  Node<T> addAtTail(T data) {
     /*
     TEMPLATE
     Parameters:
     ... data ... -- T
      */
-    new Node<>(data, this, this.prev);
+    return new Node<>(data, this, this.prev);
+  }
+  
+  // Gets the first node of the list, or this Sentinel if the list is empty
+  ANode<T> first() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.next;
+  }
+  
+  // Gets the last node of the list, or this Sentinel if the list is empty
+  ANode<T> last() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.prev;
+  }
+  
+  // Moves every node of the list that the given Sentinel guards onto the end of the list that
+  // this Sentinel guards, in order, by relinking only the ends of the two lists. The moved nodes
+  // keep their old counter, which is forwarded to the counter of this list, and the given
+  // Sentinel starts counting again with a new counter.
+  // EFFECT: links the nodes after that between the last node of this list and this, links that
+  // to itself, and combines the counts of the two lists
+  void spliceAtTail(Sentinel<T> that) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... that ...                               -- Sentinel<T>
+    Fields of parameters:
+    ... that.next ...                          -- ANode<T>
+    ... that.prev ...                          -- ANode<T>
+    ... that.counter ...                       -- DequeCounter
+    Methods on parameters:
+    ... that.replaceNext(ANode<T>) ...         -- void
+     */
+    if (that.next != that) {
+      this.prev.replaceNext(that.next);
+      that.prev.replaceNext(this);
+      that.replaceNext(that);
+      that.counter = that.counter.forwardTo(this.counter);
+    }
+  }
+  
+  // Removes up to max nodes from the start of the list and adds their data to the given
+  // collection in order, producing how many were removed. Each node is unlinked as soon as target
+  // has taken its data, so the list stays whole if target throws an exception, and is detached
+  // from the list, so removing it later does nothing.
+  // EFFECT: links this to the node after the last one removed, sets the previous and next
+  // elements of the removed nodes to null, and adds the data removed to target
+  int drainTo(Collection<? super T> target, int max) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... target ...           -- Collection<? super T>
+    ... max ...              -- int
+    Methods on parameters:
+    ... target.add(T) ...    -- boolean
+     */
+    int drained = 0;
+    try {
+      while (drained < max && this.next != this) {
+        ANode<T> node = this.next;
+        target.add(node.getData());
+        this.replaceNext(node.next);
+        node.prev = null;
+        node.next = null;
+        drained += 1;
+      }
+    } finally {
+      if (drained > 0) {
+        this.counter.removedMany(drained);
+      }
+    }
+    return drained;
   }
   
   // Removes the node at the start of the list, returning the contents of the corresponding
@@ -367,6 +880,15 @@ class Sentinel<T> extends ANode<T> {
     throw new RuntimeException("Attempted to remove a sentinel");
   }
   
+  // Gets the data of this node, throwing an exception if this is a Sentinel.
+  @Override
+  T getData() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    throw new RuntimeException("Attempted to get the data of a sentinel");
+  }
+  
   // Produces the first node after this Sentinel for which the given predicate returns true. If the
   // predicate never returns true for any value after this Sentinel, returns the header node.
   ANode<T> find(Predicate<T> pred) {
@@ -405,8 +927,10 @@ class Node<T> extends ANode<T> {
   /*
     TEMPLATE for Node
     Fields:
+    ... this.data ...                         -- T
     ... this.next ...                         -- ANode<T>
     ... this.prev ...                         -- ANode<T>
+    ... this.counter ...                      -- DequeCounter
     Methods:
     ... this.replacePrev(ANode<T>) ...        -- void
     ... this.replaceNext(ANode<T>) ...        -- void
@@ -415,7 +939,11 @@ class Node<T> extends ANode<T> {
     ... this.selfDelete() ...                 -- void
     ... this.selfRemove() ...                 -- T
     ... this.findToSentinel(Predicate<T>) ... -- T
+    ... this.getData() ...                    -- T
     Methods on fields:
+    ... this.counter.root() ...                    -- DequeCounter
+    ... this.counter.added() ...                   -- void
+    ... this.counter.removed() ...                 -- void
     ... this.next.replacePrev(ANode<T>) ...        -- void
     ... this.next.replaceNext(ANode<T>) ...        -- void
     ... this.next.updateNext(ANode<T>) ...         -- void
@@ -443,59 +971,1011 @@ class Node<T> extends ANode<T> {
       throw new IllegalArgumentException(
           "One or both of the ANodes provided to the Node constructor is null");
     }
+    
+    // This node joins the list of its neighbors, so it is counted by their counter
+    this.counter = prev.counter.root();
+    this.counter.added();
+  }
+  
+  // Gets the total number of nodes (including this one, if it is a node) until the next sentinel
+  // in the list.
+  @Override
+  int sizeToSentinel() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return 1 + this.next.sizeToSentinel();
+  }
+  
+  // Deletes this node from its list by modifying its previous and next elements to refer to each
+  // other, and detaches it from them. If this is a Sentinel, or a node that is no longer in a
+  // list, does nothing.
+  // EFFECT: if this is a node in a list, modifies the previous and next elements in this list to
+  // refer to each other, and sets the previous and next elements of this to null
+  @Override
+  void selfDelete() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.prev == null) {
+      return;
+    }
+    this.prev.replaceNext(this.next);
+    this.prev = null;
+    this.next = null;
+    // The list may have been spliced onto another since this node was added
+    this.counter = this.counter.root();
+    this.counter.removed();
+  }
+  
+  // Removes this from its list by modifying its previous and next elements to refer to each
+  // other, returning the data of this. If this is a Sentinel, throws an exception.
+  // EFFECT: if this is a node, modifies the previous and next elements in this list to refer to
+  // each other.
+  @Override
+  T selfRemove() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.selfDelete();
+    return this.data;
   }
   
-  // Gets the total number of nodes (including this one, if it is a node) until the next sentinel
-  // in the list.
-  @Override
-  int sizeToSentinel() {
-    /*
-    TEMPLATE: Same as class template
-     */
-    return 1 + this.next.sizeToSentinel();
+  // Finds the first occurrence of a Node that satisfies pred before the next Sentinel. If no
+  // such node is found, returns the next Sentinel.
+  @Override
+  ANode<T> findToSentinel(Predicate<T> pred) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... pred ...    -- Predicate<T>
+    Methods:
+    ... pred.test() -- boolean
+     */
+    if (pred.test(this.data)) {
+      return this;
+    } else {
+      return this.next.findToSentinel(pred);
+    }
+  }
+  
+  // Gets the data of this node, throwing an exception if this is a Sentinel.
+  @Override
+  T getData() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.data;
+  }
+}
+
+// Counts the nodes in a list and the changes made to it. A counter is shared by the sentinel and
+// every node of a list, so that a node can keep the count of its list up to date as it is
+// added or removed without walking to the sentinel. When one list is spliced onto another, the
+// counter of the nodes that moved is forwarded to the counter of the list they joined, so the
+// nodes find the right counter without each being updated.
+class DequeCounter {
+  int size;
+  // the number of times the list has been changed
+  int modCount;
+  // the counter that this one was merged into, or null if it still counts a list itself
+  DequeCounter forward;
+  
+  /*
+    TEMPLATE for DequeCounter
+    Fields:
+    ... this.size ... -- int
+    ... this.modCount ... -- int
+    ... this.forward ... -- DequeCounter
+    Methods:
+    ... this.size() ... -- int
+    ... this.modCount() ... -- int
+    ... this.added() ... -- void
+    ... this.removed() ... -- void
+    ... this.removedMany(int) ... -- void
+    ... this.root() ... -- DequeCounter
+    ... this.forwardTo(DequeCounter) ... -- DequeCounter
+    Methods on fields:
+    ... this.forward.root() ... -- DequeCounter
+   */
+  
+  DequeCounter() {
+    this(0);
+  }
+  
+  DequeCounter(int modCount) {
+    this.size = 0;
+    this.modCount = modCount;
+    this.forward = null;
+  }
+  
+  // Gets the number of nodes in the list
+  int size() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.size;
+  }
+  
+  // Gets the number of times the list has been changed
+  int modCount() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.modCount;
+  }
+  
+  // Records that a node has been added to the list
+  // EFFECT: increments size and modCount
+  void added() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.size += 1;
+    this.modCount += 1;
+  }
+  
+  // Records that a node has been removed from the list
+  // EFFECT: decrements size and increments modCount
+  void removed() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.size -= 1;
+    this.modCount += 1;
+  }
+  
+  // Records that the given number of nodes have been removed from the list at once
+  // EFFECT: subtracts count from size and increments modCount
+  void removedMany(int count) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... count ... -- int
+     */
+    this.size -= count;
+    this.modCount += 1;
+  }
+  
+  // Produces the counter that currently counts the list of a node holding this counter, by
+  // following forwards until reaching a counter that has none
+  // EFFECT: points every counter on the way directly at the result, so that following them again
+  // takes constant time
+  DequeCounter root() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.forward == null) {
+      return this;
+    }
+    this.forward = this.forward.root();
+    return this.forward;
+  }
+  
+  // Merges the count of this counter into the given one, after every node of the list this counts
+  // was moved to the list that counts, and produces a new counter for the emptied list. The new
+  // counter continues the modCount of this one, so iterators over the emptied list see it change.
+  // EFFECT: forwards this counter to that, adds its size to that, and changes both lists
+  DequeCounter forwardTo(DequeCounter that) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... that ... -- DequeCounter
+    Fields of parameters:
+    ... that.size ... -- int
+    ... that.modCount ... -- int
+     */
+    that.size += this.size;
+    that.modCount += 1;
+    this.size = 0;
+    this.forward = that;
+    return new DequeCounter(this.modCount + 1);
+  }
+}
+
+// Iterates over the data of a Deque from front to back, failing fast if the Deque is changed
+// other than through this iterator.
+class DequeIterator<T> implements Iterator<T> {
+  Deque<T> deque;
+  Sentinel<T> header;
+  // the node whose data is produced next, or the header if there is none
+  ANode<T> nextNode;
+  // the node whose data was produced last, or null if it has been removed or there is none
+  ANode<T> lastNode;
+  // the modCount of the deque that this iterator expects
+  int expectedModCount;
+  
+  /*
+    TEMPLATE for DequeIterator
+    Fields:
+    ... this.deque ... -- Deque<T>
+    ... this.header ... -- Sentinel<T>
+    ... this.nextNode ... -- ANode<T>
+    ... this.lastNode ... -- ANode<T>
+    ... this.expectedModCount ... -- int
+    Methods:
+    ... this.hasNext() ... -- boolean
+    ... this.next() ... -- T
+    ... this.remove() ... -- void
+    ... this.checkForModification() ... -- void
+    Methods on fields:
+    ... this.nextNode.getData() ... -- T
+    ... this.deque.removeNode(ANode<T>) ... -- void
+    ... this.header.modCount() ... -- int
+   */
+  
+  DequeIterator(Deque<T> deque) {
+    Sentinel<T> header = deque.header;
+    this.deque = deque;
+    this.header = header;
+    this.nextNode = header.next;
+    this.lastNode = null;
+    this.expectedModCount = header.modCount();
+  }
+  
+  // Determines whether there is data left to produce
+  @Override
+  public boolean hasNext() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.nextNode != this.header;
+  }
+  
+  // Produces the next data of the deque, throwing a NoSuchElementException if there is none, or
+  // a ConcurrentModificationException if the deque has been changed by something else
+  // EFFECT: advances this iterator to the following node
+  @Override
+  public T next() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.checkForModification();
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No nodes left in the deque");
+    }
+    this.lastNode = this.nextNode;
+    this.nextNode = this.nextNode.next;
+    return this.lastNode.getData();
+  }
+  
+  // Removes the node whose data was produced last from the deque, throwing an
+  // IllegalStateException if there is none
+  // EFFECT: removes the last node produced from the deque
+  @Override
+  public void remove() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    this.checkForModification();
+    if (this.lastNode == null) {
+      throw new IllegalStateException("next has not been called since the last remove");
+    }
+    // Removing through the deque keeps anything it maintains besides the list up to date
+    this.deque.removeNode(this.lastNode);
+    this.lastNode = null;
+    this.expectedModCount = this.header.modCount();
+  }
+  
+  // Throws a ConcurrentModificationException if the deque has been changed since this iterator
+  // last saw it
+  void checkForModification() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.header.modCount() != this.expectedModCount) {
+      throw new ConcurrentModificationException("The deque was changed during iteration");
+    }
+  }
+}
+
+// Represents a generic list that can be traversed in either direction, from the front or from
+// the back, stored in a circular array instead of a chain of nodes. The array grows as needed, so
+// adding and removing at either end takes constant (amortized) time and allocates nothing per
+// element, and the elements are laid out next to each other for iteration.
+class RingDeque<T> implements Iterable<T> {
+  // the longest the array can be, as the largest power of two that is a valid array length
+  static final int MAX_CAPACITY = 1 << 30;
+  
+  // the elements, where the element at index i of the deque is stored at
+  // (head + i) & (elems.length - 1), and every other slot is null
+  Object[] elems;
+  int head;
+  int size;
+  
+  /*
+    TEMPLATE for RingDeque
+    Fields:
+    ... this.elems ... -- Object[]
+    ... this.head ... -- int
+    ... this.size ... -- int
+    Methods:
+    ... this.size() ... -- int
+    ... this.addAtHead(T) ... -- void
+    ... this.addAtTail(T) ... -- void
+    ... this.removeFromHead() ... -- T
+    ... this.removeFromTail() ... -- T
+    ... this.get(int) ... -- T
+    ... this.find(Predicate<T>) ... -- int
+    ... this.removeAt(int) ... -- T
+    ... this.iterator() ... -- Iterator<T>
+    ... this.slot(int) ... -- int
+    ... this.grow() ... -- void
+   */
+  
+  // Creates an empty RingDeque with room for at least the given number of elements before it
+  // needs to grow
+  RingDeque(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must not be negative, given " + capacity);
+    }
+    if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException(
+          "capacity must be at most " + MAX_CAPACITY + ", given " + capacity);
+    }
+    // The capacity is kept a power of two so that wrapping around is a mask
+    int length = 8;
+    while (length < capacity) {
+      length *= 2;
+    }
+    this.elems = new Object[length];
+    this.head = 0;
+    this.size = 0;
+  }
+  
+  RingDeque() {
+    this(8);
+  }
+  
+  // Counts the number of elements in this RingDeque.
+  int size() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.size;
+  }
+  
+  // Consumes a value of type T and inserts it at the front of the list.
+  // EFFECT: stores the value in the slot before the head, growing the array if it is full
+  void addAtHead(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    if (this.size == this.elems.length) {
+      this.grow();
+    }
+    this.head = (this.head - 1) & (this.elems.length - 1);
+    this.elems[this.head] = that;
+    this.size += 1;
+  }
+  
+  // Consumes a value of type T and inserts it at the tail of the list.
+  // EFFECT: stores the value in the slot after the tail, growing the array if it is full
+  void addAtTail(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    if (this.size == this.elems.length) {
+      this.grow();
+    }
+    this.elems[this.slot(this.size)] = that;
+    this.size += 1;
+  }
+  
+  // Removes the first element from this RingDeque and returns it, throwing an exception if this
+  // RingDeque is empty
+  // EFFECT: clears the slot of the first element and moves the head past it
+  T removeFromHead() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.size == 0) {
+      throw new RuntimeException("Attempted to remove from an empty deque");
+    }
+    T data = this.get(0);
+    this.elems[this.head] = null;
+    this.head = (this.head + 1) & (this.elems.length - 1);
+    this.size -= 1;
+    return data;
+  }
+  
+  // Removes the last element from this RingDeque and returns it, throwing an exception if this
+  // RingDeque is empty
+  // EFFECT: clears the slot of the last element
+  T removeFromTail() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.size == 0) {
+      throw new RuntimeException("Attempted to remove from an empty deque");
+    }
+    T data = this.get(this.size - 1);
+    this.elems[this.slot(this.size - 1)] = null;
+    this.size -= 1;
+    return data;
+  }
+  
+  // Gets the element at the given index from the front of this RingDeque, throwing an
+  // IndexOutOfBoundsException if there is none
+  @SuppressWarnings("unchecked")
+  T get(int index) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+     */
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException(
+          "Index " + index + " out of bounds for size " + this.size);
+    }
+    return (T) this.elems[this.slot(index)];
+  }
+  
+  // Produces the index from the front of the first element in this RingDeque for which the given
+  // predicate returns true. If the predicate never returns true for any element in this
+  // RingDeque, returns -1.
+  int find(Predicate<T> pred) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... pred ...         -- Predicate<T>
+    Methods on parameters:
+    ... pred.test(T) ... -- boolean
+     */
+    for (int i = 0; i < this.size; i += 1) {
+      if (pred.test(this.get(i))) {
+        return i;
+      }
+    }
+    return -1;
+  }
+  
+  // Removes the element at the given index from the front of this RingDeque and returns it,
+  // throwing an IndexOutOfBoundsException if there is none. This is the counterpart of
+  // Deque.removeNode for indices produced by find.
+  // EFFECT: shifts the elements on the shorter side of the index over by one to close the gap
+  T removeAt(int index) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+     */
+    T data = this.get(index);
+    if (index < this.size / 2) {
+      for (int i = index; i > 0; i -= 1) {
+        this.elems[this.slot(i)] = this.elems[this.slot(i - 1)];
+      }
+      this.elems[this.head] = null;
+      this.head = (this.head + 1) & (this.elems.length - 1);
+    } else {
+      for (int i = index; i < this.size - 1; i += 1) {
+        this.elems[this.slot(i)] = this.elems[this.slot(i + 1)];
+      }
+      this.elems[this.slot(this.size - 1)] = null;
+    }
+    this.size -= 1;
+    return data;
+  }
+  
+  // Produces an Iterator over the elements of this RingDeque from front to back
+  @Override
+  public Iterator<T> iterator() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return new RingDequeIterator<>(this);
+  }
+  
+  // Gets the slot of the array that holds the element at the given index from the front
+  int slot(int index) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+     */
+    return (this.head + index) & (this.elems.length - 1);
+  }
+  
+  // Doubles the length of the array, moving the elements to the start of the new one. Throws an
+  // IllegalStateException if the array is already as long as it can be.
+  // EFFECT: replaces elems with an array twice as long, and sets head to 0
+  void grow() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.elems.length >= MAX_CAPACITY) {
+      throw new IllegalStateException(
+          "A RingDeque cannot hold more than " + MAX_CAPACITY + " elements");
+    }
+    Object[] grown = new Object[this.elems.length * 2];
+    int firstPart = Math.min(this.size, this.elems.length - this.head);
+    System.arraycopy(this.elems, this.head, grown, 0, firstPart);
+    System.arraycopy(this.elems, 0, grown, firstPart, this.size - firstPart);
+    this.elems = grown;
+    this.head = 0;
+  }
+}
+
+// Iterates over the elements of a RingDeque from front to back
+class RingDequeIterator<T> implements Iterator<T> {
+  RingDeque<T> deque;
+  // the index of the next element to produce
+  int index;
+  
+  /*
+    TEMPLATE for RingDequeIterator
+    Fields:
+    ... this.deque ... -- RingDeque<T>
+    ... this.index ... -- int
+    Methods:
+    ... this.hasNext() ... -- boolean
+    ... this.next() ... -- T
+    Methods on fields:
+    ... this.deque.size() ... -- int
+    ... this.deque.get(int) ... -- T
+   */
+  
+  RingDequeIterator(RingDeque<T> deque) {
+    this.deque = deque;
+    this.index = 0;
+  }
+  
+  // Determines whether there are elements of the deque left to produce
+  @Override
+  public boolean hasNext() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.index < this.deque.size();
+  }
+  
+  // Produces the next element of the deque, throwing a NoSuchElementException if there is none
+  // EFFECT: advances this iterator to the following element
+  @Override
+  public T next() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No elements left in the deque");
+    }
+    T data = this.deque.get(this.index);
+    this.index += 1;
+    return data;
+  }
+}
+
+// Represents a generic list that can be added to and removed from at either end by many threads
+// at once without a lock. The elements are held in a doubly linked list of ConcurrentNodes,
+// following the design of the JSR-166 ConcurrentLinkedDeque:
+//   - the first node is the only one whose prev is null, and the last node is the only one whose
+//     next is null. Adding an element compare-and-sets one of those null links to a new node, so
+//     it takes effect at that instant.
+//   - removing an element compare-and-sets the item of its node to null, so it takes effect at
+//     that instant. Afterwards, the neighbors of the node are linked past it.
+// Each end is changed with its own compare-and-set, so producers at one end and consumers at the
+// other only compete when the deque is nearly empty. head and tail are only hints: the first node
+// is found by following prev links from head, and the last by following next links from tail.
+// Since null is used to report an empty deque, null cannot be added.
+class ConcurrentDeque<T> {
+  // a node from which the first node can be reached by following prev links
+  AtomicReference<ConcurrentNode<T>> head;
+  // a node from which the last node can be reached by following next links
+  AtomicReference<ConcurrentNode<T>> tail;
+  
+  /*
+    TEMPLATE for ConcurrentDeque
+    Fields:
+    ... this.head ... -- AtomicReference<ConcurrentNode<T>>
+    ... this.tail ... -- AtomicReference<ConcurrentNode<T>>
+    Methods:
+    ... this.size() ... -- int
+    ... this.addAtHead(T) ... -- void
+    ... this.addAtTail(T) ... -- void
+    ... this.removeFromHead() ... -- T
+    ... this.removeFromTail() ... -- T
+    ... this.pollFromHead() ... -- T
+    ... this.pollFromTail() ... -- T
+    ... this.toList() ... -- ArrayList<T>
+    ... this.first() ... -- ConcurrentNode<T>
+    ... this.last() ... -- ConcurrentNode<T>
+    ... this.unlink(ConcurrentNode<T>) ... -- void
+    ... this.unlinkFirst(ConcurrentNode<T>, ConcurrentNode<T>) ... -- void
+    ... this.unlinkLast(ConcurrentNode<T>, ConcurrentNode<T>) ... -- void
+    ... this.skipDeletedPredecessors(ConcurrentNode<T>) ... -- void
+    ... this.skipDeletedSuccessors(ConcurrentNode<T>) ... -- void
+    Methods on fields:
+    ... this.head.get() ... -- ConcurrentNode<T>
+    ... this.head.compareAndSet(ConcurrentNode<T>, ConcurrentNode<T>) ... -- boolean
+    ... this.tail.get() ... -- ConcurrentNode<T>
+    ... this.tail.compareAndSet(ConcurrentNode<T>, ConcurrentNode<T>) ... -- boolean
+   */
+  
+  ConcurrentDeque() {
+    // The list always holds at least one node, which starts out as both the first and the last
+    ConcurrentNode<T> node = new ConcurrentNode<>(null);
+    this.head = new AtomicReference<>(node);
+    this.tail = new AtomicReference<>(node);
+  }
+  
+  // Counts the number of elements in this ConcurrentDeque. The elements are counted one at a
+  // time, so if other threads change the deque meanwhile, the count may not match any single
+  // moment.
+  int size() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    int count = 0;
+    for (ConcurrentNode<T> p = this.first(); p != null; p = p.next) {
+      if (p.item != null) {
+        count += 1;
+      }
+    }
+    return count;
+  }
+  
+  // Consumes a value of type T and inserts it at the front of the list.
+  // EFFECT: links a node holding the value before the first node
+  void addAtHead(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    if (that == null) {
+      throw new IllegalArgumentException("Cannot add null to a ConcurrentDeque");
+    }
+    ConcurrentNode<T> node = new ConcurrentNode<>(that);
+    while (true) {
+      ConcurrentNode<T> first = this.first();
+      node.next = first;
+      if (first.casPrev(null, node)) {
+        // Moving head is only a shortcut, so it does not matter if another thread moved it first
+        this.head.compareAndSet(first, node);
+        return;
+      }
+    }
+  }
+  
+  // Consumes a value of type T and inserts it at the tail of the list.
+  // EFFECT: links a node holding the value after the last node
+  void addAtTail(T that) {
+    /*
+    TEMPLATE:
+    Parameters:
+    ... that ...  -- T
+     */
+    if (that == null) {
+      throw new IllegalArgumentException("Cannot add null to a ConcurrentDeque");
+    }
+    ConcurrentNode<T> node = new ConcurrentNode<>(that);
+    while (true) {
+      ConcurrentNode<T> last = this.last();
+      node.prev = last;
+      if (last.casNext(null, node)) {
+        this.tail.compareAndSet(last, node);
+        return;
+      }
+    }
+  }
+  
+  // Removes the first element from this ConcurrentDeque and returns it, throwing an exception if
+  // this ConcurrentDeque is empty
+  // EFFECT: removes the first element from this deque
+  T removeFromHead() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    T data = this.pollFromHead();
+    if (data == null) {
+      throw new RuntimeException("Attempted to remove from an empty deque");
+    }
+    return data;
+  }
+  
+  // Removes the last element from this ConcurrentDeque and returns it, throwing an exception if
+  // this ConcurrentDeque is empty
+  // EFFECT: removes the last element from this deque
+  T removeFromTail() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    T data = this.pollFromTail();
+    if (data == null) {
+      throw new RuntimeException("Attempted to remove from an empty deque");
+    }
+    return data;
+  }
+  
+  // Removes the first element from this ConcurrentDeque and returns it, or returns null if this
+  // ConcurrentDeque is empty. Since other threads may remove elements between a call to size
+  // and a call to removeFromHead, consumers should use this instead.
+  // EFFECT: removes the first element from this deque, if there is one
+  T pollFromHead() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    while (true) {
+      ConcurrentNode<T> first = this.first();
+      ConcurrentNode<T> p = first;
+      // If anything is added before first while searching, the element found may no longer be
+      // the first one, so the search starts over
+      while (p != null && first.prev == null) {
+        T item = p.item;
+        if (item != null && first.prev == null && p.casItem(item, null)) {
+          this.unlink(p);
+          return item;
+        }
+        p = p.next;
+      }
+      if (first.prev == null) {
+        return null;
+      }
+    }
+  }
+  
+  // Removes the last element from this ConcurrentDeque and returns it, or returns null if this
+  // ConcurrentDeque is empty.
+  // EFFECT: removes the last element from this deque, if there is one
+  T pollFromTail() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    while (true) {
+      ConcurrentNode<T> last = this.last();
+      ConcurrentNode<T> p = last;
+      while (p != null && last.next == null) {
+        T item = p.item;
+        if (item != null && last.next == null && p.casItem(item, null)) {
+          this.unlink(p);
+          return item;
+        }
+        p = p.prev;
+      }
+      if (last.next == null) {
+        return null;
+      }
+    }
+  }
+  
+  // Produces the elements of this ConcurrentDeque from front to back. Like size, this may not
+  // match any single moment if other threads change the deque meanwhile.
+  ArrayList<T> toList() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ArrayList<T> elems = new ArrayList<>();
+    for (ConcurrentNode<T> p = this.first(); p != null; p = p.next) {
+      T item = p.item;
+      if (item != null) {
+        elems.add(item);
+      }
+    }
+    return elems;
+  }
+  
+  // Finds the first node, the only one whose prev is null, and moves head to it
+  // EFFECT: may set head to the first node
+  ConcurrentNode<T> first() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ConcurrentNode<T> h = this.head.get();
+    ConcurrentNode<T> p = h;
+    while (p.prev != null) {
+      p = p.prev;
+    }
+    if (p != h) {
+      this.head.compareAndSet(h, p);
+    }
+    return p;
+  }
+  
+  // Finds the last node, the only one whose next is null, and moves tail to it
+  // EFFECT: may set tail to the last node
+  ConcurrentNode<T> last() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ConcurrentNode<T> t = this.tail.get();
+    ConcurrentNode<T> p = t;
+    while (p.next != null) {
+      p = p.next;
+    }
+    if (p != t) {
+      this.tail.compareAndSet(t, p);
+    }
+    return p;
+  }
+  
+  // Links the neighbors of the given node, whose item has just been removed, past it and any
+  // other removed nodes next to it, so that they can no longer be reached from the elements. The
+  // first and last nodes are never unlinked, since elements are added next to them, so removed
+  // nodes at the very ends stay until something is added beyond them.
+  // EFFECT: changes the links of the nearest nodes around x that are not removed
+  void unlink(ConcurrentNode<T> x) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... x ... -- ConcurrentNode<T>
+     */
+    ConcurrentNode<T> prev = x.prev;
+    ConcurrentNode<T> next = x.next;
+    if (prev == null) {
+      this.unlinkFirst(x, next);
+    } else if (next == null) {
+      this.unlinkLast(x, prev);
+    } else {
+      // The nearest nodes that are kept are the ones with an element, or the first or last node
+      ConcurrentNode<T> activePred = prev;
+      while (activePred.item == null && activePred.prev != null) {
+        activePred = activePred.prev;
+      }
+      ConcurrentNode<T> activeSucc = next;
+      while (activeSucc.item == null && activeSucc.next != null) {
+        activeSucc = activeSucc.next;
+      }
+      this.skipDeletedSuccessors(activePred);
+      this.skipDeletedPredecessors(activeSucc);
+    }
+  }
+  
+  // Links the given first node, whose item has been removed, past any removed nodes after it
+  // EFFECT: may change the next of first and the prev of the node it is linked to
+  void unlinkFirst(ConcurrentNode<T> first, ConcurrentNode<T> next) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... first ... -- ConcurrentNode<T>
+    ... next ... -- ConcurrentNode<T>
+     */
+    ConcurrentNode<T> p = next;
+    while (p.item == null && p.next != null) {
+      p = p.next;
+    }
+    if (p != next && first.casNext(next, p)) {
+      this.skipDeletedPredecessors(p);
+    }
+  }
+  
+  // Links the given last node, whose item has been removed, past any removed nodes before it
+  // EFFECT: may change the prev of last and the next of the node it is linked to
+  void unlinkLast(ConcurrentNode<T> last, ConcurrentNode<T> prev) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... last ... -- ConcurrentNode<T>
+    ... prev ... -- ConcurrentNode<T>
+     */
+    ConcurrentNode<T> p = prev;
+    while (p.item == null && p.prev != null) {
+      p = p.prev;
+    }
+    if (p != prev && last.casPrev(prev, p)) {
+      this.skipDeletedSuccessors(p);
+    }
+  }
+  
+  // Links x back past any removed nodes before it, retrying while x is still kept in the list.
+  // Nodes are only ever added at the ends, so nothing can be added between x and the node it is
+  // linked to.
+  // EFFECT: may change the prev of x
+  void skipDeletedPredecessors(ConcurrentNode<T> x) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... x ... -- ConcurrentNode<T>
+     */
+    do {
+      ConcurrentNode<T> prev = x.prev;
+      ConcurrentNode<T> p = prev;
+      while (p.item == null && p.prev != null) {
+        p = p.prev;
+      }
+      if (p == prev || x.casPrev(prev, p)) {
+        return;
+      }
+    } while (x.item != null || x.next == null);
+  }
+  
+  // Links x forward past any removed nodes after it, retrying while x is still kept in the list
+  // EFFECT: may change the next of x
+  void skipDeletedSuccessors(ConcurrentNode<T> x) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... x ... -- ConcurrentNode<T>
+     */
+    do {
+      ConcurrentNode<T> next = x.next;
+      ConcurrentNode<T> p = next;
+      while (p.item == null && p.next != null) {
+        p = p.next;
+      }
+      if (p == next || x.casNext(next, p)) {
+        return;
+      }
+    } while (x.item != null || x.prev == null);
+  }
+}
+
+// Represents one node of a ConcurrentDeque: an element, or null once the element has been
+// removed, and links to the nodes before and after it. Every field is only changed with
+// compare-and-set once the node is in a list.
+class ConcurrentNode<T> {
+  static final VarHandle PREV;
+  static final VarHandle NEXT;
+  static final VarHandle ITEM;
+  
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      PREV = lookup.findVarHandle(ConcurrentNode.class, "prev", ConcurrentNode.class);
+      NEXT = lookup.findVarHandle(ConcurrentNode.class, "next", ConcurrentNode.class);
+      ITEM = lookup.findVarHandle(ConcurrentNode.class, "item", Object.class);
+    } catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+  
+  volatile ConcurrentNode<T> prev;
+  volatile T item;
+  volatile ConcurrentNode<T> next;
+  
+  /*
+    TEMPLATE for ConcurrentNode
+    Fields:
+    ... this.prev ... -- ConcurrentNode<T>
+    ... this.item ... -- T
+    ... this.next ... -- ConcurrentNode<T>
+    Methods:
+    ... this.casPrev(ConcurrentNode<T>, ConcurrentNode<T>) ... -- boolean
+    ... this.casNext(ConcurrentNode<T>, ConcurrentNode<T>) ... -- boolean
+    ... this.casItem(T, T) ... -- boolean
+   */
+  
+  ConcurrentNode(T item) {
+    this.item = item;
   }
   
-  // Deletes this node from its list by modifying its previous and next elements to refer to each
-  // other. If this is a Sentinel, does nothing.
-  // EFFECT: if this is a node, modifies the previous and next elements in this list to refer to
-  // each other.
-  @Override
-  void selfDelete() {
+  // Sets prev to that if it is expected, determining whether it was
+  // EFFECT: may set prev
+  boolean casPrev(ConcurrentNode<T> expected, ConcurrentNode<T> that) {
     /*
-    TEMPLATE: Same as class template
+    TEMPLATE
+    Parameters:
+    ... expected ... -- ConcurrentNode<T>
+    ... that ... -- ConcurrentNode<T>
      */
-    this.prev.replaceNext(this.next);
+    return PREV.compareAndSet(this, expected, that);
   }
   
-  // Removes this from its list by modifying its previous and next elements to refer to each
-  // other, returning the data of this. If this is a Sentinel, throws an exception.
-  // EFFECT: if this is a node, modifies the previous and next elements in this list to refer to
-  // each other.
-  @Override
-  T selfRemove() {
+  // Sets next to that if it is expected, determining whether it was
+  // EFFECT: may set next
+  boolean casNext(ConcurrentNode<T> expected, ConcurrentNode<T> that) {
     /*
-    TEMPLATE: Same as class template
+    TEMPLATE
+    Parameters:
+    ... expected ... -- ConcurrentNode<T>
+    ... that ... -- ConcurrentNode<T>
      */
-    this.selfDelete();
-    return this.data;
+    return NEXT.compareAndSet(this, expected, that);
   }
   
-  // Finds the first occurrence of a Node that satisfies pred before the next Sentinel. If no
-  // such node is found, returns the next Sentinel.
-  @Override
-  ANode<T> findToSentinel(Predicate<T> pred) {
+  // Sets item to that if it is expected, determining whether it was
+  // EFFECT: may set item
+  boolean casItem(T expected, T that) {
     /*
     TEMPLATE
     Parameters:
-    ... pred ...    -- Predicate<T>
-    Methods:
-    ... pred.test() -- boolean
+    ... expected ... -- T
+    ... that ... -- T
      */
-    if (pred.test(this.data)) {
-      return this;
-    } else {
-      return this.next.findToSentinel(pred);
-    }
+    return ITEM.compareAndSet(this, expected, that);
   }
 }
 
@@ -531,6 +2011,190 @@ class GreaterThan implements Predicate<Integer> {
   }
 }
 
+// A function to produce the first letter of a String, used as the key of an IndexedDeque
+class FirstLetter implements Function<String, Character> {
+  // Produces the first letter of the given String
+  @Override
+  public Character apply(String s) {
+    return s.charAt(0);
+  }
+}
+
+// CONCURRENCY TESTING ----------------------------------------------------------------------------
+
+// Represents one call made on a ConcurrentDeque<Integer> during a stress test: its kind, the
+// value it added or removed (null if it found the deque empty), and the ticks of a shared clock
+// just before it was called and just after it returned.
+class DequeCall {
+  static final int ADD_HEAD = 0;
+  static final int ADD_TAIL = 1;
+  static final int POLL_HEAD = 2;
+  static final int POLL_TAIL = 3;
+  
+  int kind;
+  Integer value;
+  long start;
+  long end;
+  
+  DequeCall(int kind, Integer value, long start, long end) {
+    this.kind = kind;
+    this.value = value;
+    this.start = start;
+    this.end = end;
+  }
+  
+  // Applies this call to the sequential deque, determining whether it produces the same value
+  // there. If it does not, the deque is left unchanged.
+  // EFFECT: makes the same change to deque as this call made
+  boolean applyTo(Deque<Integer> deque) {
+    if (this.kind == ADD_HEAD) {
+      deque.addAtHead(this.value);
+      return true;
+    } else if (this.kind == ADD_TAIL) {
+      deque.addAtTail(this.value);
+      return true;
+    } else if (deque.size() == 0) {
+      return this.value == null;
+    } else if (this.kind == POLL_HEAD) {
+      Integer removed = deque.removeFromHead();
+      if (!removed.equals(this.value)) {
+        deque.addAtHead(removed);
+        return false;
+      }
+      return true;
+    } else {
+      Integer removed = deque.removeFromTail();
+      if (!removed.equals(this.value)) {
+        deque.addAtTail(removed);
+        return false;
+      }
+      return true;
+    }
+  }
+  
+  // Undoes this call on the sequential deque, after it has been applied
+  // EFFECT: reverses the change made by applyTo
+  void undo(Deque<Integer> deque) {
+    if (this.kind == ADD_HEAD) {
+      deque.removeFromHead();
+    } else if (this.kind == ADD_TAIL) {
+      deque.removeFromTail();
+    } else if (this.value != null && this.kind == POLL_HEAD) {
+      deque.addAtHead(this.value);
+    } else if (this.value != null) {
+      deque.addAtTail(this.value);
+    }
+  }
+}
+
+// Makes a random sequence of calls on a ConcurrentDeque<Integer>, recording each one. Values
+// added are unique to each worker.
+class DequeWorker implements Runnable {
+  ConcurrentDeque<Integer> deque;
+  AtomicLong clock;
+  int id;
+  int numCalls;
+  Random random;
+  ArrayList<DequeCall> calls;
+  
+  DequeWorker(ConcurrentDeque<Integer> deque, AtomicLong clock, int id, int numCalls,
+              Random random) {
+    this.deque = deque;
+    this.clock = clock;
+    this.id = id;
+    this.numCalls = numCalls;
+    this.random = random;
+    this.calls = new ArrayList<>();
+  }
+  
+  // Makes the calls, recording each one in calls
+  // EFFECT: changes the deque, and adds to calls
+  @Override
+  public void run() {
+    for (int i = 0; i < this.numCalls; i += 1) {
+      int kind = this.random.nextInt(4);
+      Integer value = this.id * this.numCalls + i;
+      long start = this.clock.getAndIncrement();
+      if (kind == DequeCall.ADD_HEAD) {
+        this.deque.addAtHead(value);
+      } else if (kind == DequeCall.ADD_TAIL) {
+        this.deque.addAtTail(value);
+      } else if (kind == DequeCall.POLL_HEAD) {
+        value = this.deque.pollFromHead();
+      } else {
+        value = this.deque.pollFromTail();
+      }
+      this.calls.add(new DequeCall(kind, value, start, this.clock.getAndIncrement()));
+    }
+  }
+}
+
+// Adds a run of values at the tail of a ConcurrentDeque<Integer>, counting down running when it
+// is done. The values are unique to each producer and added in increasing order.
+class DequeProducer implements Runnable {
+  ConcurrentDeque<Integer> deque;
+  int id;
+  int numValues;
+  AtomicLong running;
+  
+  DequeProducer(ConcurrentDeque<Integer> deque, int id, int numValues, AtomicLong running) {
+    this.deque = deque;
+    this.id = id;
+    this.numValues = numValues;
+    this.running = running;
+  }
+  
+  // Adds the values, in order
+  // EFFECT: adds to the tail of the deque, and decrements running
+  @Override
+  public void run() {
+    for (int i = 0; i < this.numValues; i += 1) {
+      this.deque.addAtTail(this.id * this.numValues + i);
+    }
+    this.running.decrementAndGet();
+  }
+}
+
+// Checks whether the calls recorded during a stress test are linearizable: whether they can be
+// put in an order that respects which calls finished before others started, and in which
+// applying them one by one to a sequential Deque produces the same values they did.
+class DequeHistoryChecker {
+  // Determines whether the given calls, starting from an empty deque, are linearizable
+  boolean linearizable(ArrayList<DequeCall> calls) {
+    return this.search(calls, new boolean[calls.size()], calls.size(), new Deque<>());
+  }
+  
+  // Determines whether the calls not yet done can be linearized after the ones that are, which
+  // have left the sequential deque as given
+  // EFFECT: changes done and deque while searching, but restores them before returning
+  boolean search(ArrayList<DequeCall> calls, boolean[] done, int remaining,
+                 Deque<Integer> deque) {
+    if (remaining == 0) {
+      return true;
+    }
+    // Any call that started before every remaining call ended may take effect next
+    long firstEnd = Long.MAX_VALUE;
+    for (int i = 0; i < calls.size(); i += 1) {
+      if (!done[i]) {
+        firstEnd = Math.min(firstEnd, calls.get(i).end);
+      }
+    }
+    for (int i = 0; i < calls.size(); i += 1) {
+      DequeCall call = calls.get(i);
+      if (!done[i] && call.start < firstEnd && call.applyTo(deque)) {
+        done[i] = true;
+        boolean found = this.search(calls, done, remaining - 1, deque);
+        done[i] = false;
+        call.undo(deque);
+        if (found) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
+
 // EXAMPLES ---------------------------------------------------------------------------------------
 
 class ExamplesDeque {
@@ -896,4 +2560,774 @@ class ExamplesDeque {
     t.checkExpect(i6.prev, i5);
   }
   
+  // Counting and iteration ----------------------------------------------------------------------
+  
+  void testSizeCounted(Tester t) {
+    initDeques();
+    dq1.addAtHead("aaa");
+    dq1.addAtTail("zzz");
+    t.checkExpect(dq1.size(), 6);
+    dq1.removeFromHead();
+    dq1.removeNode(bcd);
+    // removing the sentinel does nothing, so it is not counted
+    dq1.removeNode(s1);
+    t.checkExpect(dq1.size(), 4);
+    t.checkExpect(dq1.size(), s1.next.sizeToSentinel());
+    t.checkExpect(s1.modCount(), 8);
+    
+    // every node shares the counter of its sentinel
+    t.checkExpect(abc.counter == s1.counter, true);
+    t.checkExpect(s1.counter == s2.counter, false);
+  }
+  
+  void testRemoveNodeTwice(Tester t) {
+    initDeques();
+    dq1.removeNode(bcd);
+    t.checkExpect(bcd.prev, null);
+    t.checkExpect(bcd.next, null);
+    // a node that is no longer in the list is not removed or counted again
+    dq1.removeNode(bcd);
+    t.checkExpect(dq1.size(), 3);
+    t.checkExpect(dq1.size(), s1.next.sizeToSentinel());
+    t.checkExpect(s1.next, abc);
+    t.checkExpect(abc.next, cde);
+    t.checkExpect(s1.modCount(), 5);
+    
+    // nor is a node that was removed from the head
+    t.checkExpect(dq1.removeFromHead(), "abc");
+    dq1.removeNode(abc);
+    t.checkExpect(dq1.size(), 2);
+    t.checkExpect(dq1.size(), s1.next.sizeToSentinel());
+    t.checkExpect(s1.next, cde);
+  }
+  
+  void testANodeGetData(Tester t) {
+    initDeques();
+    t.checkExpect(abc.getData(), "abc");
+    t.checkException(
+        new RuntimeException("Attempted to get the data of a sentinel"),
+        s1,
+        "getData");
+  }
+  
+  void testIterator(Tester t) {
+    initDeques();
+    ArrayList<String> data = new ArrayList<>();
+    for (String str : dq1) {
+      data.add(str);
+    }
+    t.checkExpect(data, new ArrayList<>(List.of("abc", "bcd", "cde", "def")));
+    
+    Iterator<String> iter = mtdq.iterator();
+    t.checkExpect(iter.hasNext(), false);
+    t.checkException(
+        new NoSuchElementException("No nodes left in the deque"),
+        iter,
+        "next");
+  }
+  
+  void testIteratorRemove(Tester t) {
+    initDeques();
+    Iterator<Integer> iter = dq2.iterator();
+    t.checkException(
+        new IllegalStateException("next has not been called since the last remove"),
+        iter,
+        "remove");
+    // removes every even number
+    while (iter.hasNext()) {
+      if (iter.next() % 2 == 0) {
+        iter.remove();
+      }
+    }
+    t.checkExpect(dq2.size(), 2);
+    t.checkExpect(s2.next, i3);
+    t.checkExpect(i3.next, i5);
+  }
+  
+  void testIteratorFailFast(Tester t) {
+    initDeques();
+    Iterator<String> iter = dq1.iterator();
+    iter.next();
+    dq1.addAtTail("efg");
+    t.checkException(
+        new ConcurrentModificationException("The deque was changed during iteration"),
+        iter,
+        "next");
+    
+    Iterator<String> removing = dq1.iterator();
+    removing.next();
+    dq1.removeFromTail();
+    t.checkException(
+        new ConcurrentModificationException("The deque was changed during iteration"),
+        removing,
+        "remove");
+  }
+  
+  void testStream(Tester t) {
+    initDeques();
+    t.checkExpect(dq1.stream().collect(Collectors.toList()),
+        List.of("abc", "bcd", "cde", "def"));
+    t.checkExpect(dq2.spliterator().getExactSizeIfKnown(), 5L);
+    
+    Deque<Integer> big = new Deque<>();
+    for (int i = 1; i <= 10000; i += 1) {
+      big.addAtTail(i);
+    }
+    t.checkExpect(big.parallelStream().count(), 10000L);
+    t.checkExpect(big.parallelStream().filter(new GreaterThan(9990)).count(), 10L);
+  }
+  
+  // Methods on IndexedDeque ---------------------------------------------------------------------
+  
+  // Produces an IndexedDeque of the given strings from front to back, keyed by first letter
+  IndexedDeque<Character, String> indexedOf(String... strs) {
+    IndexedDeque<Character, String> deque = new IndexedDeque<>(new FirstLetter());
+    for (String str : strs) {
+      deque.addAtTail(str);
+    }
+    return deque;
+  }
+  
+  void testIndexedAdd(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("bcd", "cde");
+    deque.addAtHead("abc");
+    deque.addAtTail("def");
+    t.checkExpect(deque.size(), 4);
+    t.checkExpect(deque.index.size(), 4);
+    t.checkExpect(deque.findByKey('a').getData(), "abc");
+    t.checkExpect(deque.findByKey('d').getData(), "def");
+    t.checkExpect(deque.findByKey('a'), deque.header.next);
+    t.checkExpect(deque.findByKey('d'), deque.header.prev);
+    t.checkExpect(deque.findByKey('z'), deque.header);
+    t.checkExpect(deque.containsKey('c'), true);
+    t.checkExpect(deque.containsKey('z'), false);
+  }
+  
+  void testIndexedDuplicateKeys(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("bcd", "abc", "bbb");
+    deque.addAtHead("baa");
+    // the first one added wins, not the first one in the list
+    t.checkExpect(deque.findByKey('b').getData(), "bcd");
+    t.checkExpect(deque.index.get('b').size(), 3);
+    t.checkExpect(deque.removeByKey('b'), true);
+    t.checkExpect(deque.findByKey('b').getData(), "bbb");
+    t.checkExpect(deque.removeByKey('b'), true);
+    t.checkExpect(deque.findByKey('b').getData(), "baa");
+    t.checkExpect(deque.removeByKey('b'), true);
+    t.checkExpect(deque.removeByKey('b'), false);
+    t.checkExpect(deque.containsKey('b'), false);
+    t.checkExpect(deque.size(), 1);
+    t.checkExpect(deque.header.next.getData(), "abc");
+  }
+  
+  void testIndexedRemove(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("abc", "bcd", "cde", "def");
+    t.checkExpect(deque.removeFromHead(), "abc");
+    t.checkExpect(deque.removeFromTail(), "def");
+    t.checkExpect(deque.containsKey('a'), false);
+    t.checkExpect(deque.containsKey('d'), false);
+    deque.removeNode(deque.findByKey('c'));
+    t.checkExpect(deque.containsKey('c'), false);
+    // removing the header changes nothing
+    deque.removeNode(deque.header);
+    t.checkExpect(deque.size(), 1);
+    t.checkExpect(deque.index.size(), 1);
+    t.checkExpect(deque.removeByKey('b'), true);
+    t.checkExpect(deque.index.size(), 0);
+    t.checkException(
+        new RuntimeException("Attempted to remove a sentinel"),
+        deque,
+        "removeFromHead");
+    t.checkExpect(deque.index.size(), 0);
+  }
+  
+  void testIndexedIteratorRemove(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("abc", "bcd", "cde");
+    Iterator<String> iter = deque.iterator();
+    iter.next();
+    iter.next();
+    iter.remove();
+    t.checkExpect(deque.containsKey('b'), false);
+    t.checkExpect(deque.findByKey('c').getData(), "cde");
+    t.checkExpect(deque.size(), 2);
+  }
+  
+  void testIndexedRemoveFromIndex(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("abc");
+    initDeques();
+    // nodes of another deque are not in the index
+    t.checkExpect(deque.removeFromIndex(abc, "abc"), false);
+    t.checkExpect(deque.removeFromIndex(abc, "xyz"), false);
+    t.checkExpect(deque.removeFromIndex(deque.header.next, "abc"), true);
+    t.checkExpect(deque.index.size(), 0);
+  }
+  
+  void testIndexedRemoveSharedKey(Tester t) {
+    IndexedDeque<Character, String> deque = new IndexedDeque<>(new FirstLetter());
+    for (int i = 0; i < 1000; i += 1) {
+      deque.addAtTail("a" + i);
+    }
+    // removing from the middle of a bucket keeps the order of the rest
+    deque.removeNode(deque.header.next.next.next);
+    deque.removeNode(deque.header.prev);
+    t.checkExpect(deque.index.get('a').size(), 998);
+    t.checkExpect(deque.findByKey('a').getData(), "a0");
+    deque.removeByKey('a');
+    deque.removeByKey('a');
+    t.checkExpect(deque.findByKey('a').getData(), "a3");
+    t.checkExpect(deque.index.get('a').size(), 996);
+    t.checkExpect(deque.size(), 996);
+  }
+  
+  // Bulk operations -----------------------------------------------------------------------------
+  
+  // Produces a Deque of the given strings from front to back
+  Deque<String> dequeOf(String... strs) {
+    Deque<String> deque = new Deque<>();
+    for (String str : strs) {
+      deque.addAtTail(str);
+    }
+    return deque;
+  }
+  
+  // Produces the data of the given Deque from front to back
+  List<String> dequeToList(Deque<String> deque) {
+    return deque.stream().collect(Collectors.toList());
+  }
+  
+  void testConcat(Tester t) {
+    initDeques();
+    Deque<String> other = this.dequeOf("efg", "fgh");
+    dq1.concat(other);
+    t.checkExpect(this.dequeToList(dq1), List.of("abc", "bcd", "cde", "def", "efg", "fgh"));
+    t.checkExpect(dq1.size(), 6);
+    t.checkExpect(dq1.size(), s1.next.sizeToSentinel());
+    t.checkExpect(this.dequeToList(other), List.of());
+    t.checkExpect(other.size(), 0);
+    
+    // the moved nodes are counted by the deque they joined
+    dq1.removeNode(s1.prev);
+    t.checkExpect(dq1.size(), 5);
+    t.checkExpect(other.size(), 0);
+    dq1.addAtTail("ghi");
+    t.checkExpect(this.dequeToList(dq1), List.of("abc", "bcd", "cde", "def", "efg", "ghi"));
+    
+    // the emptied deque can still be used
+    other.addAtHead("xyz");
+    t.checkExpect(this.dequeToList(other), List.of("xyz"));
+    t.checkExpect(other.size(), 1);
+    
+    // concatenating an empty deque changes nothing
+    int modCount = s1.modCount();
+    dq1.concat(mtdq);
+    t.checkExpect(dq1.size(), 6);
+    t.checkExpect(s1.modCount(), modCount);
+    
+    t.checkException(
+        new IllegalArgumentException("Cannot concatenate a deque onto itself"),
+        dq1,
+        "concat",
+        dq1);
+    t.checkException(
+        new IllegalArgumentException("Cannot concatenate a deque onto itself"),
+        dq1,
+        "concat",
+        new Deque<>(s1));
+  }
+  
+  void testConcatChained(Tester t) {
+    Deque<String> first = this.dequeOf("a", "b");
+    Deque<String> second = this.dequeOf("c");
+    Deque<String> third = this.dequeOf("d");
+    ANode<String> a = first.header.next;
+    second.concat(first);
+    third.concat(second);
+    t.checkExpect(this.dequeToList(third), List.of("d", "c", "a", "b"));
+    t.checkExpect(a.counter.forward.forward, third.header.counter);
+    
+    // removing a node moved twice finds the counter of its deque, and shortcuts to it
+    third.removeNode(a);
+    t.checkExpect(a.counter, third.header.counter);
+    t.checkExpect(third.size(), 3);
+    t.checkExpect(second.size(), 0);
+    t.checkExpect(first.size(), 0);
+    t.checkExpect(this.dequeToList(third), List.of("d", "c", "b"));
+  }
+  
+  void testConcatFailFast(Tester t) {
+    initDeques();
+    Deque<String> other = this.dequeOf("efg");
+    Iterator<String> iter = dq1.iterator();
+    Iterator<String> otherIter = other.iterator();
+    dq1.concat(other);
+    t.checkException(
+        new ConcurrentModificationException("The deque was changed during iteration"),
+        iter,
+        "next");
+    t.checkException(
+        new ConcurrentModificationException("The deque was changed during iteration"),
+        otherIter,
+        "next");
+  }
+  
+  void testAddAllAtTail(Tester t) {
+    initDeques();
+    dq1.addAllAtTail(List.of("efg", "fgh"));
+    t.checkExpect(this.dequeToList(dq1), List.of("abc", "bcd", "cde", "def", "efg", "fgh"));
+    t.checkExpect(dq1.size(), 6);
+    dq1.addAllAtTail(new ArrayList<String>());
+    t.checkExpect(dq1.size(), 6);
+    
+    // appending a deque to itself appends a copy
+    Deque<String> deque = this.dequeOf("a", "b");
+    deque.addAllAtTail(deque);
+    t.checkExpect(this.dequeToList(deque), List.of("a", "b", "a", "b"));
+    t.checkExpect(deque.size(), 4);
+  }
+  
+  void testDrainTo(Tester t) {
+    initDeques();
+    ArrayList<Integer> drained = new ArrayList<>();
+    t.checkExpect(dq2.drainTo(drained, 2), 2);
+    t.checkExpect(drained, new ArrayList<>(List.of(4, 2)));
+    t.checkExpect(dq2.size(), 3);
+    t.checkExpect(s2.next, i3);
+    t.checkExpect(i3.prev, s2);
+    t.checkExpect(dq2.drainTo(drained, 0), 0);
+    t.checkExpect(dq2.size(), 3);
+    t.checkExpect(dq2.drainTo(drained, 10), 3);
+    t.checkExpect(drained, new ArrayList<>(List.of(4, 2, 5, 8, 3)));
+    t.checkExpect(dq2.size(), 0);
+    t.checkExpect(s2.next, s2);
+    t.checkExpect(s2.prev, s2);
+    t.checkExpect(dq2.drainTo(drained, 10), 0);
+    t.checkException(
+        new IllegalArgumentException("Cannot drain a negative number of elements"),
+        dq2,
+        "drainTo",
+        drained,
+        -1);
+  }
+  
+  void testDrainToRemoveStale(Tester t) {
+    initDeques();
+    ArrayList<String> drained = new ArrayList<>();
+    t.checkExpect(dq1.drainTo(drained, 2), 2);
+    t.checkExpect(abc.prev, null);
+    t.checkExpect(abc.next, null);
+    t.checkExpect(bcd.next, null);
+    // the drained nodes are no longer in the list, so removing them does nothing
+    dq1.removeNode(abc);
+    dq1.removeNode(bcd);
+    t.checkExpect(dq1.size(), 2);
+    t.checkExpect(this.dequeToList(dq1), List.of("cde", "def"));
+    t.checkExpect(s1.next, cde);
+    t.checkExpect(cde.prev, s1);
+  }
+  
+  void testDrainToTargetThrows(Tester t) {
+    initDeques();
+    // the queue takes two values and then refuses the third
+    ArrayBlockingQueue<String> full = new ArrayBlockingQueue<>(2);
+    t.checkException(new IllegalStateException("Queue full"), dq1, "drainTo", full, 4);
+    t.checkExpect(new ArrayList<>(full), new ArrayList<>(List.of("abc", "bcd")));
+    t.checkExpect(dq1.size(), 2);
+    t.checkExpect(this.dequeToList(dq1), List.of("cde", "def"));
+    t.checkExpect(s1.next, cde);
+    t.checkExpect(cde.prev, s1);
+    t.checkExpect(abc.next, null);
+    t.checkExpect(bcd.prev, null);
+    
+    IndexedDeque<Character, String> deque = this.indexedOf("abc", "bcd", "cde", "def");
+    full.clear();
+    full.add("xyz");
+    t.checkException(new IllegalStateException("Queue full"), deque, "drainTo", full, 4);
+    t.checkExpect(new ArrayList<>(full), new ArrayList<>(List.of("xyz", "abc")));
+    t.checkExpect(deque.size(), 3);
+    t.checkExpect(deque.index.size(), 3);
+    t.checkExpect(deque.containsKey('a'), false);
+    t.checkExpect(deque.findByKey('b'), deque.header.next);
+    t.checkExpect(deque.removeFromHead(), "bcd");
+  }
+  
+  void testDequeCounterForward(Tester t) {
+    DequeCounter from = new DequeCounter();
+    DequeCounter to = new DequeCounter();
+    from.added();
+    from.added();
+    to.added();
+    DequeCounter fresh = from.forwardTo(to);
+    t.checkExpect(to.size(), 3);
+    t.checkExpect(to.modCount(), 2);
+    t.checkExpect(from.root(), to);
+    t.checkExpect(to.root(), to);
+    t.checkExpect(fresh.size(), 0);
+    t.checkExpect(fresh.modCount(), 3);
+    t.checkExpect(fresh.forward, null);
+    to.removedMany(2);
+    t.checkExpect(to.size(), 1);
+    t.checkExpect(to.modCount(), 3);
+  }
+  
+  void testIndexedBulk(Tester t) {
+    IndexedDeque<Character, String> deque = this.indexedOf("abc");
+    IndexedDeque<Character, String> other = this.indexedOf("bcd", "cde");
+    deque.concat(other);
+    t.checkExpect(deque.findByKey('c').getData(), "cde");
+    t.checkExpect(deque.index.size(), 3);
+    t.checkExpect(other.index.size(), 0);
+    t.checkExpect(other.containsKey('b'), false);
+    
+    deque.addAllAtTail(List.of("def", "efg"));
+    t.checkExpect(deque.findByKey('e').getData(), "efg");
+    t.checkExpect(deque.size(), 5);
+    
+    ArrayList<String> drained = new ArrayList<>();
+    t.checkExpect(deque.drainTo(drained, 3), 3);
+    t.checkExpect(drained, new ArrayList<>(List.of("abc", "bcd", "cde")));
+    t.checkExpect(deque.index.size(), 2);
+    t.checkExpect(deque.containsKey('a'), false);
+    t.checkExpect(deque.containsKey('c'), false);
+    t.checkExpect(deque.findByKey('d').getData(), "def");
+  }
+  
+  // Methods on RingDeque ------------------------------------------------------------------------
+  
+  // Produces a RingDeque of the given strings from front to back
+  RingDeque<String> ringOf(String... strs) {
+    RingDeque<String> ring = new RingDeque<>();
+    for (String str : strs) {
+      ring.addAtTail(str);
+    }
+    return ring;
+  }
+  
+  // Produces the elements of the given RingDeque from front to back
+  ArrayList<String> ringToList(RingDeque<String> ring) {
+    ArrayList<String> list = new ArrayList<>();
+    for (String str : ring) {
+      list.add(str);
+    }
+    return list;
+  }
+  
+  void testRingConstructor(Tester t) {
+    t.checkExpect(new RingDeque<String>().elems.length, 8);
+    t.checkExpect(new RingDeque<String>(9).elems.length, 16);
+    t.checkExpect(new RingDeque<String>(0).size(), 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("capacity must not be negative, given -1"),
+        "RingDeque",
+        -1);
+    // doubling past 2^30 would overflow the length of the array
+    t.checkConstructorException(
+        new IllegalArgumentException("capacity must be at most 1073741824, given 1073741825"),
+        "RingDeque",
+        (1 << 30) + 1);
+    t.checkConstructorException(
+        new IllegalArgumentException(
+            "capacity must be at most 1073741824, given 2147483647"),
+        "RingDeque",
+        Integer.MAX_VALUE);
+  }
+  
+  void testRingAdd(Tester t) {
+    RingDeque<String> ring = new RingDeque<>();
+    ring.addAtTail("bcd");
+    ring.addAtHead("abc");
+    ring.addAtTail("cde");
+    t.checkExpect(ring.size(), 3);
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of("abc", "bcd", "cde")));
+    // adding at the head wraps around to the end of the array
+    t.checkExpect(ring.head, 7);
+    t.checkExpect(ring.elems[7], "abc");
+  }
+  
+  void testRingGrow(Tester t) {
+    RingDeque<String> ring = new RingDeque<>();
+    for (int i = 0; i < 5; i += 1) {
+      ring.addAtTail("t" + i);
+      ring.addAtHead("h" + i);
+    }
+    t.checkExpect(ring.size(), 10);
+    t.checkExpect(ring.elems.length, 16);
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of(
+        "h4", "h3", "h2", "h1", "h0", "t0", "t1", "t2", "t3", "t4")));
+  }
+  
+  void testRingRemove(Tester t) {
+    RingDeque<String> ring = this.ringOf("abc", "bcd", "cde", "def");
+    t.checkExpect(ring.removeFromHead(), "abc");
+    t.checkExpect(ring.removeFromTail(), "def");
+    t.checkExpect(ring.size(), 2);
+    t.checkExpect(ring.elems[0], null);
+    t.checkExpect(ring.elems[3], null);
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of("bcd", "cde")));
+    
+    t.checkException(
+        new RuntimeException("Attempted to remove from an empty deque"),
+        new RingDeque<String>(),
+        "removeFromHead");
+    t.checkException(
+        new RuntimeException("Attempted to remove from an empty deque"),
+        new RingDeque<String>(),
+        "removeFromTail");
+  }
+  
+  void testRingGet(Tester t) {
+    RingDeque<String> ring = this.ringOf("abc", "bcd");
+    t.checkExpect(ring.get(1), "bcd");
+    t.checkException(
+        new IndexOutOfBoundsException("Index 2 out of bounds for size 2"),
+        ring,
+        "get",
+        2);
+  }
+  
+  void testRingFind(Tester t) {
+    RingDeque<String> ring = this.ringOf("abc", "bcd", "cde", "def");
+    t.checkExpect(ring.find(new StringContains("cd")), 1);
+    t.checkExpect(ring.find(new StringContains("fgh")), -1);
+    t.checkExpect(new RingDeque<String>().find(new StringContains("")), -1);
+  }
+  
+  void testRingRemoveAt(Tester t) {
+    RingDeque<String> ring = this.ringOf("abc", "bcd", "cde", "def", "efg");
+    // near the front, the front moves back
+    t.checkExpect(ring.removeAt(1), "bcd");
+    t.checkExpect(ring.head, 1);
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of("abc", "cde", "def", "efg")));
+    // near the back, the back moves forward
+    t.checkExpect(ring.removeAt(2), "def");
+    t.checkExpect(ring.head, 1);
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of("abc", "cde", "efg")));
+    t.checkExpect(ring.removeAt(ring.find(new StringContains("ab"))), "abc");
+    t.checkExpect(this.ringToList(ring), new ArrayList<>(List.of("cde", "efg")));
+    t.checkException(
+        new IndexOutOfBoundsException("Index -1 out of bounds for size 2"),
+        ring,
+        "removeAt",
+        -1);
+  }
+  
+  void testRingIterator(Tester t) {
+    Iterator<String> iter = this.ringOf("abc").iterator();
+    t.checkExpect(iter.hasNext(), true);
+    t.checkExpect(iter.next(), "abc");
+    t.checkExpect(iter.hasNext(), false);
+    t.checkException(
+        new NoSuchElementException("No elements left in the deque"),
+        iter,
+        "next");
+  }
+  
+  // Methods on ConcurrentDeque ------------------------------------------------------------------
+  
+  void testConcurrentAddRemove(Tester t) {
+    ConcurrentDeque<String> deque = new ConcurrentDeque<>();
+    deque.addAtTail("bcd");
+    deque.addAtHead("abc");
+    deque.addAtTail("cde");
+    t.checkExpect(deque.size(), 3);
+    t.checkExpect(deque.toList(), new ArrayList<>(List.of("abc", "bcd", "cde")));
+    t.checkExpect(deque.removeFromHead(), "abc");
+    t.checkExpect(deque.removeFromHead(), "bcd");
+    t.checkExpect(deque.removeFromTail(), "cde");
+    t.checkExpect(deque.pollFromHead(), null);
+    t.checkExpect(deque.pollFromTail(), null);
+    t.checkExpect(deque.size(), 0);
+  }
+  
+  void testConcurrentEx(Tester t) {
+    t.checkException(
+        new RuntimeException("Attempted to remove from an empty deque"),
+        new ConcurrentDeque<String>(),
+        "removeFromHead");
+    t.checkException(
+        new RuntimeException("Attempted to remove from an empty deque"),
+        new ConcurrentDeque<String>(),
+        "removeFromTail");
+    t.checkException(
+        new IllegalArgumentException("Cannot add null to a ConcurrentDeque"),
+        new ConcurrentDeque<String>(),
+        "addAtTail",
+        (String) null);
+  }
+  
+  // Counts the nodes that can be reached from the first node of the given deque
+  int countNodes(ConcurrentDeque<String> deque) {
+    int count = 0;
+    for (ConcurrentNode<String> p = deque.first(); p != null; p = p.next) {
+      count += 1;
+    }
+    return count;
+  }
+  
+  void testConcurrentUnlink(Tester t) {
+    ConcurrentDeque<String> deque = new ConcurrentDeque<>();
+    ConcurrentNode<String> start = deque.first();
+    deque.addAtTail("abc");
+    deque.addAtTail("bcd");
+    deque.addAtTail("cde");
+    deque.addAtTail("def");
+    t.checkExpect(this.countNodes(deque), 5);
+    ConcurrentNode<String> abc = start.next;
+    
+    // removed nodes are linked past, except for the first and last nodes, which stay
+    deque.removeFromHead();
+    deque.removeFromHead();
+    t.checkExpect(this.countNodes(deque), 3);
+    t.checkExpect(deque.first(), start);
+    t.checkExpect(start.next.item, "cde");
+    t.checkExpect(start.next.prev, start);
+    t.checkExpect(abc.item, null);
+    t.checkExpect(deque.removeFromTail(), "def");
+    t.checkExpect(this.countNodes(deque), 3);
+    t.checkExpect(deque.removeFromTail(), "cde");
+    t.checkExpect(this.countNodes(deque), 2);
+    t.checkExpect(deque.toList(), new ArrayList<String>());
+    
+    // the ends move as elements are added beyond them
+    deque.addAtHead("aaa");
+    t.checkExpect(deque.first().item, "aaa");
+    t.checkExpect(deque.first().next, start);
+    t.checkExpect(deque.head.get().item, "aaa");
+    t.checkExpect(deque.last().next, null);
+    t.checkExpect(deque.pollFromTail(), "aaa");
+  }
+  
+  void testHistoryChecker(Tester t) {
+    DequeHistoryChecker checker = new DequeHistoryChecker();
+    // overlapping adds may take effect in either order
+    t.checkExpect(checker.linearizable(new ArrayList<>(List.of(
+        new DequeCall(DequeCall.ADD_TAIL, 1, 0, 3),
+        new DequeCall(DequeCall.ADD_TAIL, 2, 1, 2),
+        new DequeCall(DequeCall.POLL_HEAD, 2, 4, 5)))), true);
+    // but not once one has finished before the other started
+    t.checkExpect(checker.linearizable(new ArrayList<>(List.of(
+        new DequeCall(DequeCall.ADD_TAIL, 1, 0, 1),
+        new DequeCall(DequeCall.ADD_TAIL, 2, 2, 3),
+        new DequeCall(DequeCall.POLL_HEAD, 2, 4, 5)))), false);
+    // a value cannot be removed twice
+    t.checkExpect(checker.linearizable(new ArrayList<>(List.of(
+        new DequeCall(DequeCall.ADD_HEAD, 1, 0, 1),
+        new DequeCall(DequeCall.POLL_HEAD, 1, 2, 5),
+        new DequeCall(DequeCall.POLL_TAIL, 1, 3, 4)))), false);
+    t.checkExpect(checker.linearizable(new ArrayList<>(List.of(
+        new DequeCall(DequeCall.POLL_TAIL, null, 0, 1)))), true);
+  }
+  
+  // Runs the given workers at the same time, producing every call they made
+  ArrayList<DequeCall> runWorkers(ArrayList<DequeWorker> workers) {
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (DequeWorker worker : workers) {
+      threads.add(new Thread(worker));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    ArrayList<DequeCall> calls = new ArrayList<>();
+    try {
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    for (DequeWorker worker : workers) {
+      calls.addAll(worker.calls);
+    }
+    return calls;
+  }
+  
+  // Many short histories of a few threads each, every one checked against the sequential Deque
+  void testConcurrentLinearizable(Tester t) {
+    Random random = new Random(11);
+    boolean allLinearizable = true;
+    for (int round = 0; round < 200; round += 1) {
+      ConcurrentDeque<Integer> deque = new ConcurrentDeque<>();
+      AtomicLong clock = new AtomicLong();
+      ArrayList<DequeWorker> workers = new ArrayList<>();
+      for (int id = 0; id < 3; id += 1) {
+        workers.add(new DequeWorker(deque, clock, id, 6, new Random(random.nextLong())));
+      }
+      allLinearizable = allLinearizable
+          && new DequeHistoryChecker().linearizable(this.runWorkers(workers));
+    }
+    t.checkExpect(allLinearizable, true);
+  }
+  
+  // One long history of many threads, where every value added is removed at most once
+  void testConcurrentStress(Tester t) {
+    ConcurrentDeque<Integer> deque = new ConcurrentDeque<>();
+    AtomicLong clock = new AtomicLong();
+    ArrayList<DequeWorker> workers = new ArrayList<>();
+    for (int id = 0; id < 8; id += 1) {
+      workers.add(new DequeWorker(deque, clock, id, 20000, new Random(id)));
+    }
+    ArrayList<DequeCall> calls = this.runWorkers(workers);
+    
+    int added = 0;
+    HashSet<Integer> removed = new HashSet<>();
+    boolean noDuplicates = true;
+    for (DequeCall call : calls) {
+      if (call.kind == DequeCall.ADD_HEAD || call.kind == DequeCall.ADD_TAIL) {
+        added += 1;
+      } else if (call.value != null) {
+        noDuplicates = noDuplicates && removed.add(call.value);
+      }
+    }
+    for (Integer left : deque.toList()) {
+      noDuplicates = noDuplicates && removed.add(left);
+    }
+    t.checkExpect(noDuplicates, true);
+    t.checkExpect(removed.size(), added);
+  }
+  
+  // Producers that keep adding at the tail while a consumer polls the head. The consumer must
+  // keep getting elements while the producers run, and gets each producer's elements in order.
+  void testConcurrentProducersConsumer(Tester t) {
+    ConcurrentDeque<Integer> deque = new ConcurrentDeque<>();
+    int numProducers = 3;
+    int perProducer = 200000;
+    AtomicLong running = new AtomicLong(numProducers);
+    ArrayList<Thread> producers = new ArrayList<>();
+    for (int id = 0; id < numProducers; id += 1) {
+      producers.add(new Thread(new DequeProducer(deque, id, perProducer, running)));
+    }
+    for (Thread producer : producers) {
+      producer.start();
+    }
+    
+    int[] nextExpected = new int[numProducers];
+    boolean inOrder = true;
+    int received = 0;
+    int receivedWhileProducing = 0;
+    long deadline = System.nanoTime() + 60_000_000_000L;
+    while (received < numProducers * perProducer && System.nanoTime() < deadline) {
+      boolean producing = running.get() > 0;
+      Integer value = deque.pollFromHead();
+      if (value != null) {
+        int id = value / perProducer;
+        inOrder = inOrder && value % perProducer == nextExpected[id];
+        nextExpected[id] += 1;
+        received += 1;
+        if (producing) {
+          receivedWhileProducing += 1;
+        }
+      }
+    }
+    try {
+      for (Thread producer : producers) {
+        producer.join();
+      }
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    t.checkExpect(received, numProducers * perProducer);
+    t.checkExpect(inOrder, true);
+    t.checkExpect(receivedWhileProducing > 0, true);
+    t.checkExpect(deque.pollFromHead(), null);
+  }
+  
 }
\ No newline at end of file
@@ -1,27 +1,68 @@
 import tester.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 
 // Represents a Huffman tree constructed from a list of characters and their respective
 // frequencies.
 class Huffman {
   IHuffmanTree tree;
+  // the code of every leaf in the tree, computed once so that encoding does not search the tree
+  HuffmanCodeTable codes;
+  // decodes packed codes, either with lookup tables or with the tables of a canonical code
+  IHuffmanDecoder decoder;
   
   /*
   TEMPLATE for Huffman
   Fields:
-  ... this.tree ...                                -- IHuffmanTree
+  ... this.tree ...                                          -- IHuffmanTree
+  ... this.codes ...                                         -- HuffmanCodeTable
+  ... this.decoder ...                                       -- IHuffmanDecoder
   Methods:
-  ... this.encode(String) ...                      -- ArrayList<Boolean>
-  ... this.decode(ArrayList<Boolean>) ...          -- String
+  ... this.encode(String) ...                                -- ArrayList<Boolean>
+  ... this.encodeBits(String) ...                            -- BitBuffer
+  ... this.decode(ArrayList<Boolean>) ...                    -- String
+  ... this.decodeBits(BitBuffer) ...                         -- String
+  ... this.encodeInto(CharSequence, int, int, BitBuffer) ... -- void
+  ... this.decodeInto(BitBuffer, int, int, StringBuilder) ... -- void
+  ... this.canonicalCode() ...                               -- CanonicalHuffmanCode
+  ... this.canonical() ...                                   -- Huffman
   Methods on fields:
-  ... this.tree.frequency() ...                    -- int
-  ... this.tree.encodeChar(String) ...             -- Maybe<ArrayList<Boolean>>
-  ... this.tree.decodeNext(Iterator<Boolean>) ...  -- String
+  ... this.tree.frequency() ...                              -- int
+  ... this.tree.encodeChar(String) ...                       -- Maybe<ArrayList<Boolean>>
+  ... this.tree.decodeNext(Iterator<Boolean>) ...            -- String
+  ... this.tree.addCodes(HuffmanCodeTable, long, int) ...    -- void
+  ... this.tree.flattenInto(HuffmanDecoder) ...              -- int
+  ... this.codes.encodeInto(CharSequence, int, int, BitBuffer) ... -- void
+  ... this.codes.toCanonical() ...                           -- CanonicalHuffmanCode
+  ... this.decoder.decodeInto(BitBuffer, int, int, StringBuilder) ... -- void
    */
   
   Huffman(ArrayList<String> chars, ArrayList<Integer> frequencies) {
@@ -39,6 +80,49 @@ class Huffman {
     
     // Condense all the IHuffmanTrees in the list into a single IHuffmanTree
     this.tree = new HuffmanTreeUtils().condense(trees);
+    this.codes = new HuffmanCodeTable(this.tree);
+    this.decoder = new HuffmanDecoder(this.tree);
+  }
+  
+  // Convenience constructor to create a Huffman from an existing tree, such as one read back
+  // from a compressed header. The tree must have at least two leaves.
+  Huffman(IHuffmanTree tree) {
+    this.tree = tree;
+    this.codes = new HuffmanCodeTable(this.tree);
+    this.decoder = new HuffmanDecoder(this.tree);
+  }
+  
+  // Convenience constructor to create a Huffman with the codes of a canonical code, which is
+  // also used to decode them
+  Huffman(CanonicalHuffmanCode canonical) {
+    this.tree = canonical.toTree();
+    this.codes = new HuffmanCodeTable(this.tree);
+    this.decoder = canonical;
+  }
+  
+  // Convenience constructor to create a Huffman for the characters counted by a histogram,
+  // weighted by their counts (see CharHistogram.buildTree)
+  Huffman(CharHistogram histogram) {
+    this(histogram.buildTree());
+  }
+  
+  // Produces the canonical Huffman code with the same code length for each character as this
+  // Huffman code, which compresses every message to the same number of bits
+  CanonicalHuffmanCode canonicalCode() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.codes.toCanonical();
+  }
+  
+  // Produces a Huffman with the canonical codes of this one (see canonicalCode), which decodes
+  // using the tables of the canonical code. Frequencies are not kept, so every leaf of the new
+  // tree has frequency 0.
+  Huffman canonical() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return new Huffman(this.canonicalCode());
   }
   
   // Encodes the provided message as an ArrayList<Boolean> according to the structure of the
@@ -50,16 +134,55 @@ class Huffman {
     Parameters:
     ... message ... -- String
      */
-    ArrayList<Boolean> code = new ArrayList<>();
-    for (int i = 0; i < message.length(); i += 1) {
-      String c = message.substring(i, i + 1);
-      code.addAll(this.tree.encodeChar(c).expect(new IllegalArgumentException(
-          "Tried to encode " + c + " but that is not part of the language.")
-      ));
-    }
+    return this.encodeBits(message).toList();
+  }
+  
+  // Encodes the provided message as a packed BitBuffer according to the structure of the Huffman
+  // tree, where a 0 bit represents a leftward movement down the tree and a 1 bit represents a
+  // rightward movement. Throws an IllegalArgumentException if the message contains a character
+  // that is not part of the language.
+  BitBuffer encodeBits(String message) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... message ... -- String
+     */
+    // Every code is at least one bit long, so the message length is a lower bound on the size
+    BitBuffer code = new BitBuffer(message.length());
+    this.encodeInto(message, 0, message.length(), code);
     return code;
   }
   
+  // Encodes the characters of message from start (inclusive) to end (exclusive) onto the end of
+  // out, throwing an IllegalArgumentException if any of them is not part of the language.
+  // EFFECT: appends the code of each character to out
+  void encodeInto(CharSequence message, int start, int end, BitBuffer out) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... message ...  -- CharSequence
+    ... start ...    -- int
+    ... end ...      -- int
+    ... out ...      -- BitBuffer
+     */
+    this.codes.encodeInto(message, start, end, out);
+  }
+  
+  // Decodes the bits of code from start (inclusive) to end (exclusive) onto the end of out. If
+  // the bits run out partway through a character, appends "?" in its place.
+  // EFFECT: appends the decoded characters to out
+  void decodeInto(BitBuffer code, int start, int end, StringBuilder out) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ...  -- BitBuffer
+    ... start ... -- int
+    ... end ...   -- int
+    ... out ...   -- StringBuilder
+     */
+    this.decoder.decodeInto(code, start, end, out);
+  }
+  
   // Decodes the provided code to a String according to the structure of the Huffman tree, where
   // a false in the code represents a leftward movement down the tree (0) and a true represents
   // a rightward movement (1)
@@ -69,16 +192,24 @@ class Huffman {
     Parameters:
     ... code ... -- ArrayList<Boolean>
      */
-    String message = "";
-    IHuffmanTree t = this.tree;
-    Iterator<Boolean> codeIter = code.iterator();
-    
-    while (codeIter.hasNext()) {
-      message = message + this.tree.decodeNext(codeIter);
-    }
-    
-    return message;
+    return this.decodeBits(new BitBuffer(code));
   }
+  
+  // Decodes the provided packed code to a String according to the structure of the Huffman
+  // tree, where a 0 bit represents a leftward movement down the tree and a 1 bit represents a
+  // rightward movement. If the code ends partway through a character, a "?" is appended in its
+  // place.
+  String decodeBits(BitBuffer code) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ... -- BitBuffer
+     */
+    StringBuilder message = new StringBuilder();
+    this.decodeInto(code, 0, code.size(), message);
+    return message.toString();
+  }
+
 }
 
 // TREE STRUCTURE ---------------------------------------------------------------------------------
@@ -99,6 +230,22 @@ interface IHuffmanTree {
   // EFFECT: moves the cursor of this codeIter the number of elements necessary to decode a
   // single character
   String decodeNext(Iterator<Boolean> codeIter);
+  
+  // Adds the code of every leaf in this IHuffmanTree to the provided table, where code holds the
+  // path taken to reach this tree (most significant bit first) and length is the number of moves
+  // in that path.
+  // EFFECT: appends an entry to table for each leaf in this tree, from left to right
+  void addCodes(HuffmanCodeTable table, long code, int length);
+  
+  // Adds this IHuffmanTree to the flattened tree of the provided decoder, producing the index of
+  // its root.
+  // EFFECT: adds a node to decoder for this tree and every tree below it
+  int flattenInto(HuffmanDecoder decoder);
+  
+  // Writes this IHuffmanTree to out in preorder, as the byte 0 for each node and the byte 1
+  // followed by the character for each leaf. Frequencies are not written.
+  // EFFECT: writes this tree to out
+  void writeTree(DataOutputStream out) throws IOException;
 }
 
 // Represents a leaf in a Huffman tree with a character and a frequency
@@ -120,6 +267,9 @@ class HTLeaf implements IHuffmanTree {
   ... this.frequency() ...                    -- int
   ... this.encodeChar(String) ...             -- Maybe<ArrayList<Boolean>>
   ... this.decodeNext(Iterator<Boolean>) ...  -- String
+  ... this.addCodes(HuffmanCodeTable, long, int) ... -- void
+  ... this.flattenInto(HuffmanDecoder) ...    -- int
+  ... this.writeTree(DataOutputStream) ...    -- void
    */
   
   // Gets the total frequency of this HTLeaf, calculated as the sum of the frequencies of all the
@@ -157,6 +307,50 @@ class HTLeaf implements IHuffmanTree {
      */
     return this.c;
   }
+  
+  // Adds the code of this leaf to the provided table, where code holds the path taken to reach
+  // this leaf and length is the number of moves in that path.
+  // EFFECT: appends an entry for this leaf to table
+  public void addCodes(HuffmanCodeTable table, long code, int length) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... table ...  -- HuffmanCodeTable
+    ... code ...   -- long
+    ... length ... -- int
+    Methods on parameters:
+    ... table.addCode(String, long, int) ... -- void
+     */
+    table.addCode(this.c, code, length);
+  }
+  
+  // Adds this leaf to the flattened tree of the provided decoder, producing its index.
+  // EFFECT: adds a leaf node holding this character to decoder
+  public int flattenInto(HuffmanDecoder decoder) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... decoder ... -- HuffmanDecoder
+    Methods on parameters:
+    ... decoder.addNode(String) ... -- int
+     */
+    return decoder.addNode(this.c);
+  }
+  
+  // Writes this leaf to out as the byte 1 followed by its character.
+  // EFFECT: writes this leaf to out
+  public void writeTree(DataOutputStream out) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... out ... -- DataOutputStream
+    Methods on parameters:
+    ... out.writeByte(int) ...    -- void
+    ... out.writeUTF(String) ...  -- void
+     */
+    out.writeByte(1);
+    out.writeUTF(this.c);
+  }
 }
 
 // Represents a node in a Huffman tree with left and right branches
@@ -178,6 +372,9 @@ class HTNode implements IHuffmanTree {
   ... this.frequency() ...                         -- int
   ... this.encodeChar(String) ...                  -- Maybe<ArrayList<Boolean>>
   ... this.decodeNext(Iterator<Boolean>) ...       -- String
+  ... this.addCodes(HuffmanCodeTable, long, int) ... -- void
+  ... this.flattenInto(HuffmanDecoder) ...         -- int
+  ... this.writeTree(DataOutputStream) ...         -- void
   Methods on Fields:
   ... this.left.frequency() ...                    -- int
   ... this.left.encodeChar(String) ...             -- Maybe<ArrayList<Boolean>>
@@ -236,315 +433,2811 @@ class HTNode implements IHuffmanTree {
       return "?";
     }
   }
-}
-
-// OPTIONALS --------------------------------------------------------------------------------------
-
-// Represents a value that may or may not exist
-interface Maybe<T> {
-  // Returns this Maybe if it contains a value, otherwise returns that
-  Maybe<T> orIfNone(Maybe<T> that);
-  
-  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
-  void mapMut(Consumer<T> f);
-  
-  // If this Maybe has contents, returns those contents; otherwise, throws ex.
-  T expect(RuntimeException ex);
-}
-
-// Represents a value that exists
-class Some<T> implements Maybe<T> {
-  T t;
-  
-  Some(T t) {
-    this.t = t;
-  }
-  /*
-  TEMPLATE for Some
-  Fields:
-  ... this.t ...  -- T
-  Methods:
-  ... this.orIfNone(Maybe<T>) ...       -- Maybe<T>
-  ... this.mapMut(Consumer<T>) ...      -- void
-  ... this.expect(RunTimeException) ... -- T
-   */
   
-  // Returns this Maybe if it contains a value, otherwise returns that
-  public Maybe<T> orIfNone(Maybe<T> that) {
+  // Adds the code of every leaf below this node to the provided table, where code holds the path
+  // taken to reach this node and length is the number of moves in that path. Throws an
+  // IllegalStateException if any code would be longer than 64 bits.
+  // EFFECT: appends an entry to table for each leaf below this node, from left to right
+  public void addCodes(HuffmanCodeTable table, long code, int length) {
     /*
     TEMPLATE
     Parameters:
-    ... that ...  -- Maybe<T>
+    ... table ...  -- HuffmanCodeTable
+    ... code ...   -- long
+    ... length ... -- int
+    Methods on fields:
+    ... this.left.addCodes(HuffmanCodeTable, long, int) ...  -- void
+    ... this.right.addCodes(HuffmanCodeTable, long, int) ... -- void
      */
-    return this;
+    if (length >= 64) {
+      throw new IllegalStateException("Huffman codes longer than 64 bits are not supported");
+    }
+    this.left.addCodes(table, code << 1, length + 1);
+    this.right.addCodes(table, (code << 1) | 1, length + 1);
   }
   
-  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
-  public void mapMut(Consumer<T> f) {
+  // Adds this node and every tree below it to the flattened tree of the provided decoder,
+  // producing the index of this node.
+  // EFFECT: adds a node to decoder for this node and every tree below it
+  public int flattenInto(HuffmanDecoder decoder) {
     /*
     TEMPLATE
     Parameters:
-    ... f ...         -- Consumer<T>
+    ... decoder ... -- HuffmanDecoder
     Methods on parameters:
-    ... f.accept ...  -- void
+    ... decoder.addNode(String) ...             -- int
+    ... decoder.setChildren(int, int, int) ...  -- void
+    Methods on fields:
+    ... this.left.flattenInto(HuffmanDecoder) ...  -- int
+    ... this.right.flattenInto(HuffmanDecoder) ... -- int
      */
-    f.accept(this.t);
+    int index = decoder.addNode(null);
+    int left = this.left.flattenInto(decoder);
+    int right = this.right.flattenInto(decoder);
+    decoder.setChildren(index, left, right);
+    return index;
   }
   
-  // If this Maybe has contents, returns those contents; otherwise, throws ex.
-  public T expect(RuntimeException ex) {
+  // Writes this node to out as the byte 0 followed by its left and right trees.
+  // EFFECT: writes this node and every tree below it to out
+  public void writeTree(DataOutputStream out) throws IOException {
     /*
     TEMPLATE
     Parameters:
-    ... ex ...  -- RuntimeException
+    ... out ... -- DataOutputStream
+    Methods on parameters:
+    ... out.writeByte(int) ... -- void
+    Methods on fields:
+    ... this.left.writeTree(DataOutputStream) ...  -- void
+    ... this.right.writeTree(DataOutputStream) ... -- void
      */
-    return this.t;
+    out.writeByte(0);
+    this.left.writeTree(out);
+    this.right.writeTree(out);
   }
 }
 
-// Represents a value that does not exist
-class None<T> implements Maybe<T>  {
+// CODE TABLES ------------------------------------------------------------------------------------
+
+// Represents the codes of every leaf in a Huffman tree, stored in left-to-right leaf order and
+// indexed by character, so that a message can be encoded without searching the tree.
+class HuffmanCodeTable {
+  // the string stored in each leaf, from left to right
+  ArrayList<String> symbols;
+  // the code of each leaf, right-aligned with the first move as the most significant bit
+  long[] codes;
+  // the number of bits in the code of each leaf
+  int[] lengths;
+  // maps each character to the index of the single-character leaf containing it, or -1
+  int[] charIndex;
   
   /*
-  TEMPLATE for None
+  TEMPLATE for HuffmanCodeTable
+  Fields:
+  ... this.symbols ...                                        -- ArrayList<String>
+  ... this.codes ...                                          -- long[]
+  ... this.lengths ...                                        -- int[]
+  ... this.charIndex ...                                      -- int[]
   Methods:
-  ... this.orIfNone(Maybe<T>) ...       -- Maybe<T>
-  ... this.mapMut(Consumer<T>) ...      -- void
-  ... this.expect(RunTimeException) ... -- T
+  ... this.addCode(String, long, int) ...                     -- void
+  ... this.size() ...                                         -- int
+  ... this.indexOf(char) ...                                  -- int
+  ... this.encodeInto(CharSequence, int, int, BitBuffer) ...  -- void
+  ... this.toCanonical() ...                                  -- CanonicalHuffmanCode
    */
   
-  // Returns this Maybe if it contains a value, otherwise returns that
-  public Maybe<T> orIfNone(Maybe<T> that) {
+  HuffmanCodeTable(IHuffmanTree tree) {
+    this.symbols = new ArrayList<>();
+    this.codes = new long[8];
+    this.lengths = new int[8];
+    tree.addCodes(this, 0, 0);
+    
+    // Only single-character leaves can ever be matched while encoding, since messages are
+    // encoded one character at a time
+    int maxChar = -1;
+    for (String symbol : this.symbols) {
+      if (symbol.length() == 1) {
+        maxChar = Math.max(maxChar, symbol.charAt(0));
+      }
+    }
+    this.charIndex = new int[maxChar + 1];
+    Arrays.fill(this.charIndex, -1);
+    for (int i = 0; i < this.symbols.size(); i += 1) {
+      String symbol = this.symbols.get(i);
+      // If the same character appears in more than one leaf, the leftmost leaf wins, matching
+      // the search order of IHuffmanTree.encodeChar
+      if (symbol.length() == 1 && this.charIndex[symbol.charAt(0)] == -1) {
+        this.charIndex[symbol.charAt(0)] = i;
+      }
+    }
+  }
+  
+  // Adds a leaf with the given symbol, code and code length to the end of this table.
+  // EFFECT: appends the symbol to symbols, and the code and length to codes and lengths
+  void addCode(String symbol, long code, int length) {
     /*
     TEMPLATE
     Parameters:
-    ... that ...  -- Maybe<T>
+    ... symbol ... -- String
+    ... code ...   -- long
+    ... length ... -- int
      */
-    return that;
+    int index = this.symbols.size();
+    if (index == this.codes.length) {
+      this.codes = Arrays.copyOf(this.codes, index * 2);
+      this.lengths = Arrays.copyOf(this.lengths, index * 2);
+    }
+    this.symbols.add(symbol);
+    this.codes[index] = code;
+    this.lengths[index] = length;
   }
   
-  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
-  public void mapMut(Consumer<T> f) {
+  // Gets the number of leaves in this table
+  int size() {
     /*
-    TEMPLATE
-    Parameters:
-    ... f ...  -- Consumer<T>
+    TEMPLATE: Same as class template
      */
-    // This method does not do anything, since None has no value to mutate
+    return this.symbols.size();
   }
   
-  // If this Maybe has contents, returns those contents; otherwise, throws ex.
-  public T expect(RuntimeException ex) {
+  // Gets the index of the leaf containing exactly the given character, or -1 if there is none
+  int indexOf(char c) {
     /*
     TEMPLATE
     Parameters:
-    ... ex ...  -- RuntimeException
+    ... c ... -- char
      */
-    throw ex;
-  }
-}
-
-// FUNCTIONS --------------------------------------------------------------------------------------
-
-// A Consumer that consumes a reference to an ArrayList and mutates it to add the T passed during
-// construction to the start.
-class ArrPrepend<T> implements Consumer<ArrayList<T>> {
-  T t;
-  
-  ArrPrepend(T t) {
-    this.t = t;
+    if (c < this.charIndex.length) {
+      return this.charIndex[c];
+    } else {
+      return -1;
+    }
   }
   
-  /* TEMPLATE for ArrPrepend
-  Fields:
-  ... this.t ... -- T
-  Methods:
-  ... this.accept(T) ... -- void
-   */
-  
-  // A Consumer that consumes a reference to an ArrayList<T>, the T passed during construction to
-  // the start.
-  // EFFECT: adds the T passed during construction to the start of the provided ArrayList<T>.
-  @Override
-  public void accept(ArrayList<T> ts) {
+  // Encodes the characters of message from start (inclusive) to end (exclusive) onto the end of
+  // out, throwing an IllegalArgumentException if any of them is not part of the language.
+  // EFFECT: appends the code of each character to out
+  void encodeInto(CharSequence message, int start, int end, BitBuffer out) {
     /*
     TEMPLATE
     Parameters:
-    ... ts ...          -- ArrayList<T>
+    ... message ...  -- CharSequence
+    ... start ...    -- int
+    ... end ...      -- int
+    ... out ...      -- BitBuffer
     Methods on parameters:
-    ... ts.add(int, T)  -- void
+    ... out.append(long, int) ... -- void
      */
-    ts.add(0, this.t);
+    for (int i = start; i < end; i += 1) {
+      char c = message.charAt(i);
+      int index = this.indexOf(c);
+      if (index == -1) {
+        throw new IllegalArgumentException(
+            "Tried to encode " + c + " but that is not part of the language.");
+      }
+      out.append(this.codes[index], this.lengths[index]);
+    }
   }
-}
-
-// Comparator that compares two IHuffmanTrees based on the total frequency of each
-class HuffmanTreeComparator implements Comparator<IHuffmanTree> {
-  // Compares two IHuffmanTrees based on the total frequency of each, producing a negative number
-  // if ht1 has a lower frequency, 0 if the frequencies are equal, and a positive number if ht1
-  // has a greater frequency.
-  
-  /* TEMPLATE for HuffmanTreeComparator
-  Methods:
-  ... this.compare(IHuffmanTree, IHuffmanTree) ... -- int
-   */
   
-  @Override
-  public int compare(IHuffmanTree ht1, IHuffmanTree ht2) {
+  // Produces the canonical Huffman code with the same code length for every leaf as this table.
+  // Leaves are ordered by code length, and leaves with the same length keep their left-to-right
+  // order.
+  CanonicalHuffmanCode toCanonical() {
     /*
-    TEMPLATE
-    Parameters:
-    ... ht1 ...             -- IHuffmanTree
-    ... ht2 ...             -- IHuffmanTree
-    Methods on params:
-    ... ht1.frequency() ... -- int
-    ... ht2.frequency() ... -- int
+    TEMPLATE: Same as class template
      */
-    return ht1.frequency() - ht2.frequency();
+    // Counting sort by length, which keeps leaves of the same length in order
+    int[] starts = new int[65];
+    for (int i = 0; i < this.size(); i += 1) {
+      starts[this.lengths[i] + 1] += 1;
+    }
+    for (int length = 1; length < starts.length; length += 1) {
+      starts[length] += starts[length - 1];
+    }
+    String[] sortedSymbols = new String[this.size()];
+    int[] sortedLengths = new int[this.size()];
+    for (int i = 0; i < this.size(); i += 1) {
+      int index = starts[this.lengths[i]];
+      starts[this.lengths[i]] += 1;
+      sortedSymbols[index] = this.symbols.get(i);
+      sortedLengths[index] = this.lengths[i];
+    }
+    return new CanonicalHuffmanCode(new ArrayList<>(Arrays.asList(sortedSymbols)),
+        sortedLengths);
   }
 }
 
-// Zipper that constructs an IHuffmanTree provided a String and an Integer. Intended for use on a
-// list of Strings and a list of Integers via the zip() function on ListUtils.
-class HuffmanTreeZipper implements BiFunction<String, Integer, IHuffmanTree> {
-  // Constructs an IHuffmanTree provided a String and an Integer.
+// Decodes packed Huffman codes using a lookup table indexed by the next tableBits bits of the
+// code. Each table entry holds every symbol that those bits decode to completely, so a single
+// probe can produce several symbols; codes longer than the table are finished one bit at a time
+// from the node the table left off at.
+class HuffmanDecoder implements IHuffmanDecoder {
+  // the flattened tree: the children of each node, or -1 for leaves, and the symbol of each leaf
+  int[] lefts;
+  int[] rights;
+  String[] symbols;
+  int numNodes;
+  
+  // the number of bits used to index the lookup table
+  int tableBits;
+  // for each tableBits-bit pattern, the symbols it decodes to (or null if it does not complete a
+  // symbol), the number of bits those symbols use, and the node reached if no symbol completes
+  String[] tableOut;
+  int[] tableUsed;
+  int[] tableNode;
   
   /*
-  TEMPLATE for HuffmanTreeZipper
+  TEMPLATE for HuffmanDecoder
+  Fields:
+  ... this.lefts ...                                                  -- int[]
+  ... this.rights ...                                                 -- int[]
+  ... this.symbols ...                                                -- String[]
+  ... this.numNodes ...                                               -- int
+  ... this.tableBits ...                                              -- int
+  ... this.tableOut ...                                               -- String[]
+  ... this.tableUsed ...                                              -- int[]
+  ... this.tableNode ...                                              -- int[]
   Methods:
-  ... this.apply(String, Integer) ... -- HTLeaf
-  
+  ... this.addNode(String) ...                                        -- int
+  ... this.setChildren(int, int, int) ...                             -- void
+  ... this.depth(int) ...                                             -- int
+  ... this.fillTable() ...                                            -- void
+  ... this.decodeInto(BitBuffer, int, int, StringBuilder) ...         -- void
+  ... this.nextNode(int, boolean) ...                                 -- int
    */
-  @Override
-  public HTLeaf apply(String c, Integer freq) {
+  
+  HuffmanDecoder(IHuffmanTree tree, int maxTableBits) {
+    if (maxTableBits < 1 || maxTableBits > 24) {
+      throw new IllegalArgumentException("maxTableBits must be between 1 and 24, given "
+          + maxTableBits);
+    }
+    this.lefts = new int[16];
+    this.rights = new int[16];
+    this.symbols = new String[16];
+    this.numNodes = 0;
+    tree.flattenInto(this);
+    
+    if (this.lefts[0] == -1) {
+      throw new IllegalArgumentException("Cannot decode with a tree that has only one leaf");
+    }
+    // A table wider than the deepest code would only repeat entries
+    this.tableBits = Math.min(maxTableBits, this.depth(0));
+    this.fillTable();
+  }
+  
+  // Convenience constructor to create a decoder with lookup tables of at most 12 bits, which
+  // covers the codes of most symbols in practice while keeping the table small
+  HuffmanDecoder(IHuffmanTree tree) {
+    this(tree, 12);
+  }
+  
+  // Adds a node to the flattened tree, with the given symbol if it is a leaf (or null if it is
+  // not), and produces its index. The children of the node start out as -1.
+  // EFFECT: grows the flattened tree by one node
+  int addNode(String symbol) {
     /*
     TEMPLATE
     Parameters:
-    ... c ...    -- String
-    ... freq ... -- Integer
+    ... symbol ... -- String
      */
-    return new HTLeaf(c, freq);
+    int index = this.numNodes;
+    if (index == this.lefts.length) {
+      this.lefts = Arrays.copyOf(this.lefts, index * 2);
+      this.rights = Arrays.copyOf(this.rights, index * 2);
+      this.symbols = Arrays.copyOf(this.symbols, index * 2);
+    }
+    this.lefts[index] = -1;
+    this.rights[index] = -1;
+    this.symbols[index] = symbol;
+    this.numNodes += 1;
+    return index;
   }
-}
-
-// UTILS ------------------------------------------------------------------------------------------
-
-// Represents a suite of utilities for working with generic lists.
-class ListUtils {
-  /* TEMPLATE for ListUtils
-  Methods:
-  ... <T> this.sorted(ArrayList<T>, Comparator<T>) ...                         -- ArrayList<T>
-  ... <T> this.insert(ArrayList<T>, T, Comparator<T>) ...                      -- void
-  ... <T, U, V> this.zip(ArrayList<T>, ArrayList<U>, BiFunction<T, U, V>) ...  -- ArrayList<V>
-   */
   
-  // Sorts the provided ArrayList low-to-high via a stable insertion sort, provided a Comparator
-  // cmp that compares any two elements of the ArrayList.
-  <T> ArrayList<T> sorted(ArrayList<T> arr, Comparator<T> cmp) {
+  // Sets the children of the node at the given index in the flattened tree.
+  // EFFECT: updates lefts and rights at index
+  void setChildren(int index, int left, int right) {
     /*
     TEMPLATE
     Parameters:
-    ... arr ...  -- ArrayList<T>
-    ... cmp ...  -- Comparator<T>
+    ... index ... -- int
+    ... left ...  -- int
+    ... right ... -- int
      */
-    ArrayList<T> sorted = new ArrayList<>();
-    for (T t : arr) {
-      this.insert(sorted, t, cmp);
-    }
-    return sorted;
+    this.lefts[index] = left;
+    this.rights[index] = right;
   }
   
-  // Provided a comparator cmp, inserts el into arr immediately before the first element
-  // exceeding its value.
-  // EFFECT: arr is mutated to contain el at an appropriate position, with all elements greater
-  // than it shifted right one index.
-  <T> void insert(ArrayList<T> arr, T el, Comparator<T> cmp) {
+  // Gets the length of the longest path from the node at the given index to a leaf
+  int depth(int index) {
     /*
     TEMPLATE
     Parameters:
-    ... arr ...                -- ArrayList<T>
-    ... el ...                 -- T
-    ... cmp ...                -- Comparator<T>
+    ... index ... -- int
+     */
+    if (this.lefts[index] == -1) {
+      return 0;
+    } else {
+      return 1 + Math.max(this.depth(this.lefts[index]), this.depth(this.rights[index]));
+    }
+  }
+  
+  // Builds the lookup table by decoding every tableBits-bit pattern from the root.
+  // EFFECT: sets tableOut, tableUsed and tableNode
+  void fillTable() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    int entries = 1 << this.tableBits;
+    this.tableOut = new String[entries];
+    this.tableUsed = new int[entries];
+    this.tableNode = new int[entries];
+    StringBuilder out = new StringBuilder();
+    
+    for (int pattern = 0; pattern < entries; pattern += 1) {
+      out.setLength(0);
+      int node = 0;
+      int used = 0;
+      for (int bit = 1; bit <= this.tableBits; bit += 1) {
+        if (((pattern >>> (this.tableBits - bit)) & 1) == 1) {
+          node = this.rights[node];
+        } else {
+          node = this.lefts[node];
+        }
+        if (this.lefts[node] == -1) {
+          out.append(this.symbols[node]);
+          used = bit;
+          node = 0;
+        }
+      }
+      
+      if (used > 0) {
+        this.tableOut[pattern] = out.toString();
+        this.tableUsed[pattern] = used;
+      } else {
+        // The pattern is the prefix of a code longer than the table, so remember where it led
+        this.tableUsed[pattern] = this.tableBits;
+        this.tableNode[pattern] = node;
+      }
+    }
+  }
+  
+  // Decodes the bits of code from start (inclusive) to end (exclusive) onto the end of out. If
+  // the bits run out partway through a code, appends "?" in place of the unfinished symbol.
+  // EFFECT: appends the decoded symbols to out
+  public void decodeInto(BitBuffer code, int start, int end, StringBuilder out) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ...  -- BitBuffer
+    ... start ... -- int
+    ... end ...   -- int
+    ... out ...   -- StringBuilder
     Methods on parameters:
-    ... arr.add(int, T) ...    -- void
-    ... arr.size() ...         -- int
-    ... cmp.compare(T, T) ...  -- boolean
+    ... code.peek(int, int) ... -- long
+    ... code.get(int) ...       -- boolean
      */
-    for (int i = 0; i < arr.size(); i += 1) {
-      if (cmp.compare(el, arr.get(i)) < 0) {
-        arr.add(i, el);
+    int pos = start;
+    
+    // While a full table index is available, decode as many symbols as it holds at once
+    while (end - pos >= this.tableBits) {
+      int pattern = (int) code.peek(pos, this.tableBits);
+      pos += this.tableUsed[pattern];
+      if (this.tableOut[pattern] != null) {
+        out.append(this.tableOut[pattern]);
+      } else {
+        int node = this.tableNode[pattern];
+        while (this.lefts[node] != -1) {
+          if (pos == end) {
+            out.append("?");
+            return;
+          }
+          node = this.nextNode(node, code.get(pos));
+          pos += 1;
+        }
+        out.append(this.symbols[node]);
+      }
+    }
+    
+    // Fewer bits remain than the table needs, so finish by walking the tree
+    while (pos < end) {
+      int node = 0;
+      while (this.lefts[node] != -1) {
+        if (pos == end) {
+          out.append("?");
+          return;
+        }
+        node = this.nextNode(node, code.get(pos));
+        pos += 1;
+      }
+      out.append(this.symbols[node]);
+    }
+  }
+  
+  // Gets the child of the node at the given index in the direction given by bit, where true is
+  // a rightward movement
+  int nextNode(int index, boolean bit) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+    ... bit ...   -- boolean
+     */
+    if (bit) {
+      return this.rights[index];
+    } else {
+      return this.lefts[index];
+    }
+  }
+}
+
+// Decodes bits packed into a BitBuffer back into the symbols of a Huffman code
+interface IHuffmanDecoder {
+  // Decodes the bits of code from start (inclusive) to end (exclusive) onto the end of out. If
+  // the bits run out partway through a symbol, appends "?" in its place.
+  // EFFECT: appends the decoded symbols to out
+  void decodeInto(BitBuffer code, int start, int end, StringBuilder out);
+}
+
+// Represents a canonical Huffman code, which is determined entirely by the code length of each
+// symbol: symbols are ordered by code length, and each code is the code before it plus one,
+// shifted left to the new length whenever the length grows. Only the lengths need to be stored,
+// and the codes of each length form a consecutive range, so a code can be decoded by comparing
+// it against the first code of each length rather than walking a tree.
+class CanonicalHuffmanCode implements IHuffmanDecoder {
+  // the symbols of the code in canonical order, and the code length of each
+  ArrayList<String> symbols;
+  int[] lengths;
+  // the code of each symbol, right-aligned
+  long[] codes;
+  int maxLength;
+  // for each length, the number of codes of that length, the first code of that length, and the
+  // index of its symbol
+  int[] counts;
+  long[] firstCodes;
+  int[] firstIndices;
+  // for each length, one past the last code of that length, left-aligned to maxLength bits
+  long[] limits;
+  
+  /*
+  TEMPLATE for CanonicalHuffmanCode
+  Fields:
+  ... this.symbols ...                                          -- ArrayList<String>
+  ... this.lengths ...                                          -- int[]
+  ... this.codes ...                                            -- long[]
+  ... this.maxLength ...                                        -- int
+  ... this.counts ...                                           -- int[]
+  ... this.firstCodes ...                                       -- long[]
+  ... this.firstIndices ...                                     -- int[]
+  ... this.limits ...                                           -- long[]
+  Methods:
+  ... this.size() ...                                           -- int
+  ... this.toTree() ...                                         -- IHuffmanTree
+  ... this.buildTree(int, int, int) ...                         -- IHuffmanTree
+  ... this.decodeInto(BitBuffer, int, int, StringBuilder) ...   -- void
+  ... this.writeLengths(DataOutputStream) ...                   -- void
+   */
+  
+  // Creates the canonical code for the given symbols, which must already be in canonical order:
+  // sorted by their code lengths, which must describe a complete code of at least two symbols.
+  CanonicalHuffmanCode(ArrayList<String> symbols, int[] lengths) {
+    if (symbols.size() != lengths.length) {
+      throw new IllegalArgumentException("Expected one length per symbol, got "
+          + lengths.length + " lengths for " + symbols.size() + " symbols instead");
+    }
+    if (symbols.size() < 2) {
+      throw new IllegalArgumentException("A canonical code must have at least 2 symbols");
+    }
+    this.symbols = symbols;
+    this.lengths = lengths;
+    this.codes = new long[lengths.length];
+    this.maxLength = lengths[lengths.length - 1];
+    if (lengths[0] < 1 || this.maxLength > 63) {
+      throw new IllegalArgumentException("Code lengths must be between 1 and 63");
+    }
+    this.counts = new int[this.maxLength + 1];
+    this.firstCodes = new long[this.maxLength + 1];
+    this.firstIndices = new int[this.maxLength + 1];
+    this.limits = new long[this.maxLength + 1];
+    
+    long code = 0;
+    int prevLength = lengths[0];
+    for (int i = 0; i < lengths.length; i += 1) {
+      if (lengths[i] < prevLength) {
+        throw new IllegalArgumentException("Code lengths must be in increasing order");
+      }
+      code <<= lengths[i] - prevLength;
+      prevLength = lengths[i];
+      if (code >>> lengths[i] != 0) {
+        throw new IllegalArgumentException("Code lengths do not describe a prefix code");
+      }
+      if (this.counts[lengths[i]] == 0) {
+        this.firstCodes[lengths[i]] = code;
+        this.firstIndices[lengths[i]] = i;
+      }
+      this.counts[lengths[i]] += 1;
+      this.codes[i] = code;
+      code += 1;
+    }
+    // Every code of maxLength bits is used exactly when the last code is all 1s
+    if (code != 1L << this.maxLength) {
+      throw new IllegalArgumentException("Code lengths do not describe a complete code");
+    }
+    
+    for (int length = 1; length <= this.maxLength; length += 1) {
+      this.limits[length] = (this.firstCodes[length] + this.counts[length])
+          << (this.maxLength - length);
+      // Lengths without codes must not match anything before the next length that has codes
+      if (this.counts[length] == 0) {
+        this.limits[length] = 0;
+      }
+    }
+  }
+  
+  // Gets the number of symbols in this code
+  int size() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.symbols.size();
+  }
+  
+  // Builds the Huffman tree with the codes of this canonical code. Frequencies are not part of
+  // the code, so every leaf has frequency 0.
+  IHuffmanTree toTree() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.buildTree(0, this.size(), 0);
+  }
+  
+  // Builds the subtree reached by the first depth bits shared by the codes of the symbols from
+  // lo (inclusive) to hi (exclusive). Canonical codes are in the same order as the leaves of
+  // their tree, so the symbols going left come before those going right.
+  IHuffmanTree buildTree(int lo, int hi, int depth) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... lo ...    -- int
+    ... hi ...    -- int
+    ... depth ... -- int
+     */
+    if (hi - lo == 1) {
+      return new HTLeaf(this.symbols.get(lo), 0);
+    }
+    int mid = lo;
+    while (mid < hi && ((this.codes[mid] >>> (this.lengths[mid] - depth - 1)) & 1) == 0) {
+      mid += 1;
+    }
+    return new HTNode(this.buildTree(lo, mid, depth + 1), this.buildTree(mid, hi, depth + 1));
+  }
+  
+  // Decodes the bits of code from start (inclusive) to end (exclusive) onto the end of out, by
+  // finding the shortest length whose codes the next maxLength bits fall below. If the bits run
+  // out partway through a symbol, appends "?" in its place.
+  // EFFECT: appends the decoded symbols to out
+  public void decodeInto(BitBuffer code, int start, int end, StringBuilder out) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ...  -- BitBuffer
+    ... start ... -- int
+    ... end ...   -- int
+    ... out ...   -- StringBuilder
+    Methods on parameters:
+    ... code.peek(int, int) ... -- long
+     */
+    int i = start;
+    while (i < end) {
+      int available = Math.min(this.maxLength, end - i);
+      long window = code.peek(i, available) << (this.maxLength - available);
+      int length = 1;
+      while (length < this.maxLength && Long.compareUnsigned(window, this.limits[length]) >= 0) {
+        length += 1;
+      }
+      if (length > available) {
+        out.append("?");
         return;
       }
+      long value = window >>> (this.maxLength - length);
+      out.append(this.symbols.get(
+          this.firstIndices[length] + (int) (value - this.firstCodes[length])));
+      i += length;
     }
-    arr.add(el);
   }
   
-  // Zips two ArrayLists of equal length into a single ArrayList of that same length. The
-  // element at each index n in the produced ArrayList is the result of combining the nth element
-  // of arr1 with the nth element of arr2 in an arbitrary way defined by cmbFunc.
-  // If the lengths of the arrays are not equal, throws an IllegalArgumentException.
-  <T, U, V> ArrayList<V> zip(ArrayList<T> arr1, ArrayList<U> arr2, BiFunction<T, U, V> cmbFunc) {
+  // Writes this code to out as the int number of symbols, followed by the byte code length and
+  // the symbol in modified UTF-8 (see DataOutput.writeUTF) of each symbol in canonical order.
+  // EFFECT: writes this code to out
+  void writeLengths(DataOutputStream out) throws IOException {
     /*
     TEMPLATE
     Parameters:
-    ... arr1 ...        -- ArrayList<T>
-    ... arr2 ...        -- ArrayList<U>
-    ... cmbFunc ...     -- BiFunction<T, U, V>
+    ... out ... -- DataOutputStream
+     */
+    out.writeInt(this.size());
+    for (int i = 0; i < this.size(); i += 1) {
+      out.writeByte(this.lengths[i]);
+      out.writeUTF(this.symbols.get(i));
+    }
+  }
+}
+
+// Represents a growable sequence of bits packed 64 to a word, where bit i of the sequence is
+// stored in word i / 64, counting from the most significant bit of that word.
+class BitBuffer {
+  long[] words;
+  int size;
+  
+  /*
+  TEMPLATE for BitBuffer
+  Fields:
+  ... this.words ...                 -- long[]
+  ... this.size ...                  -- int
+  Methods:
+  ... this.size() ...                -- int
+  ... this.append(long, int) ...     -- void
+  ... this.get(int) ...              -- boolean
+  ... this.peek(int, int) ...        -- long
+  ... this.ensureCapacity(int) ...   -- void
+  ... this.toList() ...              -- ArrayList<Boolean>
+  ... this.clear() ...               -- void
+  ... this.byteSize() ...            -- int
+  ... this.writeBytes(ByteBuffer) .. -- void
+  ... this.readBytes(ByteBuffer, int) ... -- void
+  ... this.appendZeros(int) ...      -- void
+  ... this.shiftedWord(int, int) ... -- long
+  ... this.wordSpan(int) ...         -- int
+  ... this.copyInteriorTo(BitBuffer, int) ... -- void
+  ... this.orEdgesTo(BitBuffer, int) ...      -- void
+   */
+  
+  // Creates an empty BitBuffer with room for at least capacity bits before it must grow
+  BitBuffer(int capacity) {
+    this.words = new long[Math.max(1, (capacity + 63) >>> 6)];
+    this.size = 0;
+  }
+  
+  // Convenience constructor to create an empty BitBuffer
+  BitBuffer() {
+    this(64);
+  }
+  
+  // Convenience constructor to create a BitBuffer containing the given bits, where false
+  // represents a 0 and true represents a 1
+  BitBuffer(ArrayList<Boolean> bits) {
+    this(bits.size());
+    for (boolean bit : bits) {
+      if (bit) {
+        this.append(1, 1);
+      } else {
+        this.append(0, 1);
+      }
+    }
+  }
+  
+  // Gets the number of bits in this BitBuffer
+  int size() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.size;
+  }
+  
+  // Appends the lowest length bits of bits (0 to 64 of them) to the end of this BitBuffer, most
+  // significant bit first.
+  // EFFECT: the size of this buffer grows by length, and the new bits are written at the end
+  void append(long bits, int length) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... bits ...   -- long
+    ... length ... -- int
+     */
+    if (length == 0) {
+      return;
+    }
+    this.ensureCapacity(this.size + length);
+    int index = this.size >>> 6;
+    int offset = this.size & 63;
+    // Shift the bits to the top of the word, discarding anything above the lowest length bits
+    long aligned = bits << (64 - length);
+    this.words[index] |= aligned >>> offset;
+    if (offset + length > 64) {
+      this.words[index + 1] |= aligned << (64 - offset);
+    }
+    this.size += length;
+  }
+  
+  // Gets the bit at the given index, where true represents a 1
+  boolean get(int index) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+     */
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException("Bit index " + index + " out of bounds for size "
+          + this.size);
+    }
+    return ((this.words[index >>> 6] >>> (63 - (index & 63))) & 1) == 1;
+  }
+  
+  // Reads length bits (1 to 64 of them) starting at the given index, producing them as the low
+  // bits of a long with the first bit read as the most significant. Bits past the end of this
+  // buffer are read as 0.
+  long peek(int index, int length) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ...  -- int
+    ... length ... -- int
+     */
+    int wordIndex = index >>> 6;
+    int offset = index & 63;
+    long bits = this.words[wordIndex] << offset;
+    if (offset + length > 64 && wordIndex + 1 < this.words.length) {
+      bits |= this.words[wordIndex + 1] >>> (64 - offset);
+    }
+    return bits >>> (64 - length);
+  }
+  
+  // Grows the backing array of this BitBuffer, if necessary, so that it can hold at least
+  // capacity bits.
+  // EFFECT: words is replaced with a larger, zero-padded copy if it is too small
+  void ensureCapacity(int capacity) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... capacity ... -- int
+     */
+    int wordsNeeded = (capacity + 63) >>> 6;
+    if (wordsNeeded > this.words.length) {
+      this.words = Arrays.copyOf(this.words, Math.max(wordsNeeded, this.words.length * 2));
+    }
+  }
+  
+  // Produces the bits of this BitBuffer as an ArrayList<Boolean>, where false represents a 0 and
+  // true represents a 1
+  ArrayList<Boolean> toList() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ArrayList<Boolean> bits = new ArrayList<>(this.size);
+    for (int i = 0; i < this.size; i += 1) {
+      bits.add(this.get(i));
+    }
+    return bits;
+  }
+  
+  // Removes every bit from this BitBuffer so that it can be reused, keeping its capacity.
+  // EFFECT: zeroes the words in use and sets the size to 0
+  void clear() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    Arrays.fill(this.words, 0, Math.min(this.words.length, (this.size + 63) >>> 6), 0L);
+    this.size = 0;
+  }
+  
+  // Gets the number of bytes needed to hold the bits of this BitBuffer
+  int byteSize() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return (this.size + 7) >>> 3;
+  }
+  
+  // Writes the bits of this BitBuffer to out as byteSize() bytes, first bit as the most
+  // significant bit of the first byte, padding the last byte with 0s.
+  // EFFECT: advances the position of out by byteSize()
+  void writeBytes(ByteBuffer out) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... out ... -- ByteBuffer
     Methods on parameters:
-    ... arr1.size() ... -- int
-    ... arr2.size() ... -- int
+    ... out.putLong(long) ... -- ByteBuffer
+    ... out.put(byte) ...     -- ByteBuffer
      */
-    // Validate that the lengths of the lists are equal
-    int a1size = arr1.size();
-    int a2size = arr2.size();
-    if (a1size != a2size) {
-      throw new IllegalArgumentException(
-          "Expected two ArrayList of equal lengths, got " + a1size + " and " + a2size + " instead"
-      );
+    int bytes = this.byteSize();
+    int fullWords = bytes >>> 3;
+    ByteOrder order = out.order();
+    out.order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < fullWords; i += 1) {
+      out.putLong(this.words[i]);
     }
-    
-    ArrayList<V> zipped = new ArrayList<>();
-    for (int i = 0; i < arr1.size(); i += 1) {
-      zipped.add(cmbFunc.apply(arr1.get(i), arr2.get(i)));
+    for (int i = fullWords * 8; i < bytes; i += 1) {
+      out.put((byte) (this.words[i >>> 3] >>> (56 - 8 * (i & 7))));
+    }
+    out.order(order);
+  }
+  
+  // Replaces the bits of this BitBuffer with the first size bits read from in, in the format
+  // written by writeBytes.
+  // EFFECT: advances the position of in by the number of bytes read, and sets the bits and size
+  // of this buffer
+  void readBytes(ByteBuffer in, int size) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ...   -- ByteBuffer
+    ... size ... -- int
+    Methods on parameters:
+    ... in.getLong() ... -- long
+    ... in.get() ...     -- byte
+     */
+    this.clear();
+    this.ensureCapacity(size);
+    int bytes = (size + 7) >>> 3;
+    int fullWords = bytes >>> 3;
+    ByteOrder order = in.order();
+    in.order(ByteOrder.BIG_ENDIAN);
+    for (int i = 0; i < fullWords; i += 1) {
+      this.words[i] = in.getLong();
+    }
+    for (int i = fullWords * 8; i < bytes; i += 1) {
+      this.words[i >>> 3] |= (in.get() & 0xFFL) << (56 - 8 * (i & 7));
+    }
+    in.order(order);
+    // Any padding after the last bit must read as 0, since appends are written with |=
+    if ((size & 63) != 0) {
+      this.words[size >>> 6] &= -1L << (64 - (size & 63));
+    }
+    this.size = size;
+  }
+  
+  // Appends count 0 bits to the end of this BitBuffer.
+  // EFFECT: the size of this buffer grows by count
+  void appendZeros(int count) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... count ... -- int
+     */
+    this.ensureCapacity(this.size + count);
+    // Every bit past the end of the buffer is already 0
+    this.size += count;
+  }
+  
+  // Gets the word at the given index of the bits of this BitBuffer shifted right by shift (0 to
+  // 63) bits, i.e. the contribution of this buffer to word index of a buffer it is copied into
+  // starting at bit shift.
+  long shiftedWord(int index, int shift) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... index ... -- int
+    ... shift ... -- int
+     */
+    long word = 0;
+    if (index < (this.size + 63) >>> 6) {
+      word = this.words[index] >>> shift;
+    }
+    if (shift > 0 && index > 0) {
+      word |= this.words[index - 1] << (64 - shift);
+    }
+    return word;
+  }
+  
+  // Gets the number of words of a buffer that the bits of this BitBuffer touch when copied into
+  // it starting at the given bit offset
+  int wordSpan(int offset) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... offset ... -- int
+     */
+    if (this.size == 0) {
+      return 0;
+    } else {
+      return ((offset + this.size - 1) >>> 6) - (offset >>> 6) + 1;
+    }
+  }
+  
+  // Copies the bits of this BitBuffer into dest starting at the given bit offset, except for the
+  // first and last words they touch, which may be shared with bits copied from other buffers.
+  // Since every word written belongs to this buffer alone, buffers copied into disjoint ranges
+  // of dest can do this at the same time.
+  // EFFECT: overwrites the words of dest strictly between the first and last touched
+  void copyInteriorTo(BitBuffer dest, int offset) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... dest ...   -- BitBuffer
+    ... offset ... -- int
+     */
+    int first = offset >>> 6;
+    int shift = offset & 63;
+    int span = this.wordSpan(offset);
+    for (int i = 1; i < span - 1; i += 1) {
+      dest.words[first + i] = this.shiftedWord(i, shift);
+    }
+  }
+  
+  // Adds the bits of this BitBuffer that belong in the first and last words they touch when
+  // copied into dest starting at the given bit offset. Together with copyInteriorTo, this copies
+  // every bit of this buffer into dest.
+  // EFFECT: combines the first and last touched words of dest with the bits of this buffer
+  void orEdgesTo(BitBuffer dest, int offset) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... dest ...   -- BitBuffer
+    ... offset ... -- int
+     */
+    int first = offset >>> 6;
+    int shift = offset & 63;
+    int span = this.wordSpan(offset);
+    if (span > 0) {
+      dest.words[first] |= this.shiftedWord(0, shift);
+    }
+    if (span > 1) {
+      dest.words[first + span - 1] |= this.shiftedWord(span - 1, shift);
     }
-    return zipped;
   }
 }
 
-// Utilities for construction of a Huffman
-class HuffmanTreeUtils {
-  /* TEMPLATE for HuffmanTreeUtils
+// STREAMS ----------------------------------------------------------------------------------------
+
+// Compresses UTF-8 text from a channel with a Huffman code, and decompresses it again, while
+// holding only one chunk of the text in memory at a time.
+// The compressed format is:
+//   - the int MAGIC, then the int length of the header, then the header: the tree in preorder,
+//     with each node written as the byte 0 and each leaf as the byte 1 followed by its character
+//     in modified UTF-8 (see DataOutput.writeUTF)
+//     or, for a canonical code, the int CANONICAL_MAGIC, then the int length of the header, then
+//     the code lengths (see CanonicalHuffmanCode.writeLengths)
+//   - a sequence of blocks, each an int count of bits followed by those bits packed into bytes
+//     (see BitBuffer.writeBytes), holding the codes of one chunk of characters
+//   - the int -1
+class HuffmanCompressor {
+  static final int MAGIC = 0x48554646;
+  static final int CANONICAL_MAGIC = 0x48554643;
+  
+  // the maximum number of characters encoded into each block
+  int chunkChars;
+  // whether text is compressed with the canonical form of its code, whose header holds only the
+  // code lengths
+  boolean canonical;
+  
+  /*
+  TEMPLATE for HuffmanCompressor
+  Fields:
+  ... this.chunkChars ...                                                      -- int
+  ... this.canonical ...                                                       -- boolean
   Methods:
-  ... this.condense(ArrayList<IHuffmanTree>) ...  -- IHuffmanTree
+  ... this.compress(Huffman, ReadableByteChannel, WritableByteChannel) ...     -- void
+  ... this.decompress(ReadableByteChannel, WritableByteChannel) ...            -- void
+  ... this.writeHeader(Huffman, WritableByteChannel) ...                       -- void
+  ... this.readHeader(ReadableByteChannel) ...                                 -- Huffman
+  ... this.writeBlock(BitBuffer, ByteBuffer, WritableByteChannel) ...          -- ByteBuffer
+  ... this.encodeChunk(Huffman, CharBuffer, BitBuffer, ByteBuffer, WritableByteChannel) ...
+                                                                               -- ByteBuffer
+  ... this.readInt(ReadableByteChannel, ByteBuffer) ...                        -- int
+  ... this.readFully(ReadableByteChannel, ByteBuffer) ...                      -- void
+  ... this.writeFully(WritableByteChannel, ByteBuffer) ...                     -- void
+   */
+  
+  HuffmanCompressor(int chunkChars, boolean canonical) {
+    if (chunkChars < 2) {
+      throw new IllegalArgumentException("chunkChars must be at least 2, given " + chunkChars);
+    }
+    this.chunkChars = chunkChars;
+    this.canonical = canonical;
+  }
+  
+  // Convenience constructor to create a HuffmanCompressor that writes the tree of its code
+  HuffmanCompressor(int chunkChars) {
+    this(chunkChars, false);
+  }
+  
+  // Convenience constructor to create a HuffmanCompressor that encodes 64K characters per block
+  HuffmanCompressor() {
+    this(1 << 16);
+  }
+  
+  // Reads UTF-8 text from in until it is exhausted, and writes it to out compressed with the
+  // given Huffman code, or its canonical form if this compressor is canonical. Throws an
+  // IllegalArgumentException if the text contains a character that is not part of the language,
+  // or an IOException if it is not valid UTF-8.
+  // EFFECT: consumes in and writes the compressed text to out
+  void compress(Huffman code, ReadableByteChannel in, WritableByteChannel out)
+      throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ... -- Huffman
+    ... in ...   -- ReadableByteChannel
+    ... out ...  -- WritableByteChannel
+    Methods on parameters:
+    ... in.read(ByteBuffer) ... -- int
+    ... code.canonical() ...    -- Huffman
+     */
+    if (this.canonical) {
+      code = code.canonical();
+    }
+    this.writeHeader(code, out);
+    
+    CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder();
+    // A character takes at most 3 bytes of UTF-8 (4 for a surrogate pair), so a third of the
+    // chunk in bytes is enough to keep the character buffer busy
+    ByteBuffer bytes = ByteBuffer.allocate(Math.max(16, this.chunkChars / 3));
+    CharBuffer chars = CharBuffer.allocate(this.chunkChars);
+    BitBuffer bits = new BitBuffer(this.chunkChars * 4);
+    ByteBuffer block = ByteBuffer.allocate(4 + this.chunkChars);
+    
+    boolean endOfInput = false;
+    while (!endOfInput) {
+      endOfInput = in.read(bytes) == -1;
+      bytes.flip();
+      CoderResult result = utf8.decode(bytes, chars, endOfInput);
+      while (result.isOverflow()) {
+        block = this.encodeChunk(code, chars, bits, block, out);
+        result = utf8.decode(bytes, chars, endOfInput);
+      }
+      if (result.isError()) {
+        result.throwException();
+      }
+      bytes.compact();
+      
+      // Blocks are only written once chars is full, except for the last one
+      if (endOfInput) {
+        while (utf8.flush(chars).isOverflow()) {
+          block = this.encodeChunk(code, chars, bits, block, out);
+        }
+        if (chars.position() > 0) {
+          block = this.encodeChunk(code, chars, bits, block, out);
+        }
+      }
+    }
+    
+    block.clear();
+    block.putInt(-1);
+    block.flip();
+    this.writeFully(out, block);
+  }
+  
+  // Encodes the characters written to chars so far as one block, and writes it to out, producing
+  // the buffer used to hold the block (which is grown if needed).
+  // EFFECT: empties chars and bits, and writes one block to out
+  ByteBuffer encodeChunk(Huffman code, CharBuffer chars, BitBuffer bits, ByteBuffer block,
+                         WritableByteChannel out) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ...   -- Huffman
+    ... chars ...  -- CharBuffer
+    ... bits ...   -- BitBuffer
+    ... block ...  -- ByteBuffer
+    ... out ...    -- WritableByteChannel
+    Methods on parameters:
+    ... code.encodeInto(CharSequence, int, int, BitBuffer) ... -- void
+    ... bits.clear() ...                                       -- void
+     */
+    chars.flip();
+    bits.clear();
+    code.encodeInto(chars, 0, chars.remaining(), bits);
+    chars.clear();
+    return this.writeBlock(bits, block, out);
+  }
+  
+  // Writes the bits of the given BitBuffer to out as one block, using block to hold its bytes
+  // (or a larger buffer if block is too small), and produces the buffer that was used.
+  // EFFECT: writes one block to out
+  ByteBuffer writeBlock(BitBuffer bits, ByteBuffer block, WritableByteChannel out)
+      throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... bits ...  -- BitBuffer
+    ... block ... -- ByteBuffer
+    ... out ...   -- WritableByteChannel
+    Methods on parameters:
+    ... bits.size() ...                -- int
+    ... bits.byteSize() ...            -- int
+    ... bits.writeBytes(ByteBuffer) .. -- void
+     */
+    if (block.capacity() < 4 + bits.byteSize()) {
+      block = ByteBuffer.allocate(4 + bits.byteSize());
+    }
+    block.clear();
+    block.putInt(bits.size());
+    bits.writeBytes(block);
+    block.flip();
+    this.writeFully(out, block);
+    return block;
+  }
+  
+  // Reads compressed text from in, as written by compress, and writes the decompressed text to
+  // out as UTF-8. Throws an IOException if in does not hold compressed text.
+  // EFFECT: consumes the compressed text from in and writes the decompressed text to out
+  void decompress(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ...   -- ReadableByteChannel
+    ... out ...  -- WritableByteChannel
+     */
+    Huffman code = this.readHeader(in);
+    
+    ByteBuffer count = ByteBuffer.allocate(4);
+    ByteBuffer block = ByteBuffer.allocate(this.chunkChars);
+    BitBuffer bits = new BitBuffer(this.chunkChars * 8);
+    StringBuilder text = new StringBuilder(this.chunkChars);
+    CharsetEncoder utf8 = StandardCharsets.UTF_8.newEncoder();
+    
+    int size = this.readInt(in, count);
+    while (size != -1) {
+      if (size < 0) {
+        throw new IOException("Corrupt block of " + size + " bits");
+      }
+      int bytes = (size + 7) >>> 3;
+      if (block.capacity() < bytes) {
+        block = ByteBuffer.allocate(bytes);
+      }
+      block.clear();
+      block.limit(bytes);
+      this.readFully(in, block);
+      block.flip();
+      bits.readBytes(block, size);
+      
+      text.setLength(0);
+      code.decodeInto(bits, 0, size, text);
+      this.writeFully(out, utf8.encode(CharBuffer.wrap(text)));
+      
+      size = this.readInt(in, count);
+    }
+  }
+  
+  // Writes the magic number and the tree of the given Huffman code to out, or the code lengths
+  // of its canonical form if this compressor is canonical.
+  // EFFECT: writes the header to out
+  void writeHeader(Huffman code, WritableByteChannel out) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... code ... -- Huffman
+    ... out ...  -- WritableByteChannel
+    Methods on parameters:
+    ... code.tree.writeTree(DataOutputStream) ... -- void
+    ... code.canonicalCode() ...                  -- CanonicalHuffmanCode
+     */
+    ByteArrayOutputStream treeBytes = new ByteArrayOutputStream();
+    DataOutputStream treeOut = new DataOutputStream(treeBytes);
+    if (this.canonical) {
+      code.canonicalCode().writeLengths(treeOut);
+    } else {
+      code.tree.writeTree(treeOut);
+    }
+    treeOut.flush();
+    
+    ByteBuffer header = ByteBuffer.allocate(8 + treeBytes.size());
+    if (this.canonical) {
+      header.putInt(CANONICAL_MAGIC);
+    } else {
+      header.putInt(MAGIC);
+    }
+    header.putInt(treeBytes.size());
+    header.put(treeBytes.toByteArray());
+    header.flip();
+    this.writeFully(out, header);
+  }
+  
+  // Reads the magic number and the tree or code lengths written by writeHeader from in, and
+  // produces a Huffman code with that tree or canonical code. Headers of either kind are read,
+  // whether or not this compressor is canonical. Throws an IOException if in does not start
+  // with a header.
+  // EFFECT: consumes the header from in
+  Huffman readHeader(ReadableByteChannel in) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ... -- ReadableByteChannel
+     */
+    ByteBuffer count = ByteBuffer.allocate(4);
+    int magic = this.readInt(in, count);
+    if (magic != MAGIC && magic != CANONICAL_MAGIC) {
+      throw new IOException("Input is not compressed with a Huffman code");
+    }
+    int length = this.readInt(in, count);
+    if (length < 0) {
+      throw new IOException("Corrupt header of " + length + " bytes");
+    }
+    ByteBuffer treeBytes = ByteBuffer.allocate(length);
+    this.readFully(in, treeBytes);
+    
+    DataInputStream treeIn = new DataInputStream(
+        new ByteArrayInputStream(treeBytes.array()));
+    if (magic == CANONICAL_MAGIC) {
+      return new Huffman(new HuffmanTreeReader().readCodeLengths(treeIn));
+    } else {
+      return new Huffman(new HuffmanTreeReader().readTree(treeIn));
+    }
+  }
+  
+  // Reads a big-endian int from in, using the 4-byte buffer count.
+  // EFFECT: consumes 4 bytes from in
+  int readInt(ReadableByteChannel in, ByteBuffer count) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ...    -- ReadableByteChannel
+    ... count ... -- ByteBuffer
+     */
+    count.clear();
+    this.readFully(in, count);
+    return count.getInt(0);
+  }
+  
+  // Reads from in until buf has no space remaining, throwing an EOFException if in ends first.
+  // EFFECT: consumes bytes from in and advances the position of buf to its limit
+  void readFully(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ...  -- ReadableByteChannel
+    ... buf ... -- ByteBuffer
+     */
+    while (buf.hasRemaining()) {
+      if (in.read(buf) == -1) {
+        throw new EOFException("Compressed input ended unexpectedly");
+      }
+    }
+  }
+  
+  // Writes to out until buf has no bytes remaining.
+  // EFFECT: writes the remaining bytes of buf to out and advances its position to its limit
+  void writeFully(WritableByteChannel out, ByteBuffer buf) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... out ... -- WritableByteChannel
+    ... buf ... -- ByteBuffer
+     */
+    while (buf.hasRemaining()) {
+      out.write(buf);
+    }
+  }
+}
+
+// Reads IHuffmanTrees in the preorder format written by IHuffmanTree.writeTree
+class HuffmanTreeReader {
+  /* TEMPLATE for HuffmanTreeReader
+  Methods:
+  ... this.readTree(DataInputStream) ...         -- IHuffmanTree
+  ... this.readCodeLengths(DataInputStream) ...  -- CanonicalHuffmanCode
+   */
+  
+  // Reads one IHuffmanTree from in. Frequencies are not stored, so every leaf has frequency 0.
+  // Throws an IOException if in does not hold a tree.
+  // EFFECT: consumes the tree from in
+  IHuffmanTree readTree(DataInputStream in) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ... -- DataInputStream
+     */
+    byte tag = in.readByte();
+    if (tag == 1) {
+      return new HTLeaf(in.readUTF(), 0);
+    } else if (tag == 0) {
+      IHuffmanTree left = this.readTree(in);
+      IHuffmanTree right = this.readTree(in);
+      return new HTNode(left, right);
+    } else {
+      throw new IOException("Corrupt tree node " + tag);
+    }
+  }
+  
+  // Reads one CanonicalHuffmanCode from in, in the format written by
+  // CanonicalHuffmanCode.writeLengths. Throws an IOException if in does not hold a complete
+  // canonical code.
+  // EFFECT: consumes the code from in
+  CanonicalHuffmanCode readCodeLengths(DataInputStream in) throws IOException {
+    /*
+    TEMPLATE
+    Parameters:
+    ... in ... -- DataInputStream
+     */
+    int size = in.readInt();
+    if (size < 2) {
+      throw new IOException("Corrupt canonical code of " + size + " symbols");
+    }
+    ArrayList<String> symbols = new ArrayList<>();
+    // The size is not trusted to allocate with, since it may be corrupt
+    int[] lengths = new int[Math.min(size, 256)];
+    for (int i = 0; i < size; i += 1) {
+      if (i == lengths.length) {
+        lengths = Arrays.copyOf(lengths, i * 2);
+      }
+      lengths[i] = in.readUnsignedByte();
+      symbols.add(in.readUTF());
+    }
+    try {
+      return new CanonicalHuffmanCode(symbols, Arrays.copyOf(lengths, size));
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Corrupt canonical code: " + e.getMessage());
+    }
+  }
+}
+
+// PARALLEL CODING --------------------------------------------------------------------------------
+
+// Represents a message encoded in chunks, with an index of where each chunk starts in the bits
+// and in the message, so that the chunks can be decoded independently.
+class HuffmanChunkedCode {
+  BitBuffer bits;
+  // the bit at which each chunk starts, followed by the total number of bits
+  int[] bitStarts;
+  // the character at which each chunk starts, followed by the total number of characters
+  int[] charStarts;
+  
+  /*
+  TEMPLATE for HuffmanChunkedCode
+  Fields:
+  ... this.bits ...          -- BitBuffer
+  ... this.bitStarts ...     -- int[]
+  ... this.charStarts ...    -- int[]
+  Methods:
+  ... this.numChunks() ...   -- int
+  Methods on fields:
+  ... this.bits.size() ...   -- int
+   */
+  
+  HuffmanChunkedCode(BitBuffer bits, int[] bitStarts, int[] charStarts) {
+    if (bitStarts.length != charStarts.length) {
+      throw new IllegalArgumentException("Expected one bit start per character start, got "
+          + bitStarts.length + " and " + charStarts.length + " instead");
+    }
+    this.bits = bits;
+    this.bitStarts = bitStarts;
+    this.charStarts = charStarts;
+  }
+  
+  // Gets the number of chunks in this code
+  int numChunks() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.bitStarts.length - 1;
+  }
+}
+
+// Encodes and decodes messages with a Huffman code on a ForkJoinPool, by splitting them into
+// chunks of a fixed number of characters. The chunks are encoded separately and then copied
+// into a single BitBuffer at whatever bit offset each one ends up at.
+class ParallelHuffmanCoder {
+  Huffman code;
+  // the number of characters in each chunk (except possibly the last)
+  int chunkChars;
+  ForkJoinPool pool;
+  
+  /*
+  TEMPLATE for ParallelHuffmanCoder
+  Fields:
+  ... this.code ...                           -- Huffman
+  ... this.chunkChars ...                     -- int
+  ... this.pool ...                           -- ForkJoinPool
+  Methods:
+  ... this.encode(String) ...                 -- HuffmanChunkedCode
+  ... this.decode(HuffmanChunkedCode) ...     -- String
+  Methods on fields:
+  ... this.pool.invoke(ForkJoinTask<T>) ...   -- T
+   */
+  
+  ParallelHuffmanCoder(Huffman code, int chunkChars, ForkJoinPool pool) {
+    if (chunkChars < 1) {
+      throw new IllegalArgumentException("chunkChars must be at least 1, given " + chunkChars);
+    }
+    this.code = code;
+    this.chunkChars = chunkChars;
+    this.pool = pool;
+  }
+  
+  // Convenience constructor to create a ParallelHuffmanCoder with 64K characters per chunk that
+  // runs on the common pool
+  ParallelHuffmanCoder(Huffman code) {
+    this(code, 1 << 16, ForkJoinPool.commonPool());
+  }
+  
+  // Encodes the provided message in parallel, producing the same bits as Huffman.encodeBits
+  // along with the index of each chunk. Throws an IllegalArgumentException if the message
+  // contains a character that is not part of the language.
+  HuffmanChunkedCode encode(String message) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... message ... -- String
+     */
+    int numChunks = Math.max(1, (message.length() + this.chunkChars - 1) / this.chunkChars);
+    BitBuffer[] parts = new BitBuffer[numChunks];
+    try {
+      this.pool.invoke(new EncodeChunksTask(this.code, message, this.chunkChars, parts,
+          0, numChunks));
+    } catch (IllegalArgumentException e) {
+      // A chunk that failed on another worker is rethrown as a copy wrapping the original, once
+      // for every task it passed through, and only the original has the message encodeBits gives
+      IllegalArgumentException original = e;
+      while (original.getCause() instanceof IllegalArgumentException) {
+        original = (IllegalArgumentException) original.getCause();
+      }
+      throw original;
+    }
+    
+    int[] bitStarts = new int[numChunks + 1];
+    int[] charStarts = new int[numChunks + 1];
+    for (int i = 0; i < numChunks; i += 1) {
+      bitStarts[i + 1] = bitStarts[i] + parts[i].size();
+      charStarts[i + 1] = Math.min(message.length(), charStarts[i] + this.chunkChars);
+    }
+    
+    BitBuffer bits = new BitBuffer(bitStarts[numChunks]);
+    bits.appendZeros(bitStarts[numChunks]);
+    this.pool.invoke(new CopyChunksTask(parts, bitStarts, bits, 0, numChunks));
+    // The first and last word of each chunk may be shared with its neighbors, so those are
+    // combined one chunk at a time
+    for (int i = 0; i < numChunks; i += 1) {
+      parts[i].orEdgesTo(bits, bitStarts[i]);
+    }
+    return new HuffmanChunkedCode(bits, bitStarts, charStarts);
+  }
+  
+  // Decodes the chunks of the provided code in parallel, producing the message they encode
+  String decode(HuffmanChunkedCode chunked) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... chunked ... -- HuffmanChunkedCode
+    Methods on parameters:
+    ... chunked.numChunks() ... -- int
+     */
+    char[] message = new char[chunked.charStarts[chunked.numChunks()]];
+    this.pool.invoke(new DecodeChunksTask(this.code, chunked, message, 0, chunked.numChunks()));
+    return new String(message);
+  }
+}
+
+// A task that encodes the chunks of a message from lo (inclusive) to hi (exclusive), splitting
+// itself in half until each task encodes a single chunk.
+class EncodeChunksTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  Huffman code;
+  String message;
+  int chunkChars;
+  BitBuffer[] parts;
+  int lo;
+  int hi;
+  
+  /*
+  TEMPLATE for EncodeChunksTask
+  Fields:
+  ... this.code ...         -- Huffman
+  ... this.message ...      -- String
+  ... this.chunkChars ...   -- int
+  ... this.parts ...        -- BitBuffer[]
+  ... this.lo ...           -- int
+  ... this.hi ...           -- int
+  Methods:
+  ... this.compute() ...    -- void
+  Methods on fields:
+  ... this.code.encodeInto(CharSequence, int, int, BitBuffer) ... -- void
+   */
+  
+  EncodeChunksTask(Huffman code, String message, int chunkChars, BitBuffer[] parts,
+                   int lo, int hi) {
+    this.code = code;
+    this.message = message;
+    this.chunkChars = chunkChars;
+    this.parts = parts;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Encodes the chunks from lo to hi into parts
+  // EFFECT: sets parts[lo] through parts[hi - 1]
+  @Override
+  protected void compute() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.hi - this.lo == 1) {
+      int start = this.lo * this.chunkChars;
+      int end = Math.min(this.message.length(), start + this.chunkChars);
+      BitBuffer part = new BitBuffer(end - start);
+      this.code.encodeInto(this.message, start, end, part);
+      this.parts[this.lo] = part;
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new EncodeChunksTask(this.code, this.message, this.chunkChars, this.parts,
+              this.lo, mid),
+          new EncodeChunksTask(this.code, this.message, this.chunkChars, this.parts,
+              mid, this.hi));
+    }
+  }
+}
+
+// A task that copies the interior words of the encoded chunks from lo (inclusive) to hi
+// (exclusive) into their place in the combined bits.
+class CopyChunksTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  BitBuffer[] parts;
+  int[] bitStarts;
+  BitBuffer dest;
+  int lo;
+  int hi;
+  
+  /*
+  TEMPLATE for CopyChunksTask
+  Fields:
+  ... this.parts ...      -- BitBuffer[]
+  ... this.bitStarts ...  -- int[]
+  ... this.dest ...       -- BitBuffer
+  ... this.lo ...         -- int
+  ... this.hi ...         -- int
+  Methods:
+  ... this.compute() ...  -- void
+   */
+  
+  CopyChunksTask(BitBuffer[] parts, int[] bitStarts, BitBuffer dest, int lo, int hi) {
+    this.parts = parts;
+    this.bitStarts = bitStarts;
+    this.dest = dest;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Copies the interior words of the chunks from lo to hi into dest
+  // EFFECT: overwrites the words of dest that belong to a single chunk from lo to hi
+  @Override
+  protected void compute() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.hi - this.lo == 1) {
+      this.parts[this.lo].copyInteriorTo(this.dest, this.bitStarts[this.lo]);
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new CopyChunksTask(this.parts, this.bitStarts, this.dest, this.lo, mid),
+          new CopyChunksTask(this.parts, this.bitStarts, this.dest, mid, this.hi));
+    }
+  }
+}
+
+// A task that decodes the chunks from lo (inclusive) to hi (exclusive) of a chunked code into
+// their place in the message.
+class DecodeChunksTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  Huffman code;
+  HuffmanChunkedCode chunked;
+  char[] message;
+  int lo;
+  int hi;
+  
+  /*
+  TEMPLATE for DecodeChunksTask
+  Fields:
+  ... this.code ...       -- Huffman
+  ... this.chunked ...    -- HuffmanChunkedCode
+  ... this.message ...    -- char[]
+  ... this.lo ...         -- int
+  ... this.hi ...         -- int
+  Methods:
+  ... this.compute() ...  -- void
+  Methods on fields:
+  ... this.code.decodeInto(BitBuffer, int, int, StringBuilder) ... -- void
+   */
+  
+  DecodeChunksTask(Huffman code, HuffmanChunkedCode chunked, char[] message, int lo, int hi) {
+    this.code = code;
+    this.chunked = chunked;
+    this.message = message;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Decodes the chunks from lo to hi into message, throwing an IllegalStateException if a chunk
+  // does not decode to the number of characters recorded in the index
+  // EFFECT: writes the characters of the chunks from lo to hi into message
+  @Override
+  protected void compute() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.hi - this.lo == 1) {
+      int charStart = this.chunked.charStarts[this.lo];
+      int charEnd = this.chunked.charStarts[this.lo + 1];
+      StringBuilder part = new StringBuilder(charEnd - charStart);
+      this.code.decodeInto(this.chunked.bits, this.chunked.bitStarts[this.lo],
+          this.chunked.bitStarts[this.lo + 1], part);
+      if (part.length() != charEnd - charStart) {
+        throw new IllegalStateException("Chunk " + this.lo + " decoded to " + part.length()
+            + " characters instead of " + (charEnd - charStart));
+      }
+      part.getChars(0, part.length(), this.message, charStart);
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new DecodeChunksTask(this.code, this.chunked, this.message, this.lo, mid),
+          new DecodeChunksTask(this.code, this.chunked, this.message, mid, this.hi));
+    }
+  }
+}
+
+// FREQUENCIES ------------------------------------------------------------------------------------
+
+// Counts how often each character appears in a text, in a primitive histogram indexed by
+// character, so that a Huffman tree can be built for the text without boxing a count for each
+// character.
+class CharHistogram {
+  static final int NUM_CHARS = Character.MAX_VALUE + 1;
+  
+  // the number of times each character has been counted
+  long[] counts;
+  
+  /*
+  TEMPLATE for CharHistogram
+  Fields:
+  ... this.counts ...                                      -- long[]
+  Methods:
+  ... this.count(CharSequence, int, int) ...               -- void
+  ... this.countParallel(CharSequence, ForkJoinPool) ...   -- void
+  ... this.mergeFrom(int[]) ...                            -- void
+  ... this.get(char) ...                                   -- long
+  ... this.distinct() ...                                  -- int
+  ... this.buildTree() ...                                 -- IHuffmanTree
+   */
+  
+  CharHistogram() {
+    this.counts = new long[NUM_CHARS];
+  }
+  
+  // Counts the characters of text from start (inclusive) to end (exclusive).
+  // EFFECT: adds one to the count of each character in the range
+  void count(CharSequence text, int start, int end) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... text ...  -- CharSequence
+    ... start ... -- int
+    ... end ...   -- int
+     */
+    for (int i = start; i < end; i += 1) {
+      this.counts[text.charAt(i)] += 1;
+    }
+  }
+  
+  // Counts the characters of text on the given pool, by splitting it into one chunk per thread
+  // that each count into their own histogram, and adding those histograms together at the end.
+  // EFFECT: adds one to the count of each character in text
+  void countParallel(CharSequence text, ForkJoinPool pool) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... text ... -- CharSequence
+    ... pool ... -- ForkJoinPool
+    Methods on parameters:
+    ... pool.getParallelism() ... -- int
+     */
+    // Each chunk needs a histogram of its own, so small texts are not worth splitting
+    int numChunks = Math.max(1, Math.min(pool.getParallelism(), text.length() >>> 16));
+    int[][] parts = new int[numChunks][];
+    pool.invoke(new CountCharsTask(text, parts, 0, numChunks));
+    for (int[] part : parts) {
+      this.mergeFrom(part);
+    }
+  }
+  
+  // Adds the counts of the given histogram, indexed by character, to this one.
+  // EFFECT: adds each count of part to the count of the same character in this histogram
+  void mergeFrom(int[] part) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... part ... -- int[]
+     */
+    for (int c = 0; c < part.length; c += 1) {
+      this.counts[c] += part[c];
+    }
+  }
+  
+  // Gets the number of times the given character has been counted
+  long get(char c) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... c ... -- char
+     */
+    return this.counts[c];
+  }
+  
+  // Gets the number of different characters that have been counted
+  int distinct() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    int distinct = 0;
+    for (long count : this.counts) {
+      if (count > 0) {
+        distinct += 1;
+      }
+    }
+    return distinct;
+  }
+  
+  // Builds the Huffman tree of every character that has been counted, weighted by its count.
+  // This is the same tree as the Huffman constructor builds from the counted characters and
+  // their counts listed in character order, but the counts are never boxed. Throws an
+  // IllegalArgumentException if fewer than 2 different characters have been counted.
+  IHuffmanTree buildTree() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    int distinct = this.distinct();
+    if (distinct < 2) {
+      throw new IllegalArgumentException(
+          "The histogram must count at least 2 different characters");
+    }
+    
+    // Sorts the characters by count, breaking ties by character, by packing both into one long
+    long[] keys = new long[distinct];
+    int next = 0;
+    for (int c = 0; c < NUM_CHARS; c += 1) {
+      if (this.counts[c] > 0) {
+        if (this.counts[c] >= 1L << 47) {
+          throw new IllegalArgumentException("Cannot build a tree from a count of "
+              + this.counts[c]);
+        }
+        keys[next] = this.counts[c] << 16 | c;
+        next += 1;
+      }
+    }
+    Arrays.sort(keys);
+    
+    ArrayList<IHuffmanTree> leaves = new ArrayList<>(distinct);
+    long[] frequencies = new long[distinct];
+    for (int i = 0; i < distinct; i += 1) {
+      frequencies[i] = keys[i] >>> 16;
+      // Leaves can only hold an int frequency, but the tree is built from the exact counts
+      leaves.add(new HTLeaf(String.valueOf((char) (keys[i] & 0xFFFF)),
+          (int) Math.min(frequencies[i], Integer.MAX_VALUE)));
+    }
+    return new HuffmanTreeBuilder(leaves, frequencies).build();
+  }
+}
+
+// A task that counts the characters of the chunks of a text from lo (inclusive) to hi
+// (exclusive), each into a histogram of its own, splitting itself in half until each task
+// counts a single chunk.
+class CountCharsTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  CharSequence text;
+  int[][] parts;
+  int lo;
+  int hi;
+  
+  /*
+  TEMPLATE for CountCharsTask
+  Fields:
+  ... this.text ...       -- CharSequence
+  ... this.parts ...      -- int[][]
+  ... this.lo ...         -- int
+  ... this.hi ...         -- int
+  Methods:
+  ... this.compute() ...  -- void
+   */
+  
+  CountCharsTask(CharSequence text, int[][] parts, int lo, int hi) {
+    this.text = text;
+    this.parts = parts;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Counts the chunks from lo to hi into parts, where the text is split evenly into one chunk
+  // per element of parts
+  // EFFECT: sets parts[lo] through parts[hi - 1]
+  @Override
+  protected void compute() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.hi - this.lo == 1) {
+      int start = (int) ((long) this.text.length() * this.lo / this.parts.length);
+      int end = (int) ((long) this.text.length() * (this.lo + 1) / this.parts.length);
+      int[] part = new int[CharHistogram.NUM_CHARS];
+      for (int i = start; i < end; i += 1) {
+        part[this.text.charAt(i)] += 1;
+      }
+      this.parts[this.lo] = part;
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new CountCharsTask(this.text, this.parts, this.lo, mid),
+          new CountCharsTask(this.text, this.parts, mid, this.hi));
+    }
+  }
+}
+
+// OPTIONALS --------------------------------------------------------------------------------------
+
+// Represents a value that may or may not exist
+interface Maybe<T> {
+  // Returns this Maybe if it contains a value, otherwise returns that
+  Maybe<T> orIfNone(Maybe<T> that);
+  
+  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
+  void mapMut(Consumer<T> f);
+  
+  // If this Maybe has contents, returns those contents; otherwise, throws ex.
+  T expect(RuntimeException ex);
+}
+
+// Represents a value that exists
+class Some<T> implements Maybe<T> {
+  T t;
+  
+  Some(T t) {
+    this.t = t;
+  }
+  /*
+  TEMPLATE for Some
+  Fields:
+  ... this.t ...  -- T
+  Methods:
+  ... this.orIfNone(Maybe<T>) ...       -- Maybe<T>
+  ... this.mapMut(Consumer<T>) ...      -- void
+  ... this.expect(RunTimeException) ... -- T
+   */
+  
+  // Returns this Maybe if it contains a value, otherwise returns that
+  public Maybe<T> orIfNone(Maybe<T> that) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... that ...  -- Maybe<T>
+     */
+    return this;
+  }
+  
+  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
+  public void mapMut(Consumer<T> f) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... f ...         -- Consumer<T>
+    Methods on parameters:
+    ... f.accept ...  -- void
+     */
+    f.accept(this.t);
+  }
+  
+  // If this Maybe has contents, returns those contents; otherwise, throws ex.
+  public T expect(RuntimeException ex) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... ex ...  -- RuntimeException
+     */
+    return this.t;
+  }
+}
+
+// Represents a value that does not exist
+class None<T> implements Maybe<T>  {
+  
+  /*
+  TEMPLATE for None
+  Methods:
+  ... this.orIfNone(Maybe<T>) ...       -- Maybe<T>
+  ... this.mapMut(Consumer<T>) ...      -- void
+  ... this.expect(RunTimeException) ... -- T
+   */
+  
+  // Returns this Maybe if it contains a value, otherwise returns that
+  public Maybe<T> orIfNone(Maybe<T> that) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... that ...  -- Maybe<T>
+     */
+    return that;
+  }
+  
+  // If this Maybe has contents, mutates those contents according to f; otherwise, does nothing.
+  public void mapMut(Consumer<T> f) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... f ...  -- Consumer<T>
+     */
+    // This method does not do anything, since None has no value to mutate
+  }
+  
+  // If this Maybe has contents, returns those contents; otherwise, throws ex.
+  public T expect(RuntimeException ex) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... ex ...  -- RuntimeException
+     */
+    throw ex;
+  }
+}
+
+// FUNCTIONS --------------------------------------------------------------------------------------
+
+// A Consumer that consumes a reference to an ArrayList and mutates it to add the T passed during
+// construction to the start.
+class ArrPrepend<T> implements Consumer<ArrayList<T>> {
+  T t;
+  
+  ArrPrepend(T t) {
+    this.t = t;
+  }
+  
+  /* TEMPLATE for ArrPrepend
+  Fields:
+  ... this.t ... -- T
+  Methods:
+  ... this.accept(T) ... -- void
+   */
+  
+  // A Consumer that consumes a reference to an ArrayList<T>, the T passed during construction to
+  // the start.
+  // EFFECT: adds the T passed during construction to the start of the provided ArrayList<T>.
+  @Override
+  public void accept(ArrayList<T> ts) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... ts ...          -- ArrayList<T>
+    Methods on parameters:
+    ... ts.add(int, T)  -- void
+     */
+    ts.add(0, this.t);
+  }
+}
+
+// Comparator that compares two IHuffmanTrees based on the total frequency of each
+class HuffmanTreeComparator implements Comparator<IHuffmanTree> {
+  // Compares two IHuffmanTrees based on the total frequency of each, producing a negative number
+  // if ht1 has a lower frequency, 0 if the frequencies are equal, and a positive number if ht1
+  // has a greater frequency.
+  
+  /* TEMPLATE for HuffmanTreeComparator
+  Methods:
+  ... this.compare(IHuffmanTree, IHuffmanTree) ... -- int
+   */
+  
+  @Override
+  public int compare(IHuffmanTree ht1, IHuffmanTree ht2) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... ht1 ...             -- IHuffmanTree
+    ... ht2 ...             -- IHuffmanTree
+    Methods on params:
+    ... ht1.frequency() ... -- int
+    ... ht2.frequency() ... -- int
+     */
+    return ht1.frequency() - ht2.frequency();
+  }
+}
+
+// Zipper that constructs an IHuffmanTree provided a String and an Integer. Intended for use on a
+// list of Strings and a list of Integers via the zip() function on ListUtils.
+class HuffmanTreeZipper implements BiFunction<String, Integer, IHuffmanTree> {
+  // Constructs an IHuffmanTree provided a String and an Integer.
+  
+  /*
+  TEMPLATE for HuffmanTreeZipper
+  Methods:
+  ... this.apply(String, Integer) ... -- HTLeaf
+  
+   */
+  @Override
+  public HTLeaf apply(String c, Integer freq) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... c ...    -- String
+    ... freq ... -- Integer
+     */
+    return new HTLeaf(c, freq);
+  }
+}
+
+// UTILS ------------------------------------------------------------------------------------------
+
+// Represents a suite of utilities for working with generic lists.
+class ListUtils {
+  /* TEMPLATE for ListUtils
+  Methods:
+  ... <T> this.sorted(ArrayList<T>, Comparator<T>) ...                         -- ArrayList<T>
+  ... <T> this.insert(ArrayList<T>, T, Comparator<T>) ...                      -- void
+  ... <T, U, V> this.zip(ArrayList<T>, ArrayList<U>, BiFunction<T, U, V>) ...  -- ArrayList<V>
+   */
+  
+  // Sorts the provided ArrayList low-to-high via a stable insertion sort, provided a Comparator
+  // cmp that compares any two elements of the ArrayList.
+  <T> ArrayList<T> sorted(ArrayList<T> arr, Comparator<T> cmp) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... arr ...  -- ArrayList<T>
+    ... cmp ...  -- Comparator<T>
+     */
+    ArrayList<T> sorted = new ArrayList<>();
+    for (T t : arr) {
+      this.insert(sorted, t, cmp);
+    }
+    return sorted;
+  }
+  
+  // Provided a comparator cmp, inserts el into arr immediately before the first element
+  // exceeding its value.
+  // EFFECT: arr is mutated to contain el at an appropriate position, with all elements greater
+  // than it shifted right one index.
+  <T> void insert(ArrayList<T> arr, T el, Comparator<T> cmp) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... arr ...                -- ArrayList<T>
+    ... el ...                 -- T
+    ... cmp ...                -- Comparator<T>
+    Methods on parameters:
+    ... arr.add(int, T) ...    -- void
+    ... arr.size() ...         -- int
+    ... cmp.compare(T, T) ...  -- boolean
+     */
+    for (int i = 0; i < arr.size(); i += 1) {
+      if (cmp.compare(el, arr.get(i)) < 0) {
+        arr.add(i, el);
+        return;
+      }
+    }
+    arr.add(el);
+  }
+  
+  // Zips two ArrayLists of equal length into a single ArrayList of that same length. The
+  // element at each index n in the produced ArrayList is the result of combining the nth element
+  // of arr1 with the nth element of arr2 in an arbitrary way defined by cmbFunc.
+  // If the lengths of the arrays are not equal, throws an IllegalArgumentException.
+  <T, U, V> ArrayList<V> zip(ArrayList<T> arr1, ArrayList<U> arr2, BiFunction<T, U, V> cmbFunc) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... arr1 ...        -- ArrayList<T>
+    ... arr2 ...        -- ArrayList<U>
+    ... cmbFunc ...     -- BiFunction<T, U, V>
+    Methods on parameters:
+    ... arr1.size() ... -- int
+    ... arr2.size() ... -- int
+     */
+    // Validate that the lengths of the lists are equal
+    int a1size = arr1.size();
+    int a2size = arr2.size();
+    if (a1size != a2size) {
+      throw new IllegalArgumentException(
+          "Expected two ArrayList of equal lengths, got " + a1size + " and " + a2size + " instead"
+      );
+    }
+    
+    ArrayList<V> zipped = new ArrayList<>();
+    for (int i = 0; i < arr1.size(); i += 1) {
+      zipped.add(cmbFunc.apply(arr1.get(i), arr2.get(i)));
+    }
+    return zipped;
+  }
+}
+
+// Utilities for construction of a Huffman
+class HuffmanTreeUtils {
+  /* TEMPLATE for HuffmanTreeUtils
+  Methods:
+  ... this.condense(ArrayList<IHuffmanTree>) ...  -- IHuffmanTree
+   */
+  
+  // Condenses a list of IHuffmanTrees into a single IHuffmanTree, combining the trees with the
+  // lowest total frequencies bottom-up.
+  IHuffmanTree condense(ArrayList<IHuffmanTree> trees) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... trees ...  -- ArrayList<IHuffmanTree>
+     */
+    if (trees.isEmpty()) {
+      throw new IllegalArgumentException("Cannot condense an empty list of trees");
+    }
+    
+    // ArrayList.sort is a stable merge sort, so trees of equal frequency keep their order just
+    // as they did with the insertion sort in ListUtils, but in O(n log n) time
+    ArrayList<IHuffmanTree> treesSorted = new ArrayList<>(trees);
+    treesSorted.sort(new HuffmanTreeComparator());
+    
+    long[] frequencies = new long[treesSorted.size()];
+    for (int i = 0; i < frequencies.length; i += 1) {
+      frequencies[i] = treesSorted.get(i).frequency();
+    }
+    return new HuffmanTreeBuilder(treesSorted, frequencies).build();
+  }
+}
+
+// Builds a single Huffman tree from a list of trees sorted by frequency in linear time, by
+// keeping the merged nodes in a second queue instead of inserting them back into the sorted list.
+// Merged nodes are created in order of non-decreasing frequency, so the next two trees to merge
+// are always at the front of one queue or the other.
+class HuffmanTreeBuilder {
+  // the trees to condense, sorted by frequency, and the frequency of each
+  ArrayList<IHuffmanTree> sorted;
+  long[] sortedFrequencies;
+  int nextSorted;
+  
+  // the merged nodes, in the order they were created, and the frequency of each
+  IHuffmanTree[] merged;
+  long[] mergedFrequencies;
+  int nextMerged;
+  int numMerged;
+  
+  /*
+  TEMPLATE for HuffmanTreeBuilder
+  Fields:
+  ... this.sorted ...             -- ArrayList<IHuffmanTree>
+  ... this.sortedFrequencies ...  -- long[]
+  ... this.nextSorted ...         -- int
+  ... this.merged ...             -- IHuffmanTree[]
+  ... this.mergedFrequencies ...  -- long[]
+  ... this.nextMerged ...         -- int
+  ... this.numMerged ...          -- int
+  Methods:
+  ... this.build() ...            -- IHuffmanTree
+  ... this.sortedIsNext() ...     -- boolean
+  ... this.nextFrequency() ...    -- long
+  ... this.takeNext() ...         -- IHuffmanTree
+   */
+  
+  HuffmanTreeBuilder(ArrayList<IHuffmanTree> sorted, long[] sortedFrequencies) {
+    if (sorted.size() != sortedFrequencies.length) {
+      throw new IllegalArgumentException("Expected one frequency per tree, got "
+          + sortedFrequencies.length + " frequencies for " + sorted.size() + " trees instead");
+    }
+    this.sorted = sorted;
+    this.sortedFrequencies = sortedFrequencies;
+    this.nextSorted = 0;
+    this.merged = new IHuffmanTree[Math.max(0, sorted.size() - 1)];
+    this.mergedFrequencies = new long[this.merged.length];
+    this.nextMerged = 0;
+    this.numMerged = 0;
+  }
+  
+  // Merges the two trees with the lowest frequencies until only one tree remains, and produces
+  // that tree.
+  // EFFECT: empties both queues, leaving every merged node in merged
+  IHuffmanTree build() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    // No matter the number of trees, we will always need to make one fewer merge than that
+    for (int i = 0; i < this.merged.length; i += 1) {
+      long frequency = this.nextFrequency();
+      IHuffmanTree first = this.takeNext();
+      frequency += this.nextFrequency();
+      IHuffmanTree second = this.takeNext();
+      this.merged[this.numMerged] = new HTNode(first, second);
+      this.mergedFrequencies[this.numMerged] = frequency;
+      this.numMerged += 1;
+    }
+    return this.takeNext();
+  }
+  
+  // Determines whether the next tree to merge comes from the sorted queue. On ties the sorted
+  // tree goes first, since new nodes are inserted as deep in the list as possible and so always
+  // come after the existing trees of equal frequency.
+  boolean sortedIsNext() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.nextSorted == this.sorted.size()) {
+      return false;
+    } else if (this.nextMerged == this.numMerged) {
+      return true;
+    } else {
+      return this.sortedFrequencies[this.nextSorted] <= this.mergedFrequencies[this.nextMerged];
+    }
+  }
+  
+  // Gets the frequency of the next tree to merge
+  long nextFrequency() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.sortedIsNext()) {
+      return this.sortedFrequencies[this.nextSorted];
+    } else {
+      return this.mergedFrequencies[this.nextMerged];
+    }
+  }
+  
+  // Removes the next tree to merge from the front of its queue and produces it
+  // EFFECT: advances the front of the queue the tree was taken from
+  IHuffmanTree takeNext() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    if (this.sortedIsNext()) {
+      this.nextSorted += 1;
+      return this.sorted.get(this.nextSorted - 1);
+    } else {
+      this.nextMerged += 1;
+      return this.merged[this.nextMerged - 1];
+    }
+  }
+}
+
+// BENCHMARKS -------------------------------------------------------------------------------------
+
+// Measures how fast Huffman codes are built, and how fast they encode and decode messages,
+// across alphabet sizes and message lengths. Each operation is warmed up, then timed one call
+// at a time to report its throughput, the bytes it allocates per call, and the 99th percentile
+// time of a single call.
+// Run with:
+//   java -cp .:tester.jar HuffmanBenchmark [quick]
+// where quick uses short runs and small inputs, for checking that the benchmark still works.
+class HuffmanBenchmark {
+  // how long to run each operation before and while measuring it
+  long warmupNanos;
+  long measureNanos;
+  // the fewest calls measured for each operation, however long they take
+  int minCalls;
+  ForkJoinPool pool;
+  // combines the result of every call, so that no call can be optimized away
+  long sink;
+  
+  /*
+  TEMPLATE for HuffmanBenchmark
+  Fields:
+  ... this.warmupNanos ...                                     -- long
+  ... this.measureNanos ...                                    -- long
+  ... this.minCalls ...                                        -- int
+  ... this.pool ...                                            -- ForkJoinPool
+  ... this.sink ...                                            -- long
+  Methods:
+  ... this.measure(String, int, int, LongSupplier) ...         -- BenchmarkResult
+  ... this.allocatedBytes() ...                                -- long
+  ... this.percentile(long[], int, double) ...                 -- long
+  ... this.alphabet(int) ...                                   -- ArrayList<String>
+  ... this.frequencies(int) ...                                -- ArrayList<Integer>
+  ... this.message(ArrayList<String>, ArrayList<Integer>, int, Random) ... -- String
+  ... this.runAll(int[], int[]) ...                            -- ArrayList<BenchmarkResult>
+   */
+  
+  HuffmanBenchmark(long warmupNanos, long measureNanos, int minCalls, ForkJoinPool pool) {
+    if (minCalls < 1) {
+      throw new IllegalArgumentException("minCalls must be at least 1, given " + minCalls);
+    }
+    this.warmupNanos = warmupNanos;
+    this.measureNanos = measureNanos;
+    this.minCalls = minCalls;
+    this.pool = pool;
+  }
+  
+  // Runs every benchmark and prints a table of the results. Passing quick runs each operation
+  // briefly on small inputs.
+  public static void main(String[] args) {
+    boolean quick = args.length > 0 && args[0].equals("quick");
+    HuffmanBenchmark benchmark;
+    ArrayList<BenchmarkResult> results;
+    if (quick) {
+      benchmark = new HuffmanBenchmark(10_000_000L, 20_000_000L, 5, ForkJoinPool.commonPool());
+      results = benchmark.runAll(new int[]{2, 64}, new int[]{1_000, 10_000});
+    } else {
+      benchmark = new HuffmanBenchmark(1_000_000_000L, 2_000_000_000L, 10,
+          ForkJoinPool.commonPool());
+      results = benchmark.runAll(new int[]{2, 26, 256, 4096},
+          new int[]{1_000, 100_000, 1_000_000});
+    }
+    
+    PrintStream out = System.out;
+    out.println(new BenchmarkResult("", 0, 0, 0, 0, 0, 0).header());
+    for (BenchmarkResult result : results) {
+      out.println(result);
+    }
+    // Printing the sink keeps it, and so every call, live
+    out.println("(sink " + benchmark.sink + ")");
+  }
+  
+  // Runs every operation on alphabets of each of the given sizes, and messages of each of the
+  // given lengths, producing the result of each. Building a tree only depends on the alphabet,
+  // so it is measured once per alphabet.
+  // EFFECT: combines the result of every call into sink
+  ArrayList<BenchmarkResult> runAll(int[] alphabetSizes, int[] lengths) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... alphabetSizes ... -- int[]
+    ... lengths ...       -- int[]
+     */
+    ArrayList<BenchmarkResult> results = new ArrayList<>();
+    Random random = new Random(2500);
+    for (int size : alphabetSizes) {
+      ArrayList<String> chars = this.alphabet(size);
+      ArrayList<Integer> frequencies = this.frequencies(size);
+      ArrayList<IHuffmanTree> leaves = new ListUtils().zip(
+          chars, frequencies, new HuffmanTreeZipper());
+      results.add(this.measure("condense", size, 0, new CondenseOp(leaves)));
+      
+      Huffman code = new Huffman(chars, frequencies);
+      Huffman canonical = code.canonical();
+      ParallelHuffmanCoder parallel = new ParallelHuffmanCoder(code, 1 << 14, this.pool);
+      for (int length : lengths) {
+        String message = this.message(chars, frequencies, length, random);
+        ArrayList<Boolean> list = code.encode(message);
+        BitBuffer bits = code.encodeBits(message);
+        BitBuffer canonicalBits = canonical.encodeBits(message);
+        HuffmanChunkedCode chunked = parallel.encode(message);
+        
+        results.add(this.measure("histogram", size, length, new HistogramOp(message)));
+        results.add(this.measure("encode", size, length, new EncodeOp(code, message)));
+        results.add(this.measure("encodeBits", size, length, new EncodeBitsOp(code, message)));
+        results.add(this.measure("encodeParallel", size, length,
+            new EncodeParallelOp(parallel, message)));
+        results.add(this.measure("decode", size, length, new DecodeOp(code, list)));
+        results.add(this.measure("decodeBits", size, length, new DecodeBitsOp(code, bits)));
+        results.add(this.measure("decodeCanonical", size, length,
+            new DecodeBitsOp(canonical, canonicalBits)));
+        results.add(this.measure("decodeParallel", size, length,
+            new DecodeParallelOp(parallel, chunked)));
+      }
+    }
+    return results;
+  }
+  
+  // Calls op until warmupNanos have passed, then times each call until measureNanos have passed
+  // and at least minCalls calls have been timed, producing the measurements labeled with the
+  // given name, alphabet size and message length. Allocation is only counted for the calling
+  // thread, so work done on the pool by parallel operations is not included.
+  // EFFECT: calls op, and combines its results into sink
+  BenchmarkResult measure(String name, int alphabetSize, int length, LongSupplier op) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... name ...          -- String
+    ... alphabetSize ...  -- int
+    ... length ...        -- int
+    ... op ...            -- LongSupplier
+    Methods on parameters:
+    ... op.getAsLong() ...  -- long
+     */
+    long warmupEnd = System.nanoTime() + this.warmupNanos;
+    while (System.nanoTime() < warmupEnd) {
+      this.sink += op.getAsLong();
+    }
+    
+    long[] times = new long[64];
+    int calls = 0;
+    long total = 0;
+    long allocatedBefore = this.allocatedBytes();
+    while (total < this.measureNanos || calls < this.minCalls) {
+      long start = System.nanoTime();
+      this.sink += op.getAsLong();
+      long time = System.nanoTime() - start;
+      if (calls == times.length) {
+        times = Arrays.copyOf(times, calls * 2);
+      }
+      times[calls] = time;
+      calls += 1;
+      total += time;
+    }
+    long allocated = this.allocatedBytes() - allocatedBefore;
+    
+    return new BenchmarkResult(name, alphabetSize, length, calls,
+        calls * 1e9 / Math.max(1, total),
+        allocatedBefore < 0 ? -1 : (double) allocated / calls,
+        this.percentile(times, calls, 0.99));
+  }
+  
+  // Gets the total number of bytes allocated by the current thread so far, or -1 if the JVM
+  // does not track it
+  long allocatedBytes() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    } else {
+      return -1;
+    }
+  }
+  
+  // Gets the smallest of the first count times that is at least as large as the given fraction
+  // of them
+  // EFFECT: sorts the first count times
+  long percentile(long[] times, int count, double fraction) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... times ...     -- long[]
+    ... count ...     -- int
+    ... fraction ...  -- double
+     */
+    if (count == 0) {
+      throw new IllegalArgumentException("Cannot take a percentile of no times");
+    }
+    Arrays.sort(times, 0, count);
+    int index = (int) Math.ceil(fraction * count) - 1;
+    return times[Math.max(0, Math.min(count - 1, index))];
+  }
+  
+  // Produces an alphabet of the given number of one-character strings, starting from '!'
+  ArrayList<String> alphabet(int size) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... size ... -- int
+     */
+    ArrayList<String> chars = new ArrayList<>(size);
+    for (int i = 0; i < size; i += 1) {
+      chars.add(String.valueOf((char) ('!' + i)));
+    }
+    return chars;
+  }
+  
+  // Produces skewed frequencies for an alphabet of the given size, where the character at index
+  // i is about (i + 1) times less frequent than the first, like the words of natural text
+  ArrayList<Integer> frequencies(int size) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... size ... -- int
+     */
+    ArrayList<Integer> frequencies = new ArrayList<>(size);
+    for (int i = 0; i < size; i += 1) {
+      frequencies.add(100_000 / (i + 1) + 1);
+    }
+    return frequencies;
+  }
+  
+  // Produces a message of the given length whose characters are drawn at random from chars,
+  // weighted by their frequencies
+  String message(ArrayList<String> chars, ArrayList<Integer> frequencies, int length,
+                 Random random) {
+    /*
+    TEMPLATE
+    Parameters:
+    ... chars ...       -- ArrayList<String>
+    ... frequencies ... -- ArrayList<Integer>
+    ... length ...      -- int
+    ... random ...      -- Random
+     */
+    long[] cumulative = new long[frequencies.size()];
+    long sum = 0;
+    for (int i = 0; i < frequencies.size(); i += 1) {
+      sum += frequencies.get(i);
+      cumulative[i] = sum;
+    }
+    StringBuilder message = new StringBuilder(length);
+    for (int i = 0; i < length; i += 1) {
+      long target = (long) (random.nextDouble() * sum);
+      int index = Arrays.binarySearch(cumulative, target + 1);
+      if (index < 0) {
+        index = -index - 1;
+      }
+      message.append(chars.get(index));
+    }
+    return message.toString();
+  }
+}
+
+// Represents the measurements of one operation on one alphabet size and message length
+class BenchmarkResult {
+  String name;
+  int alphabetSize;
+  // the length of the message, or 0 if the operation does not use one
+  int length;
+  int calls;
+  double callsPerSecond;
+  // the bytes allocated by each call, or -1 if they could not be counted
+  double bytesPerCall;
+  long p99Nanos;
+  
+  /*
+  TEMPLATE for BenchmarkResult
+  Fields:
+  ... this.name ...            -- String
+  ... this.alphabetSize ...    -- int
+  ... this.length ...          -- int
+  ... this.calls ...           -- int
+  ... this.callsPerSecond ...  -- double
+  ... this.bytesPerCall ...    -- double
+  ... this.p99Nanos ...        -- long
+  Methods:
+  ... this.header() ...        -- String
+  ... this.toString() ...      -- String
+   */
+  
+  BenchmarkResult(String name, int alphabetSize, int length, int calls, double callsPerSecond,
+                  double bytesPerCall, long p99Nanos) {
+    this.name = name;
+    this.alphabetSize = alphabetSize;
+    this.length = length;
+    this.calls = calls;
+    this.callsPerSecond = callsPerSecond;
+    this.bytesPerCall = bytesPerCall;
+    this.p99Nanos = p99Nanos;
+  }
+  
+  // Produces the column headings of the rows produced by toString
+  String header() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return String.format("%-16s %8s %9s %8s %14s %14s %12s",
+        "operation", "alphabet", "length", "calls", "calls/s", "bytes/call", "p99 us");
+  }
+  
+  // Produces a row of the measurements of this result, lined up with header
+  @Override
+  public String toString() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return String.format("%-16s %8d %9d %8d %14.1f %14.1f %12.1f",
+        this.name, this.alphabetSize, this.length, this.calls, this.callsPerSecond,
+        this.bytesPerCall, this.p99Nanos / 1e3);
+  }
+}
+
+// BENCHMARK OPERATIONS ---------------------------------------------------------------------------
+
+// Builds a Huffman tree from a list of leaves, producing its frequency
+class CondenseOp implements LongSupplier {
+  ArrayList<IHuffmanTree> leaves;
+  
+  /*
+  TEMPLATE for CondenseOp
+  Fields:
+  ... this.leaves ...       -- ArrayList<IHuffmanTree>
+  Methods:
+  ... this.getAsLong() ...  -- long
+   */
+  
+  CondenseOp(ArrayList<IHuffmanTree> leaves) {
+    this.leaves = leaves;
+  }
+  
+  // Builds a Huffman tree from the leaves, producing its frequency
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return new HuffmanTreeUtils().condense(this.leaves).frequency();
+  }
+}
+
+// Counts the characters of a message and builds a Huffman tree from them, producing its
+// frequency
+class HistogramOp implements LongSupplier {
+  String message;
+  
+  /*
+  TEMPLATE for HistogramOp
+  Fields:
+  ... this.message ...           -- String
+  Methods:
+  ... this.getAsLong() ...       -- long
+  Methods on fields:
+  ... this.message.length() ...  -- int
+   */
+  
+  HistogramOp(String message) {
+    this.message = message;
+  }
+  
+  // Counts the characters of the message and builds a Huffman tree from them, producing its
+  // frequency
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    CharHistogram histogram = new CharHistogram();
+    histogram.count(this.message, 0, this.message.length());
+    return histogram.buildTree().frequency();
+  }
+}
+
+// Encodes a message as a list of booleans, producing its size
+class EncodeOp implements LongSupplier {
+  Huffman code;
+  String message;
+  
+  /*
+  TEMPLATE for EncodeOp
+  Fields:
+  ... this.code ...                 -- Huffman
+  ... this.message ...              -- String
+  Methods:
+  ... this.getAsLong() ...          -- long
+  Methods on fields:
+  ... this.code.encode(String) ...  -- ArrayList<Boolean>
+   */
+  
+  EncodeOp(Huffman code, String message) {
+    this.code = code;
+    this.message = message;
+  }
+  
+  // Encodes the message as a list of booleans, producing its size
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.code.encode(this.message).size();
+  }
+}
+
+// Encodes a message as packed bits, producing their size
+class EncodeBitsOp implements LongSupplier {
+  Huffman code;
+  String message;
+  
+  /*
+  TEMPLATE for EncodeBitsOp
+  Fields:
+  ... this.code ...                     -- Huffman
+  ... this.message ...                  -- String
+  Methods:
+  ... this.getAsLong() ...              -- long
+  Methods on fields:
+  ... this.code.encodeBits(String) ...  -- BitBuffer
+   */
+  
+  EncodeBitsOp(Huffman code, String message) {
+    this.code = code;
+    this.message = message;
+  }
+  
+  // Encodes the message as packed bits, producing their size
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.code.encodeBits(this.message).size();
+  }
+}
+
+// Encodes a message in parallel chunks, producing the size of the bits
+class EncodeParallelOp implements LongSupplier {
+  ParallelHuffmanCoder coder;
+  String message;
+  
+  /*
+  TEMPLATE for EncodeParallelOp
+  Fields:
+  ... this.coder ...                 -- ParallelHuffmanCoder
+  ... this.message ...               -- String
+  Methods:
+  ... this.getAsLong() ...           -- long
+  Methods on fields:
+  ... this.coder.encode(String) ...  -- HuffmanChunkedCode
+   */
+  
+  EncodeParallelOp(ParallelHuffmanCoder coder, String message) {
+    this.coder = coder;
+    this.message = message;
+  }
+  
+  // Encodes the message in parallel chunks, producing the number of chunks
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.coder.encode(this.message).numChunks();
+  }
+}
+
+// Decodes a list of booleans, producing the length of the message
+class DecodeOp implements LongSupplier {
+  Huffman code;
+  ArrayList<Boolean> bits;
+  
+  /*
+  TEMPLATE for DecodeOp
+  Fields:
+  ... this.code ...                             -- Huffman
+  ... this.bits ...                             -- ArrayList<Boolean>
+  Methods:
+  ... this.getAsLong() ...                      -- long
+  Methods on fields:
+  ... this.code.decode(ArrayList<Boolean>) ...  -- String
+   */
+  
+  DecodeOp(Huffman code, ArrayList<Boolean> bits) {
+    this.code = code;
+    this.bits = bits;
+  }
+  
+  // Decodes the list of booleans, producing the length of the message
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.code.decode(this.bits).length();
+  }
+}
+
+// Decodes packed bits, producing the length of the message
+class DecodeBitsOp implements LongSupplier {
+  Huffman code;
+  BitBuffer bits;
+  
+  /*
+  TEMPLATE for DecodeBitsOp
+  Fields:
+  ... this.code ...                        -- Huffman
+  ... this.bits ...                        -- BitBuffer
+  Methods:
+  ... this.getAsLong() ...                 -- long
+  Methods on fields:
+  ... this.code.decodeBits(BitBuffer) ...  -- String
+   */
+  
+  DecodeBitsOp(Huffman code, BitBuffer bits) {
+    this.code = code;
+    this.bits = bits;
+  }
+  
+  // Decodes the packed bits, producing the length of the message
+  @Override
+  public long getAsLong() {
+    /*
+    TEMPLATE: Same as class template
+     */
+    return this.code.decodeBits(this.bits).length();
+  }
+}
+
+// Decodes the chunks of a message in parallel, producing the length of the message
+class DecodeParallelOp implements LongSupplier {
+  ParallelHuffmanCoder coder;
+  HuffmanChunkedCode chunked;
+  
+  /*
+  TEMPLATE for DecodeParallelOp
+  Fields:
+  ... this.coder ...                             -- ParallelHuffmanCoder
+  ... this.chunked ...                           -- HuffmanChunkedCode
+  Methods:
+  ... this.getAsLong() ...                       -- long
+  Methods on fields:
+  ... this.coder.decode(HuffmanChunkedCode) ...  -- String
    */
   
-  // Condenses a list of IHuffmanTrees into a single IHuffmanTree, combining the trees with the
-  // lowest total frequencies bottom-up.
-  IHuffmanTree condense(ArrayList<IHuffmanTree> trees) {
+  DecodeParallelOp(ParallelHuffmanCoder coder, HuffmanChunkedCode chunked) {
+    this.coder = coder;
+    this.chunked = chunked;
+  }
+  
+  // Decodes the chunks in parallel, producing the length of the message
+  @Override
+  public long getAsLong() {
     /*
-    TEMPLATE
-    Parameters:
-    ... trees ...  -- ArrayList<IHuffmanTree>
+    TEMPLATE: Same as class template
      */
-    ArrayList<IHuffmanTree> treesSorted = new ListUtils().sorted(
-        trees, new HuffmanTreeComparator());
-    
-    int treesSize = treesSorted.size();
-    // No matter the size of treesSorted, we will always need to make size-1 merges
-    for (int i = 0; i < treesSize - 1; i += 1) {
-      // The two elements we want to merge will always be the first two in the list
-      IHuffmanTree first = treesSorted.remove(0);
-      IHuffmanTree second = treesSorted.remove(0);
-      // As specified in the problem, new nodes should be inserted as deep in the list as possible
-      new ListUtils().insert(
-          treesSorted,
-          new HTNode(first, second),
-          new HuffmanTreeComparator());
-    }
-    
-    // At the end of the loop, there will only be one node containing all the leaves, so we can
-    // access it at the first index.
-    return treesSorted.get(0);
+    return this.coder.decode(this.chunked).length();
   }
 }
 
@@ -669,6 +3362,16 @@ class ExamplesHuffman {
   }
   
   
+  // Constructing from a tree uses that tree as-is
+  void testTreeConstructor(Tester t) {
+    Huffman fromTree = new Huffman(hPairs.tree);
+    t.checkExpect(fromTree, hPairs);
+    t.checkConstructorException(
+        new IllegalArgumentException("Cannot decode with a tree that has only one leaf"),
+        "Huffman",
+        new HTLeaf("a", 1));
+  }
+  
   // an unterminated sequence should result in a "?" appended at the end of the decoded string
   void testUnterminatedDecode(Tester t) {
     t.checkExpect(
@@ -714,6 +3417,32 @@ class ExamplesHuffman {
     );
   }
   
+  // Encoding through the code table should produce the same bits as searching the tree
+  void testEncodeBits(Tester t) {
+    t.checkExpect(hOneByOne.encodeBits("cab").toList(), hOneByOne.encode("cab"));
+    t.checkExpect(hOneByOne.encodeBits("cab").size(), 8);
+    t.checkExpect(hTwo.encodeBits("").size(), 0);
+    t.checkException(
+        new IllegalArgumentException("Tried to encode e but that is not part of the language."),
+        hTwo,
+        "encodeBits",
+        "abe"
+    );
+  }
+  
+  void testDecodeBits(Tester t) {
+    t.checkExpect(hPairs.decodeBits(hPairs.encodeBits("abacd")), "abacd");
+    t.checkExpect(hOneByOne.decodeBits(new BitBuffer()), "");
+    // a message long enough to use the lookup table many times over
+    String message = "";
+    for (int i = 0; i < 50; i += 1) {
+      message = message + "dcab";
+    }
+    t.checkExpect(hOneByOne.decodeBits(hOneByOne.encodeBits(message)), message);
+    t.checkExpect(hOneByOne.decodeBits(new BitBuffer(new ArrayList<>(List.of(true, true)))),
+        "?");
+  }
+  
   // We should be able to maintain a result by decoding then encoding, or encoding then decoding
   // (unless the result ends in a ? or an error is thrown)
   void testConsistentEncodeDecode(Tester t) {
@@ -730,6 +3459,16 @@ class ExamplesHuffman {
   
   // Methods on IHuffmanTree ----------------------------------------------------------------------
   
+  void testWriteTree(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    hTwo.tree.writeTree(new DataOutputStream(bytes));
+    t.checkExpect(bytes.toByteArray(), new byte[]{0, 1, 0, 1, 'a', 1, 0, 1, 'b'});
+    
+    ByteArrayOutputStream leafBytes = new ByteArrayOutputStream();
+    new HTLeaf("\u00e9", 1).writeTree(new DataOutputStream(leafBytes));
+    t.checkExpect(leafBytes.toByteArray(), new byte[]{1, 0, 2, (byte) 0xC3, (byte) 0xA9});
+  }
+  
   void testFrequency(Tester t) {
     IHuffmanTree leaf1 = new HTLeaf("a", 3);
     IHuffmanTree leaf2 = new HTLeaf("b", 2);
@@ -752,6 +3491,35 @@ class ExamplesHuffman {
         new None<>());
   }
   
+  void testAddCodes(Tester t) {
+    HuffmanCodeTable table = new HuffmanCodeTable(new HTLeaf("z", 1));
+    hPairs.tree.addCodes(table, 1, 1);
+    // codes are added after the existing entries, prefixed by the code passed in
+    t.checkExpect(table.symbols, new ArrayList<>(List.of("z", "a", "b", "c", "d")));
+    t.checkExpect(table.codes[1], 4L);
+    t.checkExpect(table.lengths[1], 3);
+    t.checkExpect(table.codes[4], 7L);
+  }
+  
+  void testAddCodesEx(Tester t) {
+    t.checkException(
+        new IllegalStateException("Huffman codes longer than 64 bits are not supported"),
+        hPairs.tree,
+        "addCodes",
+        new HuffmanCodeTable(new HTLeaf("z", 1)), 0L, 64);
+  }
+  
+  void testFlattenInto(Tester t) {
+    HuffmanDecoder decoder = new HuffmanDecoder(hTwo.tree);
+    // flattening adds to the end of the existing flattened tree
+    t.checkExpect(hPairs.tree.flattenInto(decoder), 3);
+    t.checkExpect(decoder.numNodes, 10);
+    t.checkExpect(decoder.lefts[3], 4);
+    t.checkExpect(decoder.rights[3], 7);
+    t.checkExpect(new HTLeaf("z", 1).flattenInto(decoder), 10);
+    t.checkExpect(decoder.symbols[10], "z");
+  }
+  
   void testDecodeNext(Tester t) {
     ArrayList<Boolean> code1 = new ArrayList<>(List.of(false, true, true));
     ArrayList<Boolean> code2 = new ArrayList<>(List.of(true));
@@ -792,6 +3560,674 @@ class ExamplesHuffman {
     t.checkExpect(iter5, code2.iterator());
   }
   
+  // Methods on HuffmanCodeTable ------------------------------------------------------------------
+  
+  void testCodeTableConstructor(Tester t) {
+    // Leaves are stored from left to right, with codes right-aligned
+    HuffmanCodeTable table = new HuffmanCodeTable(hOneByOne.tree);
+    t.checkExpect(table.symbols, new ArrayList<>(List.of("d", "c", "a", "b")));
+    t.checkExpect(table.size(), 4);
+    t.checkExpect(table.codes[0], 0L);
+    t.checkExpect(table.lengths[0], 1);
+    t.checkExpect(table.codes[1], 2L);
+    t.checkExpect(table.lengths[1], 2);
+    t.checkExpect(table.codes[3], 7L);
+    t.checkExpect(table.lengths[3], 3);
+    
+    // A lone leaf has an empty code
+    HuffmanCodeTable leaf = new HuffmanCodeTable(new HTLeaf("a", 2));
+    t.checkExpect(leaf.lengths[0], 0);
+  }
+  
+  void testCodeTableIndexOf(Tester t) {
+    HuffmanCodeTable table = new HuffmanCodeTable(hOneByOne.tree);
+    t.checkExpect(table.indexOf('d'), 0);
+    t.checkExpect(table.indexOf('b'), 3);
+    t.checkExpect(table.indexOf('e'), -1);
+    t.checkExpect(table.indexOf('A'), -1);
+    
+    // Multi-character leaves can never be reached while encoding one character at a time
+    HuffmanCodeTable multi = new HuffmanCodeTable(
+        new HTNode(new HTLeaf("ab", 1), new HTLeaf("c", 1)));
+    t.checkExpect(multi.indexOf('a'), -1);
+    t.checkExpect(multi.indexOf('c'), 1);
+  }
+  
+  void testCodeTableEncodeInto(Tester t) {
+    BitBuffer out = new BitBuffer();
+    hPairs.codes.encodeInto("xcabx", 1, 4, out);
+    t.checkExpect(out.toList(),
+        new ArrayList<>(List.of(true, false, false, false, false, true)));
+    
+    // encoding onto a non-empty buffer appends to the end
+    hPairs.codes.encodeInto("d", 0, 1, out);
+    t.checkExpect(out.size(), 8);
+    t.checkExpect(out.peek(6, 2), 3L);
+  }
+  
+  void testCodeTableEncodeIntoEx(Tester t) {
+    t.checkException(
+        new IllegalArgumentException("Tried to encode e but that is not part of the language."),
+        hPairs.codes,
+        "encodeInto",
+        "abe", 0, 3, new BitBuffer());
+  }
+  
+  // Methods on HuffmanDecoder --------------------------------------------------------------------
+  
+  void testDecoderConstructor(Tester t) {
+    HuffmanDecoder decoder = new HuffmanDecoder(hOneByOne.tree);
+    // the tree is flattened in preorder, with -1 marking leaves
+    t.checkExpect(decoder.numNodes, 7);
+    t.checkExpect(decoder.lefts[0], 1);
+    t.checkExpect(decoder.rights[0], 2);
+    t.checkExpect(decoder.lefts[1], -1);
+    t.checkExpect(decoder.symbols[1], "d");
+    // the table is never wider than the deepest code
+    t.checkExpect(decoder.tableBits, 3);
+    t.checkExpect(new HuffmanDecoder(hOneByOne.tree, 2).tableBits, 2);
+  }
+  
+  void testDecoderConstructorEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Cannot decode with a tree that has only one leaf"),
+        "HuffmanDecoder",
+        new HTLeaf("a", 1), 12);
+    t.checkConstructorException(
+        new IllegalArgumentException("maxTableBits must be between 1 and 24, given 0"),
+        "HuffmanDecoder",
+        hPairs.tree, 0);
+  }
+  
+  void testDecoderFillTable(Tester t) {
+    HuffmanDecoder decoder = new HuffmanDecoder(hOneByOne.tree);
+    // 000 holds three complete codes for d
+    t.checkExpect(decoder.tableOut[0], "ddd");
+    t.checkExpect(decoder.tableUsed[0], 3);
+    // 101 holds the code for c, followed by the start of another code
+    t.checkExpect(decoder.tableOut[5], "c");
+    t.checkExpect(decoder.tableUsed[5], 2);
+    
+    // with a 2-bit table, 11 does not complete any code and continues from the a-b node
+    HuffmanDecoder small = new HuffmanDecoder(hOneByOne.tree, 2);
+    t.checkExpect(small.tableOut[3], null);
+    t.checkExpect(small.tableUsed[3], 2);
+    t.checkExpect(small.tableNode[3], 4);
+  }
+  
+  void testDecoderDecodeInto(Tester t) {
+    HuffmanDecoder small = new HuffmanDecoder(hOneByOne.tree, 2);
+    BitBuffer code = hOneByOne.encodeBits("dcabbad");
+    StringBuilder out = new StringBuilder("x");
+    small.decodeInto(code, 0, code.size(), out);
+    t.checkExpect(out.toString(), "xdcabbad");
+    
+    // decoding part of the code, ending partway through a character
+    StringBuilder part = new StringBuilder();
+    small.decodeInto(code, 1, 5, part);
+    t.checkExpect(part.toString(), "c?");
+    
+    StringBuilder none = new StringBuilder();
+    small.decodeInto(code, 3, 3, none);
+    t.checkExpect(none.toString(), "");
+  }
+  
+  void testDecoderNextNode(Tester t) {
+    HuffmanDecoder decoder = new HuffmanDecoder(hOneByOne.tree);
+    t.checkExpect(decoder.nextNode(0, false), 1);
+    t.checkExpect(decoder.nextNode(0, true), 2);
+  }
+  
+  void testDecoderDepth(Tester t) {
+    HuffmanDecoder decoder = new HuffmanDecoder(hOneByOne.tree);
+    t.checkExpect(decoder.depth(0), 3);
+    t.checkExpect(decoder.depth(1), 0);
+    t.checkExpect(decoder.depth(2), 2);
+  }
+  
+  // Methods on BitBuffer -------------------------------------------------------------------------
+  
+  void testBitBufferAppend(Tester t) {
+    BitBuffer bits = new BitBuffer();
+    bits.append(5, 3);
+    t.checkExpect(bits.size(), 3);
+    t.checkExpect(bits.toList(), new ArrayList<>(List.of(true, false, true)));
+    
+    // only the lowest bits are appended
+    bits.append(-1, 2);
+    t.checkExpect(bits.toList(), new ArrayList<>(List.of(true, false, true, true, true)));
+    
+    // appending nothing does not change the buffer
+    bits.append(1, 0);
+    t.checkExpect(bits.size(), 5);
+    
+    // appends that straddle a word boundary are split across both words, and the buffer grows
+    bits.append(0, 60);
+    bits.append(0xABCDL, 16);
+    t.checkExpect(bits.size(), 81);
+    t.checkExpect(bits.words.length, 2);
+    t.checkExpect(bits.peek(65, 16), 0xABCDL);
+    
+    // a full word can be appended at an unaligned position
+    bits.append(-1L, 64);
+    t.checkExpect(bits.peek(81, 64), -1L);
+    t.checkExpect(bits.get(80), true);
+  }
+  
+  void testBitBufferGet(Tester t) {
+    BitBuffer bits = new BitBuffer(new ArrayList<>(List.of(false, true, true)));
+    t.checkExpect(bits.get(0), false);
+    t.checkExpect(bits.get(1), true);
+    t.checkExpect(bits.get(2), true);
+    t.checkException(
+        new IndexOutOfBoundsException("Bit index 3 out of bounds for size 3"),
+        bits, "get", 3);
+  }
+  
+  void testBitBufferPeek(Tester t) {
+    BitBuffer bits = new BitBuffer(new ArrayList<>(List.of(true, false, true, true)));
+    t.checkExpect(bits.peek(0, 4), 11L);
+    t.checkExpect(bits.peek(1, 2), 1L);
+    // bits past the end are read as 0
+    t.checkExpect(bits.peek(2, 4), 12L);
+  }
+  
+  void testBitBufferToList(Tester t) {
+    t.checkExpect(new BitBuffer().toList(), new ArrayList<Boolean>());
+    t.checkExpect(new BitBuffer(new ArrayList<>(List.of(true, false))).toList(),
+        new ArrayList<>(List.of(true, false)));
+  }
+  
+  void testBitBufferClear(Tester t) {
+    BitBuffer bits = new BitBuffer(new ArrayList<>(List.of(true, true, true)));
+    bits.clear();
+    t.checkExpect(bits.size(), 0);
+    // cleared bits read as 0 and new bits are not mixed with the old ones
+    t.checkExpect(bits.peek(0, 3), 0L);
+    bits.append(0, 2);
+    t.checkExpect(bits.toList(), new ArrayList<>(List.of(false, false)));
+  }
+  
+  void testBitBufferBytes(Tester t) {
+    BitBuffer bits = new BitBuffer();
+    bits.append(0x0123456789ABCDEFL, 64);
+    bits.append(5, 3);
+    t.checkExpect(bits.byteSize(), 9);
+    ByteBuffer bytes = ByteBuffer.allocate(9);
+    bits.writeBytes(bytes);
+    t.checkExpect(bytes.array(), new byte[]{
+        0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xAB, (byte) 0xCD, (byte) 0xEF,
+        (byte) 0xA0});
+    
+    bytes.flip();
+    BitBuffer read = new BitBuffer(new ArrayList<>(List.of(true)));
+    read.readBytes(bytes, 67);
+    t.checkExpect(read.size(), 67);
+    t.checkExpect(read.toList(), bits.toList());
+    
+    // padding bits beyond the size are dropped
+    BitBuffer partial = new BitBuffer();
+    partial.readBytes(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 2);
+    t.checkExpect(partial.toList(), new ArrayList<>(List.of(true, true)));
+    t.checkExpect(partial.peek(0, 8), 0xC0L);
+  }
+  
+  // Methods on HuffmanCompressor -----------------------------------------------------------------
+  
+  // A Huffman code over the lowercase letters, space, newline and an accented character, for
+  // testing compression of UTF-8 text
+  Huffman hText = new Huffman(
+      new ArrayList<>(List.of("a", "b", "c", "d", "e", " ", "\n", "\u00e9")),
+      new ArrayList<>(List.of(8, 2, 3, 4, 12, 6, 1, 1))
+  );
+  
+  // Compresses text with the given code and compressor, producing the compressed bytes
+  byte[] compressed(HuffmanCompressor compressor, Huffman code, String text) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      compressor.compress(code,
+          Channels.newChannel(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8))),
+          Channels.newChannel(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+  
+  // Decompresses the given bytes with the given compressor, producing the text
+  String decompressed(HuffmanCompressor compressor, byte[] compressed) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      compressor.decompress(Channels.newChannel(new ByteArrayInputStream(compressed)),
+          Channels.newChannel(bytes));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+  
+  void testCompressorRoundTrip(Tester t) {
+    String text = "a bad cab\n\u00e9de ace\n";
+    HuffmanCompressor small = new HuffmanCompressor(3);
+    HuffmanCompressor big = new HuffmanCompressor();
+    t.checkExpect(this.decompressed(small, this.compressed(small, hText, text)), text);
+    t.checkExpect(this.decompressed(big, this.compressed(big, hText, text)), text);
+    // the chunk size only changes the blocks, not what they decode to
+    t.checkExpect(this.decompressed(big, this.compressed(small, hText, text)), text);
+    t.checkExpect(this.decompressed(small, this.compressed(small, hText, "")), "");
+    
+    // text many times longer than a chunk
+    StringBuilder longText = new StringBuilder();
+    for (int i = 0; i < 2000; i += 1) {
+      longText.append(text);
+    }
+    HuffmanCompressor medium = new HuffmanCompressor(1000);
+    t.checkExpect(this.decompressed(medium, this.compressed(medium, hText, longText.toString())),
+        longText.toString());
+  }
+  
+  void testCompressorFormat(Tester t) {
+    byte[] bytes = this.compressed(new HuffmanCompressor(), hTwo, "abba");
+    ByteBuffer buf = ByteBuffer.wrap(bytes);
+    t.checkExpect(buf.getInt(), HuffmanCompressor.MAGIC);
+    // a node, then two leaves each holding a one-byte character
+    t.checkExpect(buf.getInt(), 9);
+    t.checkExpect(buf.get(), (byte) 0);
+    t.checkExpect(buf.get(), (byte) 1);
+    buf.position(buf.position() + 7);
+    // one block of four bits, 0110 padded to a byte
+    t.checkExpect(buf.getInt(), 4);
+    t.checkExpect(buf.get(), (byte) 0x60);
+    t.checkExpect(buf.getInt(), -1);
+    t.checkExpect(buf.hasRemaining(), false);
+  }
+  
+  void testCompressorEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("chunkChars must be at least 2, given 1"),
+        "HuffmanCompressor",
+        1);
+    t.checkException(
+        new IllegalArgumentException("Tried to encode z but that is not part of the language."),
+        this,
+        "compressed",
+        new HuffmanCompressor(), hTwo, "abz");
+    t.checkException(
+        new IOException("Input is not compressed with a Huffman code"),
+        new HuffmanCompressor(),
+        "readHeader",
+        Channels.newChannel(new ByteArrayInputStream(new byte[]{1, 2, 3, 4})));
+    t.checkException(
+        new EOFException("Compressed input ended unexpectedly"),
+        new HuffmanCompressor(),
+        "readHeader",
+        Channels.newChannel(new ByteArrayInputStream(new byte[]{0x48})));
+  }
+  
+  void testCompressorHeader(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new HuffmanCompressor().writeHeader(hText, Channels.newChannel(bytes));
+    Huffman read = new HuffmanCompressor().readHeader(
+        Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+    // frequencies are not stored, but the codes are the same
+    t.checkExpect(read.codes.symbols, hText.codes.symbols);
+    t.checkExpect(read.codes.codes, hText.codes.codes);
+    t.checkExpect(read.tree.frequency(), 0);
+  }
+  
+  void testCompressorWriteBlock(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BitBuffer bits = new BitBuffer(new ArrayList<>(List.of(true, true, false, true)));
+    // a block too small for the bits is replaced by a larger one
+    ByteBuffer used = new HuffmanCompressor().writeBlock(bits, ByteBuffer.allocate(2),
+        Channels.newChannel(bytes));
+    t.checkExpect(used.capacity(), 5);
+    t.checkExpect(bytes.toByteArray(), new byte[]{0, 0, 0, 4, (byte) 0xD0});
+  }
+  
+  void testTreeReaderReadTree(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    hOneByOne.tree.writeTree(new DataOutputStream(bytes));
+    t.checkExpect(
+        new HuffmanTreeReader().readTree(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))),
+        new HTNode(new HTLeaf("d", 0),
+            new HTNode(new HTLeaf("c", 0),
+                new HTNode(new HTLeaf("a", 0), new HTLeaf("b", 0)))));
+    t.checkException(
+        new IOException("Corrupt tree node 7"),
+        new HuffmanTreeReader(),
+        "readTree",
+        new DataInputStream(new ByteArrayInputStream(new byte[]{7})));
+  }
+  
+  void testBitBufferAppendZeros(Tester t) {
+    BitBuffer bits = new BitBuffer(new ArrayList<>(List.of(true)));
+    bits.appendZeros(70);
+    t.checkExpect(bits.size(), 71);
+    t.checkExpect(bits.get(0), true);
+    t.checkExpect(bits.get(70), false);
+  }
+  
+  void testBitBufferCopyTo(Tester t) {
+    // 100 alternating bits copied behind 3 bits of 1s, so they straddle three words
+    BitBuffer src = new BitBuffer();
+    for (int i = 0; i < 100; i += 1) {
+      src.append(i % 2 == 0 ? 1 : 0, 1);
+    }
+    t.checkExpect(src.wordSpan(0), 2);
+    t.checkExpect(src.wordSpan(60), 3);
+    t.checkExpect(new BitBuffer().wordSpan(5), 0);
+    t.checkExpect(src.shiftedWord(0, 0), 0xAAAAAAAAAAAAAAAAL);
+    t.checkExpect(src.shiftedWord(0, 4), 0x0AAAAAAAAAAAAAAAL);
+    
+    BitBuffer dest = new BitBuffer();
+    dest.append(0b111, 3);
+    dest.appendZeros(100);
+    src.copyInteriorTo(dest, 3);
+    // the interior of a two-word span is empty
+    t.checkExpect(dest.get(3), false);
+    src.orEdgesTo(dest, 3);
+    boolean same = true;
+    for (int i = 0; i < 100; i += 1) {
+      same = same && dest.get(i + 3) == src.get(i);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(dest.peek(0, 3), 0b111L);
+  }
+  
+  void testChunkedCodeEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException(
+            "Expected one bit start per character start, got 2 and 3 instead"),
+        "HuffmanChunkedCode",
+        new BitBuffer(), new int[]{0, 0}, new int[]{0, 0, 0});
+    t.checkExpect(new HuffmanChunkedCode(new BitBuffer(), new int[]{0, 1, 2},
+        new int[]{0, 1, 2}).numChunks(), 2);
+  }
+  
+  void testParallelCoder(Tester t) {
+    ForkJoinPool pool = new ForkJoinPool(4);
+    String text = "a bad cab\n\u00e9de ace\n";
+    StringBuilder longText = new StringBuilder();
+    for (int i = 0; i < 500; i += 1) {
+      longText.append(text);
+    }
+    String message = longText.toString();
+    
+    // chunk sizes that do and do not line up with words of bits
+    for (int chunkChars : new int[]{1, 7, 64, 1000, 1 << 16}) {
+      ParallelHuffmanCoder coder = new ParallelHuffmanCoder(hText, chunkChars, pool);
+      HuffmanChunkedCode chunked = coder.encode(message);
+      t.checkExpect(chunked.bits.toList(), hText.encode(message));
+      t.checkExpect(chunked.numChunks(), (message.length() + chunkChars - 1) / chunkChars);
+      t.checkExpect(coder.decode(chunked), message);
+    }
+    
+    ParallelHuffmanCoder coder = new ParallelHuffmanCoder(hText, 4, pool);
+    HuffmanChunkedCode chunked = coder.encode("a bad cab");
+    t.checkExpect(chunked.charStarts, new int[]{0, 4, 8, 9});
+    t.checkExpect(chunked.bitStarts[3], hText.encode("a bad cab").size());
+    // each chunk decodes on its own
+    t.checkExpect(hText.decodeBits(new BitBuffer(new ArrayList<>(
+        hText.encode("a bad cab").subList(chunked.bitStarts[1], chunked.bitStarts[2])))),
+        "d ca");
+    
+    HuffmanChunkedCode empty = coder.encode("");
+    t.checkExpect(empty.numChunks(), 1);
+    t.checkExpect(coder.decode(empty), "");
+    t.checkExpect(new ParallelHuffmanCoder(hText).decode(
+        new ParallelHuffmanCoder(hText).encode(message)), message);
+    pool.shutdown();
+  }
+  
+  void testParallelCoderEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("chunkChars must be at least 1, given 0"),
+        "ParallelHuffmanCoder",
+        hText, 0, ForkJoinPool.commonPool());
+    t.checkException(
+        new IllegalArgumentException("Tried to encode z but that is not part of the language."),
+        new ParallelHuffmanCoder(hText, 2, ForkJoinPool.commonPool()),
+        "encode",
+        "a bz");
+    // the bad chunk is almost certainly encoded on another worker than the one that invoked it
+    ForkJoinPool pool = new ForkJoinPool(4);
+    StringBuilder longMessage = new StringBuilder();
+    for (int i = 0; i < 4000; i += 1) {
+      longMessage.append("a b");
+    }
+    longMessage.append("z");
+    t.checkException(
+        new IllegalArgumentException("Tried to encode z but that is not part of the language."),
+        new ParallelHuffmanCoder(hText, 2, pool),
+        "encode",
+        longMessage.toString());
+    pool.shutdown();
+    // an index that does not match the bits
+    t.checkException(
+        new IllegalStateException("Chunk 0 decoded to 1 characters instead of 2"),
+        new DecodeChunksTask(hTwo,
+            new HuffmanChunkedCode(new BitBuffer(new ArrayList<>(List.of(false))),
+                new int[]{0, 1}, new int[]{0, 2}),
+            new char[2], 0, 1),
+        "invoke");
+  }
+  
+  /*
+  Not canonical, since the longer codes come first
+      / \
+     / \ c
+    a   b
+  */
+  Huffman hLongFirst = new Huffman(
+      new HTNode(new HTNode(new HTLeaf("a", 1), new HTLeaf("b", 1)), new HTLeaf("c", 3)));
+  
+  void testCodeTableToCanonical(Tester t) {
+    CanonicalHuffmanCode canonical = hLongFirst.codes.toCanonical();
+    t.checkExpect(canonical.symbols, new ArrayList<>(List.of("c", "a", "b")));
+    t.checkExpect(canonical.lengths, new int[]{1, 2, 2});
+    t.checkExpect(canonical.codes, new long[]{0b0, 0b10, 0b11});
+    // leaves of the same length keep their left-to-right order
+    t.checkExpect(hPairs.codes.toCanonical().symbols,
+        new ArrayList<>(List.of("a", "b", "c", "d")));
+  }
+  
+  void testCanonicalConstructor(Tester t) {
+    CanonicalHuffmanCode canonical = new CanonicalHuffmanCode(
+        new ArrayList<>(List.of("w", "x", "y", "u", "z", "v")), new int[]{1, 3, 3, 3, 4, 4});
+    t.checkExpect(canonical.codes, new long[]{0b0, 0b100, 0b101, 0b110, 0b1110, 0b1111});
+    t.checkExpect(canonical.maxLength, 4);
+    t.checkExpect(canonical.counts, new int[]{0, 1, 0, 3, 2});
+    t.checkExpect(canonical.firstCodes, new long[]{0, 0b0, 0, 0b100, 0b1110});
+    t.checkExpect(canonical.firstIndices, new int[]{0, 0, 0, 1, 4});
+    t.checkExpect(canonical.limits, new long[]{0, 0b1000, 0, 0b1110, 0b10000});
+    t.checkExpect(canonical.size(), 6);
+  }
+  
+  void testCanonicalConstructorEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("Expected one length per symbol, got 1 lengths for 2 "
+            + "symbols instead"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a", "b")), new int[]{1});
+    t.checkConstructorException(
+        new IllegalArgumentException("A canonical code must have at least 2 symbols"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a")), new int[]{1});
+    t.checkConstructorException(
+        new IllegalArgumentException("Code lengths must be between 1 and 63"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a", "b")), new int[]{0, 1});
+    t.checkConstructorException(
+        new IllegalArgumentException("Code lengths must be in increasing order"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a", "b", "c")), new int[]{2, 1, 2});
+    t.checkConstructorException(
+        new IllegalArgumentException("Code lengths do not describe a prefix code"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a", "b", "c")), new int[]{1, 1, 1});
+    t.checkConstructorException(
+        new IllegalArgumentException("Code lengths do not describe a complete code"),
+        "CanonicalHuffmanCode",
+        new ArrayList<>(List.of("a", "b", "c")), new int[]{1, 2, 3});
+  }
+  
+  void testCanonicalToTree(Tester t) {
+    t.checkExpect(hLongFirst.codes.toCanonical().toTree(),
+        new HTNode(new HTLeaf("c", 0), new HTNode(new HTLeaf("a", 0), new HTLeaf("b", 0))));
+    t.checkExpect(hOneByOne.codes.toCanonical().toTree(),
+        new HTNode(new HTLeaf("d", 0),
+            new HTNode(new HTLeaf("c", 0),
+                new HTNode(new HTLeaf("a", 0), new HTLeaf("b", 0)))));
+  }
+  
+  void testCanonicalDecodeInto(Tester t) {
+    CanonicalHuffmanCode canonical = new CanonicalHuffmanCode(
+        new ArrayList<>(List.of("w", "x", "y", "u", "z", "v")), new int[]{1, 3, 3, 3, 4, 4});
+    BitBuffer bits = new BitBuffer();
+    bits.append(0b0_101_1111_0_100_1110L, 16);
+    StringBuilder out = new StringBuilder();
+    canonical.decodeInto(bits, 0, 16, out);
+    t.checkExpect(out.toString(), "wyvwxz");
+    // a range of the bits, ending partway through a code
+    out.setLength(0);
+    canonical.decodeInto(bits, 1, 6, out);
+    t.checkExpect(out.toString(), "y?");
+    out.setLength(0);
+    canonical.decodeInto(bits, 3, 3, out);
+    t.checkExpect(out.toString(), "");
+  }
+  
+  void testHuffmanCanonical(Tester t) {
+    Huffman canonical = hLongFirst.canonical();
+    t.checkExpect(canonical.encode("abc"),
+        new ArrayList<>(List.of(true, false, true, true, false)));
+    t.checkExpect(canonical.decode(canonical.encode("abcbca")), "abcbca");
+    t.checkExpect(canonical.decoder, hLongFirst.canonicalCode());
+    // the canonical code has the same lengths, so the same number of bits
+    String text = "a bad cab\n\u00e9de ace\n";
+    t.checkExpect(hText.canonical().encode(text).size(), hText.encode(text).size());
+    t.checkExpect(hText.canonical().decode(hText.canonical().encode(text)), text);
+    // a canonical code is its own canonical form
+    t.checkExpect(hText.canonical().canonicalCode(), hText.canonicalCode());
+  }
+  
+  void testCanonicalWriteLengths(Tester t) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    hLongFirst.canonicalCode().writeLengths(new DataOutputStream(bytes));
+    t.checkExpect(bytes.toByteArray(),
+        new byte[]{0, 0, 0, 3, 1, 0, 1, 'c', 2, 0, 1, 'a', 2, 0, 1, 'b'});
+    t.checkExpect(new HuffmanTreeReader().readCodeLengths(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))),
+        hLongFirst.canonicalCode());
+  }
+  
+  void testTreeReaderReadCodeLengthsEx(Tester t) {
+    t.checkException(
+        new IOException("Corrupt canonical code of 1 symbols"),
+        new HuffmanTreeReader(),
+        "readCodeLengths",
+        new DataInputStream(new ByteArrayInputStream(new byte[]{0, 0, 0, 1})));
+    t.checkException(
+        new IOException("Corrupt canonical code: Code lengths do not describe a complete code"),
+        new HuffmanTreeReader(),
+        "readCodeLengths",
+        new DataInputStream(new ByteArrayInputStream(
+            new byte[]{0, 0, 0, 2, 1, 0, 1, 'a', 2, 0, 1, 'b'})));
+  }
+  
+  void testCompressorCanonical(Tester t) {
+    String text = "a bad cab\n\u00e9de ace\n";
+    HuffmanCompressor canonical = new HuffmanCompressor(4, true);
+    byte[] bytes = this.compressed(canonical, hText, text);
+    t.checkExpect(ByteBuffer.wrap(bytes).getInt(), HuffmanCompressor.CANONICAL_MAGIC);
+    // either compressor reads either kind of header
+    t.checkExpect(this.decompressed(canonical, bytes), text);
+    t.checkExpect(this.decompressed(new HuffmanCompressor(), bytes), text);
+    t.checkExpect(this.decompressed(canonical,
+        this.compressed(new HuffmanCompressor(), hText, text)), text);
+    // the code lengths take fewer bytes than the tree
+    t.checkExpect(ByteBuffer.wrap(bytes).getInt(4) < ByteBuffer.wrap(
+        this.compressed(new HuffmanCompressor(), hText, text)).getInt(4), true);
+  }
+  
+  void testHistogramCount(Tester t) {
+    CharHistogram histogram = new CharHistogram();
+    histogram.count("abracadabra", 0, 11);
+    t.checkExpect(histogram.get('a'), 5L);
+    t.checkExpect(histogram.get('r'), 2L);
+    t.checkExpect(histogram.get('z'), 0L);
+    t.checkExpect(histogram.distinct(), 5);
+    // counts accumulate
+    histogram.count("abracadabra", 0, 4);
+    t.checkExpect(histogram.get('a'), 7L);
+    t.checkExpect(histogram.get('c'), 1L);
+    
+    histogram.mergeFrom(new int[]{0, 0, 3});
+    t.checkExpect(histogram.get('\u0002'), 3L);
+    t.checkExpect(histogram.distinct(), 6);
+  }
+  
+  void testHistogramCountParallel(Tester t) {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 100000; i += 1) {
+      text.append((char) ('a' + i % 7 * i % 13));
+    }
+    CharHistogram sequential = new CharHistogram();
+    sequential.count(text, 0, text.length());
+    ForkJoinPool pool = new ForkJoinPool(4);
+    CharHistogram parallel = new CharHistogram();
+    parallel.countParallel(text, pool);
+    t.checkExpect(parallel.counts, sequential.counts);
+    
+    CharHistogram small = new CharHistogram();
+    small.countParallel("abba", pool);
+    t.checkExpect(small.get('b'), 2L);
+    pool.shutdown();
+  }
+  
+  void testCountCharsTask(Tester t) {
+    int[][] parts = new int[3][];
+    new CountCharsTask("aabbbc", parts, 0, 3).invoke();
+    t.checkExpect(parts[0]['a'], 2);
+    t.checkExpect(parts[1]['b'], 2);
+    t.checkExpect(parts[2]['b'], 1);
+    t.checkExpect(parts[2]['c'], 1);
+  }
+  
+  void testHistogramBuildTree(Tester t) {
+    CharHistogram histogram = new CharHistogram();
+    histogram.count("abbcccdddd", 0, 10);
+    // the same tree as counting by hand, with the characters in order
+    t.checkExpect(histogram.buildTree(), hOneByOne.tree);
+    t.checkExpect(new Huffman(histogram), hOneByOne);
+    
+    CharHistogram text = new CharHistogram();
+    text.count("a bad cab\n\u00e9de ace\n", 0, 18);
+    t.checkExpect(new Huffman(text).tree, new Huffman(
+        new ArrayList<>(List.of("\n", " ", "a", "b", "c", "d", "e", "\u00e9")),
+        new ArrayList<>(List.of(2, 3, 4, 2, 2, 2, 2, 1))).tree);
+  }
+  
+  void testHistogramBuildTreeEx(Tester t) {
+    CharHistogram histogram = new CharHistogram();
+    histogram.count("aaaa", 0, 4);
+    t.checkException(
+        new IllegalArgumentException("The histogram must count at least 2 different characters"),
+        histogram,
+        "buildTree");
+    histogram.count("b", 0, 1);
+    histogram.counts['a'] = 1L << 47;
+    t.checkException(
+        new IllegalArgumentException("Cannot build a tree from a count of 140737488355328"),
+        histogram,
+        "buildTree");
+  }
+  
+  
+  
+  
   // Methods on Maybe -----------------------------------------------------------------------------
   
   void testOr(Tester t) {
@@ -961,4 +4397,154 @@ class ExamplesHuffman {
         new ArrayList<>(List.of(lFreq1, lFreq2b, lFreq3))
     ), nFreq6);
   }
+  
+  void testCondenseEx(Tester t) {
+    t.checkException(
+        new IllegalArgumentException("Cannot condense an empty list of trees"),
+        new HuffmanTreeUtils(),
+        "condense",
+        new ArrayList<IHuffmanTree>());
+  }
+  
+  // Condenses trees the way condense originally did, by sorting with ListUtils and inserting
+  // each merged node back into the sorted list, for checking that the codes have not changed.
+  IHuffmanTree condenseByInsertion(ArrayList<IHuffmanTree> trees) {
+    ArrayList<IHuffmanTree> treesSorted = new ListUtils().sorted(
+        trees, new HuffmanTreeComparator());
+    int treesSize = treesSorted.size();
+    for (int i = 0; i < treesSize - 1; i += 1) {
+      IHuffmanTree first = treesSorted.remove(0);
+      IHuffmanTree second = treesSorted.remove(0);
+      new ListUtils().insert(treesSorted, new HTNode(first, second), new HuffmanTreeComparator());
+    }
+    return treesSorted.get(0);
+  }
+  
+  // Merging with two queues must produce exactly the tree that inserting into the list did,
+  // including on alphabets with many ties
+  void testCondenseMatchesInsertion(Tester t) {
+    ArrayList<IHuffmanTree> leaves = new ArrayList<>();
+    for (int i = 0; i < 200; i += 1) {
+      leaves.add(new HTLeaf("s" + i, (i * 37) % 11 + 1));
+    }
+    t.checkExpect(new HuffmanTreeUtils().condense(leaves), this.condenseByInsertion(leaves));
+    
+    ArrayList<IHuffmanTree> equal = new ArrayList<>();
+    for (int i = 0; i < 33; i += 1) {
+      equal.add(new HTLeaf("e" + i, 5));
+    }
+    t.checkExpect(new HuffmanTreeUtils().condense(equal), this.condenseByInsertion(equal));
+    
+    // the input list is not modified
+    t.checkExpect(equal.get(0), new HTLeaf("e0", 5));
+    t.checkExpect(equal.size(), 33);
+  }
+  
+  // Methods on HuffmanTreeBuilder ----------------------------------------------------------------
+  
+  void testBuilderBuild(Tester t) {
+    IHuffmanTree lFreq1 = new HTLeaf("a", 1);
+    IHuffmanTree lFreq2 = new HTLeaf("b", 2);
+    IHuffmanTree lFreq3 = new HTLeaf("c", 3);
+    
+    t.checkExpect(new HuffmanTreeBuilder(
+        new ArrayList<>(List.of(lFreq1)), new long[]{1}).build(), lFreq1);
+    t.checkExpect(new HuffmanTreeBuilder(
+        new ArrayList<>(List.of(lFreq1, lFreq2, lFreq3)), new long[]{1, 2, 3}).build(),
+        new HTNode(lFreq3, new HTNode(lFreq1, lFreq2)));
+  }
+  
+  void testBuilderConstructorEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException(
+            "Expected one frequency per tree, got 1 frequencies for 2 trees instead"),
+        "HuffmanTreeBuilder",
+        new ArrayList<>(List.of(new HTLeaf("a", 1), new HTLeaf("b", 1))),
+        new long[]{1});
+  }
+  
+  void testBuilderTakeNext(Tester t) {
+    IHuffmanTree lFreq1 = new HTLeaf("a", 1);
+    IHuffmanTree lFreq2 = new HTLeaf("b", 2);
+    IHuffmanTree lFreq3 = new HTLeaf("c", 3);
+    HuffmanTreeBuilder builder = new HuffmanTreeBuilder(
+        new ArrayList<>(List.of(lFreq1, lFreq2, lFreq3)), new long[]{1, 2, 3});
+    
+    // with no merged nodes yet, trees come from the sorted queue
+    t.checkExpect(builder.sortedIsNext(), true);
+    t.checkExpect(builder.nextFrequency(), 1L);
+    t.checkExpect(builder.takeNext(), lFreq1);
+    t.checkExpect(builder.takeNext(), lFreq2);
+    
+    // on ties with a merged node, the sorted tree comes first
+    builder.merged[0] = new HTNode(lFreq1, lFreq2);
+    builder.mergedFrequencies[0] = 3;
+    builder.numMerged = 1;
+    t.checkExpect(builder.sortedIsNext(), true);
+    t.checkExpect(builder.takeNext(), lFreq3);
+    
+    // once the sorted queue is empty, trees come from the merged queue
+    t.checkExpect(builder.sortedIsNext(), false);
+    t.checkExpect(builder.nextFrequency(), 3L);
+    t.checkExpect(builder.takeNext(), new HTNode(lFreq1, lFreq2));
+  }
+}
+
+class ExamplesHuffmanBenchmark {
+  // Measures a single call of each operation, without warming up
+  HuffmanBenchmark once = new HuffmanBenchmark(0, 0, 1, ForkJoinPool.commonPool());
+  
+  void testConstructorEx(Tester t) {
+    t.checkConstructorException(
+        new IllegalArgumentException("minCalls must be at least 1, given 0"),
+        "HuffmanBenchmark",
+        0L, 0L, 0, ForkJoinPool.commonPool());
+  }
+  
+  void testPercentile(Tester t) {
+    long[] times = new long[]{50, 10, 40, 20, 30, 99};
+    t.checkExpect(once.percentile(times, 5, 0.99), 50L);
+    t.checkExpect(times, new long[]{10, 20, 30, 40, 50, 99});
+    t.checkExpect(once.percentile(times, 5, 0.5), 30L);
+    t.checkExpect(once.percentile(times, 1, 0.99), 10L);
+    t.checkException(
+        new IllegalArgumentException("Cannot take a percentile of no times"),
+        once,
+        "percentile",
+        times, 0, 0.99);
+  }
+  
+  void testInputs(Tester t) {
+    t.checkExpect(once.alphabet(3), new ArrayList<>(List.of("!", "\"", "#")));
+    t.checkExpect(once.frequencies(3), new ArrayList<>(List.of(100001, 50001, 33334)));
+    String message = once.message(once.alphabet(3), once.frequencies(3), 1000, new Random(1));
+    t.checkExpect(message.length(), 1000);
+    t.checkExpect(message.replaceAll("[!\"#]", ""), "");
+    // the first character is the most frequent
+    t.checkExpect(message.replace("!", "").length() < 500, true);
+  }
+  
+  void testMeasure(Tester t) {
+    HuffmanBenchmark benchmark = new HuffmanBenchmark(0, 0, 3, ForkJoinPool.commonPool());
+    BenchmarkResult result = benchmark.measure("encodeBits", 2, 4,
+        new EncodeBitsOp(new Huffman(new ArrayList<>(List.of("a", "b")),
+            new ArrayList<>(List.of(1, 2))), "abba"));
+    t.checkExpect(result.name, "encodeBits");
+    t.checkExpect(result.calls, 3);
+    t.checkExpect(benchmark.sink, 12L);
+    t.checkExpect(result.callsPerSecond > 0, true);
+    t.checkExpect(result.p99Nanos >= 0, true);
+  }
+  
+  void testRunAll(Tester t) {
+    HuffmanBenchmark benchmark = new HuffmanBenchmark(0, 0, 1, ForkJoinPool.commonPool());
+    ArrayList<BenchmarkResult> results = benchmark.runAll(new int[]{2, 5}, new int[]{10});
+    // one tree build and eight operations on the message for each alphabet
+    t.checkExpect(results.size(), 18);
+    t.checkExpect(results.get(0).name, "condense");
+    t.checkExpect(results.get(0).length, 0);
+    t.checkExpect(results.get(9).alphabetSize, 5);
+    t.checkExpect(results.get(2).toString().startsWith("encode "), true);
+    t.checkExpect(results.get(0).header().startsWith("operation"), true);
+  }
 }
\ No newline at end of file
@@ -1,5 +1,15 @@
 import tester.Tester;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.Predicate;
 
 // Represents a course with a name, a professor, and students.
@@ -7,6 +17,11 @@ class Course {
   String name;
   Instructor prof;
   IList<Student> students;
+  // The IDs of the students in this course, so that hasStudent does not need to search students
+  HashSet<Integer> studentIds;
+  // The instructors whose courses include this course, once for each time it was added to them.
+  // This is usually just prof, but prof can be changed after the course is added to an instructor.
+  ArrayList<Instructor> listedBy;
   
   Course(String name, Instructor prof) {
     this.name = name;
@@ -14,6 +29,8 @@ class Course {
     // A list of students is not provided upon construction because students enroll in a course
     // after the course is created.
     this.students = new MtList<>();
+    this.studentIds = new HashSet<>();
+    this.listedBy = new ArrayList<>(1);
     
     this.prof.addCourse(this);
   }
@@ -23,6 +40,8 @@ class Course {
   ... name ...                                    -- String
   ... prof ...                                    -- Instructor
   ... students ...                                -- IList<Student>
+  ... studentIds ...                              -- HashSet<Integer>
+  ... listedBy ...                                -- ArrayList<Instructor>
   Methods:
   ... this.addStudent(Student) ...                -- void
   ... this.hasStudent(Student) ...                -- boolean
@@ -31,6 +50,8 @@ class Course {
   ... this.prof.addCourse(Course) ...             -- void
   ... this.students.ormap(Predicate<T>) ...       -- boolean
   ... this.students.countTrue(Predicate<T>) ...   -- int
+  ... this.studentIds.add(Integer) ...            -- boolean
+  ... this.studentIds.contains(Integer) ...       -- boolean
    */
   
   // Updates this course's list of enrolled students to include newStudent, throwing an exception
@@ -42,22 +63,35 @@ class Course {
     ... newStudent ...          -- Student
     Fields on parameters:
     ... newStudent.courses ...  -- IList<Course>
+    ... newStudent.id ...       -- int
+    Methods on parameters:
+    ... newStudent.isEnrolledIn(Course) ...  -- boolean
     
     NOTE: we only access fields on parameters for exceptions, as is done in the lecture notes
     */
-    if (!newStudent.courses.ormap(new SameInstancePred<>(this))) {
+    if (!newStudent.isEnrolledIn(this)) {
       throw new IllegalStateException("Student is not enrolled in this course");
     }
     this.students = new ConsList<>(newStudent, this.students);
+    // The instructors count courses, so they only hear about the first student with each ID.
+    // Every instructor that lists this course hears about it, not just the current prof.
+    if (this.studentIds.add(newStudent.id)) {
+      for (Instructor listing : this.listedBy) {
+        listing.recordStudent(newStudent.id);
+      }
+    }
   }
   
-  // Determines whether this Course contains a student that matches the provided student
+  // Determines whether this Course contains a student that matches the provided student. Since
+  // students match by ID, this looks up the ID instead of searching the list of students.
   boolean hasStudent(Student s) {
     /* TEMPLATE
     Parameters:
     ... s ...  -- Student
+    Fields on parameters:
+    ... s.id ...  -- int
     */
-    return this.students.ormap(new SameStudentPred(s));
+    return this.studentIds.contains(s.id);
   }
 }
 
@@ -65,22 +99,32 @@ class Course {
 class Instructor {
   String name;
   IList<Course> courses;
+  // The number of this instructor's courses with a student of each ID, so that dejavu does not
+  // need to search every student of every course
+  HashMap<Integer, Integer> coursesPerStudent;
   
   Instructor(String name) {
     this.name = name;
     this.courses = new MtList<>();
+    this.coursesPerStudent = new HashMap<>();
   }
   
   /* TEMPLATE for Instructor
   Fields:
   ... name ...                                   -- String
   ... courses ...                                -- IList<Course>
+  ... coursesPerStudent ...                      -- HashMap<Integer, Integer>
   Methods:
   ... this.dejavu(Student) ...                   -- boolean
+  ... this.repeatStudents() ...                  -- HashSet<Integer>
   ... this.addCourse(Course) ...                 -- void
+  ... this.recordStudent(int) ...                -- void
   Methods on fields:
   ... this.courses.ormap(Predicate<T>) ...       -- boolean
   ... this.courses.countTrue(Predicate<T>) ...   -- int
+  ... this.coursesPerStudent.get(Integer) ...    -- Integer
+  ... this.coursesPerStudent.put(Integer, Integer) ...  -- Integer
+  ... this.coursesPerStudent.entrySet() ...      -- Set<Map.Entry<Integer, Integer>>
    */
   
   // Determines whether the provided student is in more than one of this Instructor's courses
@@ -88,8 +132,40 @@ class Instructor {
     /* TEMPLATE
     Parameters:
     ... s ...  -- Student
+    Fields on parameters:
+    ... s.id ...  -- int
     */
-    return this.courses.countTrue(new HasStudentPred(s)) >= 2;
+    Integer count = this.coursesPerStudent.get(s.id);
+    return count != null && count >= 2;
+  }
+  
+  // Produces the IDs of every student in more than one of this Instructor's courses, that is,
+  // every student for whom dejavu is true
+  HashSet<Integer> repeatStudents() {
+    /* TEMPLATE: Same as class template */
+    HashSet<Integer> ids = new HashSet<>();
+    for (Map.Entry<Integer, Integer> entry : this.coursesPerStudent.entrySet()) {
+      if (entry.getValue() >= 2) {
+        ids.add(entry.getKey());
+      }
+    }
+    return ids;
+  }
+  
+  // Records that one more of this instructor's courses has a student with the given ID. Each
+  // course calls this once for each different ID among its students.
+  // EFFECT: increments the number of courses with a student of the given ID
+  void recordStudent(int id) {
+    /* TEMPLATE
+    Parameters:
+    ... id ...  -- int
+    */
+    Integer count = this.coursesPerStudent.get(id);
+    if (count == null) {
+      this.coursesPerStudent.put(id, 1);
+    } else {
+      this.coursesPerStudent.put(id, count + 1);
+    }
   }
   
   // Adds the provided course to this instructor's list of courses, throwing an exception if the
@@ -100,7 +176,8 @@ class Instructor {
     Parameters:
     ... c ...       -- Course
     Fields on parameters
-    ... c.prof ...  -- Instructor
+    ... c.prof ...      -- Instructor
+    ... c.listedBy ...  -- ArrayList<Instructor>
     
     NOTE: we only access fields on parameters for exceptions, as is done in the lecture notes
     */
@@ -111,6 +188,12 @@ class Instructor {
       throw new IllegalStateException("Course is not taught by this instructor");
     }
     this.courses = new ConsList<>(c, this.courses);
+    // The course tells this instructor about the students that enroll in it from now on
+    c.listedBy.add(this);
+    // A course is usually added before it has students, but any it has count for this instructor
+    for (Integer id : c.studentIds) {
+      this.recordStudent(id);
+    }
   }
 }
 
@@ -118,11 +201,14 @@ class Student {
   String name;
   int id;
   IList<Course> courses;
+  // The courses this student enrolled in, so that isEnrolledIn does not need to search courses
+  HashSet<Course> enrolled;
   
   Student(String name, int id) {
     this.name = name;
     this.id = id;
     this.courses = new MtList<>();
+    this.enrolled = new HashSet<>();
   }
   
   /* TEMPLATE for Student
@@ -130,13 +216,17 @@ class Student {
   ... name ...                                   -- String
   ... id ...                                     -- int
   ... courses ...                                -- IList<Course>
+  ... enrolled ...                               -- HashSet<Course>
   Methods:
   ... this.enroll(Course) ...                    -- void
+  ... this.isEnrolledIn(Course) ...              -- boolean
   ... this.sameStudent(Student) ...              -- boolean
   ... this.classmates(Student) ...               -- boolean
   Methods on fields:
   ... this.courses.ormap(Predicate<T>) ...       -- boolean
   ... this.courses.countTrue(Predicate<T>) ...   -- int
+  ... this.enrolled.add(Course) ...              -- boolean
+  ... this.enrolled.contains(Course) ...         -- boolean
    */
   
   // Enrolls this student in the provided course.
@@ -150,9 +240,21 @@ class Student {
     ... c.addStudent(Student ...  -- void
     */
     this.courses = new ConsList<>(c, this.courses);
+    this.enrolled.add(c);
     c.addStudent(this);
   }
   
+  // Determines whether this student's list of courses contains the provided course itself (using
+  // intensional equality). Courses added through enroll are looked up by hash, since Course does
+  // not override equals or hashCode; only courses put in the list directly need a search.
+  boolean isEnrolledIn(Course c) {
+    /* TEMPLATE
+    Parameters:
+    ... c ...  -- Course
+    */
+    return this.enrolled.contains(c) || this.courses.ormap(new SameInstancePred<>(c));
+  }
+  
   // Determines if this student is the same as another student by checking if their student IDs
   // are the same.
   // JUSTIFICATION: Since two different students may have the same course list or name, that
@@ -179,6 +281,345 @@ class Student {
   }
 }
 
+// BULK ENROLLMENT --------------------------------------------------------------------------------
+
+// Represents one line of a registration file: the ID of a student and the name of a course they
+// are to be enrolled in.
+class EnrollmentRecord {
+  int studentId;
+  String courseName;
+  
+  EnrollmentRecord(int studentId, String courseName) {
+    this.studentId = studentId;
+    this.courseName = courseName;
+  }
+  
+  /* TEMPLATE for EnrollmentRecord
+  Fields:
+  ... studentId ...   -- int
+  ... courseName ...  -- String
+   */
+}
+
+// Represents a record that could not be imported: its position among the records imported
+// (starting from 0), the record itself, and why it was rejected.
+class EnrollmentConflict {
+  int index;
+  EnrollmentRecord record;
+  String reason;
+  
+  EnrollmentConflict(int index, EnrollmentRecord record, String reason) {
+    this.index = index;
+    this.record = record;
+    this.reason = reason;
+  }
+  
+  /* TEMPLATE for EnrollmentConflict
+  Fields:
+  ... index ...   -- int
+  ... record ...  -- EnrollmentRecord
+  ... reason ...  -- String
+   */
+}
+
+// Represents the outcome of importing a batch of records: how many enrollments were made, and the
+// conflicts of every record that was rejected, in the order of the records.
+class EnrollmentReport {
+  int enrolled;
+  ArrayList<EnrollmentConflict> conflicts;
+  
+  EnrollmentReport(int enrolled, ArrayList<EnrollmentConflict> conflicts) {
+    this.enrolled = enrolled;
+    this.conflicts = conflicts;
+  }
+  
+  /* TEMPLATE for EnrollmentReport
+  Fields:
+  ... enrolled ...                -- int
+  ... conflicts ...               -- ArrayList<EnrollmentConflict>
+  Methods:
+  ... this.hasConflicts() ...     -- boolean
+  Methods on fields:
+  ... this.conflicts.isEmpty() ...  -- boolean
+   */
+  
+  // Determines whether any record was rejected
+  boolean hasConflicts() {
+    /* TEMPLATE: Same as class template */
+    return !this.conflicts.isEmpty();
+  }
+}
+
+// Enrolls the students of a roster in the courses of a catalog from a batch of records, such as a
+// semester's registration file. Every record is validated against hash tables of the catalog and
+// roster before any enrollment is made, and every record that fails is reported at the end
+// instead of stopping the import.
+class EnrollmentImporter {
+  HashMap<String, Course> coursesByName;
+  HashMap<Integer, Student> studentsById;
+  
+  // Builds the lookup tables for the given catalog of courses and roster of students, throwing an
+  // exception if two courses have the same name or two students have the same ID.
+  EnrollmentImporter(List<Course> catalog, List<Student> roster) {
+    // Sized so that neither table needs to grow while it is filled
+    this.coursesByName = new HashMap<>(this.capacityFor(catalog.size()));
+    this.studentsById = new HashMap<>(this.capacityFor(roster.size()));
+    for (Course c : catalog) {
+      if (this.coursesByName.put(c.name, c) != null) {
+        throw new IllegalArgumentException("Two courses in the catalog are named " + c.name);
+      }
+    }
+    for (Student s : roster) {
+      if (this.studentsById.put(s.id, s) != null) {
+        throw new IllegalArgumentException("Two students in the roster have the ID " + s.id);
+      }
+    }
+  }
+  
+  /* TEMPLATE for EnrollmentImporter
+  Fields:
+  ... coursesByName ...                            -- HashMap<String, Course>
+  ... studentsById ...                             -- HashMap<Integer, Student>
+  Methods:
+  ... this.importAll(Iterable<EnrollmentRecord>) ...  -- EnrollmentReport
+  ... this.capacityFor(int) ...                    -- int
+  Methods on fields:
+  ... this.coursesByName.get(String) ...           -- Course
+  ... this.studentsById.get(Integer) ...           -- Student
+   */
+  
+  // Validates every record and enrolls the student of each valid record in its course, producing
+  // a report of how many were enrolled and why the others were rejected. A record is rejected if
+  // its student or course is unknown, if the student is already in the course, or if an earlier
+  // record in the batch enrolls the same student in the same course. The records are read once,
+  // in order, so they can come from any collection or stream of records, such as a LinkedList.
+  // EFFECT: enrolls the students of the valid records in their courses, in order
+  EnrollmentReport importAll(Iterable<EnrollmentRecord> records) {
+    /* TEMPLATE
+    Parameters:
+    ... records ...  -- Iterable<EnrollmentRecord>
+    */
+    ArrayList<EnrollmentConflict> conflicts = new ArrayList<>();
+    ArrayList<Student> students = new ArrayList<>();
+    ArrayList<Course> courses = new ArrayList<>();
+    // The IDs each course gains from this batch, which Course.studentIds does not have yet
+    HashMap<Course, HashSet<Integer>> batchIds = new HashMap<>();
+    
+    // the index of the current record among the records
+    int i = 0;
+    for (EnrollmentRecord record : records) {
+      Student s = this.studentsById.get(record.studentId);
+      Course c = this.coursesByName.get(record.courseName);
+      if (s == null) {
+        conflicts.add(new EnrollmentConflict(i, record,
+            "Unknown student ID " + record.studentId));
+      } else if (c == null) {
+        conflicts.add(new EnrollmentConflict(i, record,
+            "Unknown course " + record.courseName));
+      } else if (c.hasStudent(s)) {
+        conflicts.add(new EnrollmentConflict(i, record,
+            "Student " + s.id + " is already enrolled in " + c.name));
+      } else {
+        HashSet<Integer> ids = batchIds.get(c);
+        if (ids == null) {
+          ids = new HashSet<>();
+          batchIds.put(c, ids);
+        }
+        if (!ids.add(s.id)) {
+          conflicts.add(new EnrollmentConflict(i, record,
+              "Student " + s.id + " is listed more than once for " + c.name));
+        } else {
+          students.add(s);
+          courses.add(c);
+        }
+      }
+      i += 1;
+    }
+    
+    for (int j = 0; j < students.size(); j += 1) {
+      students.get(j).enroll(courses.get(j));
+    }
+    return new EnrollmentReport(students.size(), conflicts);
+  }
+  
+  // Produces the initial capacity a HashMap needs to hold the given number of entries without
+  // growing, given its default load factor of 0.75
+  int capacityFor(int entries) {
+    /* TEMPLATE
+    Parameters:
+    ... entries ...  -- int
+    */
+    return entries * 4 / 3 + 1;
+  }
+}
+
+// DEJAVU REPORT ----------------------------------------------------------------------------------
+
+// Represents every pair of an instructor and a student in more than one of their courses, among
+// a list of instructors, computed all at once so that an audit of the whole registrar does not
+// ask dejavu about every instructor and student separately. The report does not change as
+// students enroll afterwards.
+class DejavuReport {
+  // the instructors, in the order they were given
+  ArrayList<Instructor> profs;
+  // the IDs of the students in more than one course of each instructor
+  HashMap<Instructor, HashSet<Integer>> repeatsByProf;
+  // the instructors that have each student in more than one course, in the order of profs
+  HashMap<Integer, ArrayList<Instructor>> profsByStudent;
+  
+  // Computes the report for the given instructors one after another
+  DejavuReport(List<Instructor> profs) {
+    this(profs, null);
+  }
+  
+  // Computes the report for the given instructors, each on its own task in the given pool, or one
+  // after another if the pool is null. The report is the same either way.
+  DejavuReport(List<Instructor> profs, ForkJoinPool pool) {
+    this.profs = new ArrayList<>(profs);
+    ArrayList<HashSet<Integer>> repeats = new ArrayList<>(this.profs.size());
+    for (int i = 0; i < this.profs.size(); i += 1) {
+      repeats.add(null);
+    }
+    if (pool == null || this.profs.size() <= 1) {
+      for (int i = 0; i < this.profs.size(); i += 1) {
+        repeats.set(i, this.profs.get(i).repeatStudents());
+      }
+    } else {
+      pool.invoke(new RepeatStudentsTask(this.profs, repeats, 0, this.profs.size()));
+    }
+    
+    this.repeatsByProf = new HashMap<>();
+    this.profsByStudent = new HashMap<>();
+    for (int i = 0; i < this.profs.size(); i += 1) {
+      Instructor prof = this.profs.get(i);
+      this.repeatsByProf.put(prof, repeats.get(i));
+      for (Integer id : repeats.get(i)) {
+        ArrayList<Instructor> found = this.profsByStudent.get(id);
+        if (found == null) {
+          found = new ArrayList<>(1);
+          this.profsByStudent.put(id, found);
+        }
+        found.add(prof);
+      }
+    }
+  }
+  
+  /* TEMPLATE for DejavuReport
+  Fields:
+  ... profs ...                                   -- ArrayList<Instructor>
+  ... repeatsByProf ...                           -- HashMap<Instructor, HashSet<Integer>>
+  ... profsByStudent ...                          -- HashMap<Integer, ArrayList<Instructor>>
+  Methods:
+  ... this.dejavu(Instructor, Student) ...        -- boolean
+  ... this.repeatStudents(Instructor) ...         -- Set<Integer>
+  ... this.instructorsOf(Student) ...             -- List<Instructor>
+  ... this.pairs() ...                            -- int
+  Methods on fields:
+  ... this.repeatsByProf.get(Instructor) ...      -- HashSet<Integer>
+  ... this.profsByStudent.get(Integer) ...        -- ArrayList<Instructor>
+   */
+  
+  // Determines whether the given student was in more than one of the given instructor's courses
+  // when this report was computed. Always false for an instructor not in this report.
+  boolean dejavu(Instructor prof, Student s) {
+    /* TEMPLATE
+    Parameters:
+    ... prof ...  -- Instructor
+    ... s ...     -- Student
+    Fields on parameters:
+    ... s.id ...  -- int
+    */
+    return this.repeatStudents(prof).contains(s.id);
+  }
+  
+  // Produces the IDs of the students in more than one of the given instructor's courses, which is
+  // empty for an instructor not in this report. The set is a read-only view, so that the report
+  // cannot be changed through it.
+  Set<Integer> repeatStudents(Instructor prof) {
+    /* TEMPLATE
+    Parameters:
+    ... prof ...  -- Instructor
+    */
+    HashSet<Integer> ids = this.repeatsByProf.get(prof);
+    if (ids == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(ids);
+  }
+  
+  // Produces the instructors that have the given student in more than one of their courses, in
+  // the order they were given to this report. The list is a read-only view, so that the report
+  // cannot be changed through it.
+  List<Instructor> instructorsOf(Student s) {
+    /* TEMPLATE
+    Parameters:
+    ... s ...     -- Student
+    Fields on parameters:
+    ... s.id ...  -- int
+    */
+    ArrayList<Instructor> found = this.profsByStudent.get(s.id);
+    if (found == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(found);
+  }
+  
+  // Counts the pairs of an instructor and a student for which dejavu is true
+  int pairs() {
+    /* TEMPLATE: Same as class template */
+    int pairs = 0;
+    for (HashSet<Integer> ids : this.repeatsByProf.values()) {
+      pairs += ids.size();
+    }
+    return pairs;
+  }
+}
+
+// Finds the students in more than one course of each of a range of instructors, splitting the
+// range in half until each task has a single instructor.
+class RepeatStudentsTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  ArrayList<Instructor> profs;
+  ArrayList<HashSet<Integer>> repeats;
+  int lo;
+  int hi;
+  
+  /* TEMPLATE for RepeatStudentsTask
+  Fields:
+  ... profs ...           -- ArrayList<Instructor>
+  ... repeats ...         -- ArrayList<HashSet<Integer>>
+  ... lo ...              -- int
+  ... hi ...              -- int
+  Methods:
+  ... this.compute() ...  -- void
+   */
+  
+  RepeatStudentsTask(ArrayList<Instructor> profs, ArrayList<HashSet<Integer>> repeats,
+      int lo, int hi) {
+    this.profs = profs;
+    this.repeats = repeats;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Finds the repeat students of the instructors from lo to hi, each into the same index of
+  // repeats
+  // EFFECT: sets repeats[lo] through repeats[hi - 1]
+  @Override
+  protected void compute() {
+    /* TEMPLATE: Same as class template */
+    if (this.hi - this.lo == 1) {
+      this.repeats.set(this.lo, this.profs.get(this.lo).repeatStudents());
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new RepeatStudentsTask(this.profs, this.repeats, this.lo, mid),
+          new RepeatStudentsTask(this.profs, this.repeats, mid, this.hi));
+    }
+  }
+}
+
 // PREDICATES -------------------------------------------------------------------------------------
 
 // A predicate that determines whether the provided student is enrolled in a course.
@@ -604,4 +1045,259 @@ class ExamplesRegistrar {
     t.checkExpect(l1.countTrue(new SameInstancePred<>(s2)), 0);
     t.checkExpect(l2.countTrue(new SameInstancePred<>(s2)), 1);
   }
+  
+  void testIsEnrolledIn(Tester t) {
+    initExamples();
+    t.checkExpect(s1.isEnrolledIn(c1), true);
+    t.checkExpect(s1.isEnrolledIn(c2), false);
+    t.checkExpect(s2.isEnrolledIn(c4), true);
+    // courses put in the list directly are still found
+    Student s6 = new Student("George", 23421);
+    s6.courses = new ConsList<>(c2, new MtList<>());
+    t.checkExpect(s6.isEnrolledIn(c2), true);
+    t.checkExpect(s6.isEnrolledIn(c1), false);
+  }
+  
+  void testRecordStudent(Tester t) {
+    initExamples();
+    t.checkExpect(i2.coursesPerStudent.get(19322), 2);
+    t.checkExpect(i1.coursesPerStudent.get(92131), 1);
+    t.checkExpect(i1.coursesPerStudent.get(12345), null);
+    i1.recordStudent(12345);
+    i1.recordStudent(92131);
+    t.checkExpect(i1.coursesPerStudent.get(12345), 1);
+    t.checkExpect(i1.coursesPerStudent.get(92131), 2);
+    t.checkExpect(i1.dejavu(s2), true);
+  }
+  
+  void testEnrollmentIndex(Tester t) {
+    initExamples();
+    t.checkExpect(c1.studentIds, new HashSet<>(List.of(19322, 29931, 93042, 12384)));
+    t.checkExpect(c5.studentIds, new HashSet<Integer>());
+    
+    // a second student with the same ID makes no difference to the courses an instructor counts
+    Student harry = new Student("Harry", 19322);
+    harry.enroll(c1);
+    t.checkExpect(i1.dejavu(s1), false);
+    t.checkExpect(i1.coursesPerStudent.get(19322), 1);
+    harry.enroll(c2);
+    t.checkExpect(i1.dejavu(s1), true);
+    
+    // a course that already has students brings them to its new instructor
+    Instructor i3 = new Instructor("Amal Ahmed");
+    c3.prof = i3;
+    i3.addCourse(c3);
+    c4.prof = i3;
+    i3.addCourse(c4);
+    t.checkExpect(i3.dejavu(s1), true);
+    t.checkExpect(i3.dejavu(s2), false);
+  }
+  
+  void testIndexMatchesLists(Tester t) {
+    initExamples();
+    Student[] students = new Student[] {s1, s2, s3, s4, s5, new Student("Harry", 19322)};
+    Course[] courses = new Course[] {c1, c2, c3, c4, c5};
+    Instructor[] profs = new Instructor[] {i1, i2};
+    boolean allMatch = true;
+    for (Student s : students) {
+      for (Course c : courses) {
+        allMatch = allMatch
+            && c.hasStudent(s) == c.students.ormap(new SameStudentPred(s))
+            && s.isEnrolledIn(c) == s.courses.ormap(new SameInstancePred<>(c));
+      }
+      for (Instructor i : profs) {
+        allMatch = allMatch
+            && i.dejavu(s) == (i.courses.countTrue(new HasStudentPred(s)) >= 2);
+      }
+    }
+    t.checkExpect(allMatch, true);
+    
+    // a course moved to another instructor is still one of its first instructor's courses
+    Course c6 = new Course("Programming in PowerPoint", i2);
+    c6.prof = i1;
+    i1.addCourse(c6);
+    Student hermione = new Student("Hermione", 55555);
+    hermione.enroll(c6);
+    hermione.enroll(c5);
+    for (Instructor i : profs) {
+      allMatch = allMatch
+          && i.dejavu(hermione) == (i.courses.countTrue(new HasStudentPred(hermione)) >= 2);
+    }
+    t.checkExpect(allMatch, true);
+    t.checkExpect(i2.dejavu(hermione), true);
+    t.checkExpect(i1.dejavu(hermione), false);
+  }
+  
+  void testImporterConstructorEx(Tester t) {
+    initExamples();
+    t.checkConstructorException(
+        new IllegalArgumentException("Two courses in the catalog are named Compilers"),
+        "EnrollmentImporter",
+        List.of(c4, c1, new Course("Compilers", i1)),
+        List.of(s1));
+    t.checkConstructorException(
+        new IllegalArgumentException("Two students in the roster have the ID 19322"),
+        "EnrollmentImporter",
+        List.of(c1),
+        List.of(s1, s2, new Student("Larry", 19322)));
+  }
+  
+  void testImportAll(Tester t) {
+    initExamples();
+    EnrollmentImporter importer =
+        new EnrollmentImporter(List.of(c1, c2, c3, c4, c5), List.of(s1, s2, s3, s4, s5));
+    EnrollmentRecord unknownStudent = new EnrollmentRecord(11111, "Compilers");
+    EnrollmentRecord unknownCourse = new EnrollmentRecord(29931, "Databases");
+    EnrollmentRecord alreadyIn = new EnrollmentRecord(19322, "Fundamentals 1");
+    EnrollmentRecord listedTwice = new EnrollmentRecord(29931, "Compilers");
+    EnrollmentReport report = importer.importAll(List.of(
+        new EnrollmentRecord(29931, "Compilers"),
+        unknownStudent,
+        new EnrollmentRecord(12384, "Object-Oriented Design"),
+        unknownCourse,
+        alreadyIn,
+        listedTwice,
+        new EnrollmentRecord(29931, "Object-Oriented Design")));
+    
+    t.checkExpect(report.enrolled, 3);
+    t.checkExpect(report.hasConflicts(), true);
+    t.checkExpect(report.conflicts, new ArrayList<>(List.of(
+        new EnrollmentConflict(1, unknownStudent, "Unknown student ID 11111"),
+        new EnrollmentConflict(3, unknownCourse, "Unknown course Databases"),
+        new EnrollmentConflict(4, alreadyIn, "Student 19322 is already enrolled in Fundamentals 1"),
+        new EnrollmentConflict(5, listedTwice,
+            "Student 29931 is listed more than once for Compilers"))));
+    
+    // the valid records were enrolled in order, just as if through enroll
+    t.checkExpect(c5.students, new ConsList<>(s3, new ConsList<>(s5, new MtList<>())));
+    t.checkExpect(s3.courses,
+        new ConsList<>(c5, new ConsList<>(c4, new ConsList<>(c1, new MtList<>()))));
+    t.checkExpect(c4.hasStudent(s3), true);
+    t.checkExpect(i2.dejavu(s3), true);
+    t.checkExpect(i2.dejavu(s5), true);
+    
+    // importing the same records again only finds conflicts
+    EnrollmentReport again = importer.importAll(List.of(new EnrollmentRecord(29931, "Compilers")));
+    t.checkExpect(again.enrolled, 0);
+    t.checkExpect(again.conflicts.size(), 1);
+  }
+  
+  void testImportAllLinkedList(Tester t) {
+    initExamples();
+    EnrollmentImporter importer =
+        new EnrollmentImporter(List.of(c1, c2, c3, c4, c5), List.of(s1, s2, s3, s4, s5));
+    // a long batch of records in a list without fast indexing, most of them repeats
+    LinkedList<EnrollmentRecord> records = new LinkedList<>();
+    for (int i = 0; i < 20000; i += 1) {
+      records.add(new EnrollmentRecord(29931, "Object-Oriented Design"));
+    }
+    EnrollmentRecord unknownStudent = new EnrollmentRecord(11111, "Compilers");
+    records.add(unknownStudent);
+    EnrollmentReport report = importer.importAll(records);
+    t.checkExpect(report.enrolled, 1);
+    t.checkExpect(report.conflicts.size(), 20000);
+    t.checkExpect(report.conflicts.get(0).index, 1);
+    t.checkExpect(report.conflicts.get(19999),
+        new EnrollmentConflict(20000, unknownStudent, "Unknown student ID 11111"));
+    t.checkExpect(c5.hasStudent(s3), true);
+  }
+  
+  void testImportAllEmpty(Tester t) {
+    initExamples();
+    EnrollmentImporter importer = new EnrollmentImporter(List.of(), List.of());
+    EnrollmentReport report = importer.importAll(List.of());
+    t.checkExpect(report.enrolled, 0);
+    t.checkExpect(report.hasConflicts(), false);
+    t.checkExpect(importer.capacityFor(0), 1);
+    t.checkExpect(importer.capacityFor(3), 5);
+    t.checkExpect(importer.capacityFor(12), 17);
+  }
+  
+  void testRepeatStudents(Tester t) {
+    initExamples();
+    t.checkExpect(i1.repeatStudents(), new HashSet<Integer>());
+    t.checkExpect(i2.repeatStudents(), new HashSet<>(List.of(19322)));
+    s4.enroll(c4);
+    s5.enroll(c5);
+    t.checkExpect(i2.repeatStudents(), new HashSet<>(List.of(19322, 93042, 12384)));
+  }
+  
+  void testDejavuReport(Tester t) {
+    initExamples();
+    s2.enroll(c1);
+    DejavuReport report = new DejavuReport(List.of(i1, i2));
+    t.checkExpect(report.dejavu(i1, s2), true);
+    t.checkExpect(report.dejavu(i2, s1), true);
+    t.checkExpect(report.dejavu(i2, new Student("Harry", 19322)), true);
+    t.checkExpect(report.dejavu(i1, s1), false);
+    t.checkExpect(report.dejavu(new Instructor("Olin Shivers"), s1), false);
+    t.checkExpect(new HashSet<>(report.repeatStudents(i1)), new HashSet<>(List.of(92131)));
+    t.checkExpect(report.repeatStudents(new Instructor("Olin Shivers")).isEmpty(), true);
+    t.checkExpect(new ArrayList<>(report.instructorsOf(s1)), new ArrayList<>(List.of(i2)));
+    t.checkExpect(report.instructorsOf(s3).isEmpty(), true);
+    t.checkExpect(report.pairs(), 2);
+    
+    // the report cannot be changed through what it produces
+    boolean setChanged = true;
+    try {
+      report.repeatStudents(i1).add(12384);
+    } catch (UnsupportedOperationException e) {
+      setChanged = false;
+    }
+    boolean listChanged = true;
+    try {
+      report.instructorsOf(s1).clear();
+    } catch (UnsupportedOperationException e) {
+      listChanged = false;
+    }
+    t.checkExpect(setChanged, false);
+    t.checkExpect(listChanged, false);
+    t.checkExpect(report.dejavu(i1, s5), false);
+    t.checkExpect(report.instructorsOf(s1).size(), 1);
+    
+    // the report does not change as students enroll afterwards
+    s3.enroll(c2);
+    t.checkExpect(i1.dejavu(s3), true);
+    t.checkExpect(report.dejavu(i1, s3), false);
+  }
+  
+  void testDejavuReportParallel(Tester t) {
+    // many instructors, each with a few courses that share some students
+    ArrayList<Instructor> profs = new ArrayList<>();
+    ArrayList<Student> students = new ArrayList<>();
+    for (int id = 0; id < 200; id += 1) {
+      students.add(new Student("Student " + id, id));
+    }
+    for (int p = 0; p < 40; p += 1) {
+      Instructor prof = new Instructor("Instructor " + p);
+      profs.add(prof);
+      for (int c = 0; c < 3; c += 1) {
+        Course course = new Course("Course " + p + "-" + c, prof);
+        for (int id = (p * 7 + c * 11) % 200; id < 200; id += 13 + c) {
+          students.get(id).enroll(course);
+        }
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(4);
+    DejavuReport sequential = new DejavuReport(profs);
+    DejavuReport parallel = new DejavuReport(profs, pool);
+    pool.shutdown();
+    t.checkExpect(parallel.repeatsByProf, sequential.repeatsByProf);
+    t.checkExpect(parallel.profsByStudent, sequential.profsByStudent);
+    
+    // and both agree with asking every instructor about every student
+    boolean allMatch = true;
+    int pairs = 0;
+    for (Instructor prof : profs) {
+      for (Student s : students) {
+        allMatch = allMatch && parallel.dejavu(prof, s) == prof.dejavu(s);
+        if (prof.dejavu(s)) {
+          pairs += 1;
+        }
+      }
+    }
+    t.checkExpect(allMatch, true);
+    t.checkExpect(parallel.pairs(), pairs);
+    t.checkExpect(pairs > 0, true);
+  }
 }
\ No newline at end of file
@@ -2,8 +2,21 @@ import tester.*;                // The tester library
 import javalib.worldimages.*;   // images, like RectangleImage or OverlayImages
 import javalib.impworld.*;      // the abstract World class and the big-bang library for imperative worlds
 import java.awt.Color;          // general colors (as triples of red,green,blue values)
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 // and predefined colors (Red, Green, Yellow, Blue, Black, White)
 
 // Represents a cell with an integer state that can be rendered and produce a child cell
@@ -54,10 +67,11 @@ class InertCell extends ACell {
     super(0);
   }
   
-  // produces the child cell of this ICell with the given left and right neighbors
+  // produces the child cell of this ICell with the given left and right neighbors, which is this
+  // cell itself, since an inert cell never changes
   @Override
   public ICell childCell(ICell left, ICell right) {
-    return new InertCell();
+    return this;
   }
 }
 
@@ -103,34 +117,88 @@ abstract class ARuleCell extends ACell {
     int binaryStateMask = 1 << binaryState;
     return Math.min(this.rule & binaryStateMask, 1);
   }
+  
+  // Produces the cell with this cell's rule and state determined by this cell's child state. The
+  // child is one of the two shared cells for this cell's rule, so no cell is created.
+  public ICell childCell(ICell left, ICell right) {
+    return this.withState(this.childState(left, right));
+  }
+  
+  // Produces the shared cell of the same kind and rule as this one with the given state
+  abstract ARuleCell withState(int state);
 }
 
 // Represents a cell that produces its child according to rule 60
 class Rule60 extends ARuleCell {
+  // the Rule60 cells that children are, indexed by state
+  static final Rule60[] CELLS = new Rule60[] {new Rule60(0), new Rule60(1)};
+  
   Rule60(int state) {
     super(state, 60);
   }
   
-  // Produces a cell with rule 60 and state determined by this cell's child state.
-  public ICell childCell(ICell left, ICell right) {
-    return new Rule60(this.childState(left, right));
+  // Produces the shared Rule60 cell with the given state
+  ARuleCell withState(int state) {
+    return CELLS[state];
   }
 }
 
 // Represents a cell that produces its child according to rule 30
 class Rule30 extends ARuleCell {
+  // the Rule30 cells that children are, indexed by state
+  static final Rule30[] CELLS = new Rule30[] {new Rule30(0), new Rule30(1)};
+  
   Rule30(int state) {
     super(state, 30);
   }
   
-  // Produces a cell with rule 30 and state determined by this cell's child state.
-  public ICell childCell(ICell left, ICell right) {
-    return new Rule30(this.childState(left, right));
+  // Produces the shared Rule30 cell with the given state
+  ARuleCell withState(int state) {
+    return CELLS[state];
+  }
+}
+
+// Represents a cell that produces its child according to any rule from 0 to 255
+class RuleCell extends ARuleCell {
+  RuleCell(int state, int rule) {
+    super(state, rule);
+  }
+  
+  // Produces the shared RuleCell with this cell's rule and the given state
+  ARuleCell withState(int state) {
+    return CellTable.ruleCell(this.rule, state);
+  }
+}
+
+// The shared cells that every child cell and out-of-bounds neighbor is. A cell is only its state
+// and rule, and never changes, so there only need to be 512 RuleCells and one InertCell, and
+// stepping a CellArray creates no cells at all.
+class CellTable {
+  static final InertCell INERT = new InertCell();
+  // the RuleCell with each rule and state, at index rule * 2 + state
+  static final RuleCell[] RULE_CELLS = CellTable.makeRuleCells();
+  
+  // Produces a RuleCell for every rule and state, at index rule * 2 + state
+  static RuleCell[] makeRuleCells() {
+    RuleCell[] cells = new RuleCell[512];
+    for (int rule = 0; rule < 256; rule += 1) {
+      cells[rule * 2] = new RuleCell(0, rule);
+      cells[rule * 2 + 1] = new RuleCell(1, rule);
+    }
+    return cells;
+  }
+  
+  // Gets the shared RuleCell with the given rule and state
+  static RuleCell ruleCell(int rule, int state) {
+    return RULE_CELLS[rule * 2 + state];
   }
 }
 
 // Represents a row of cells, bounded by `InertCell`s on the left and right.
 class CellArray {
+  // the fewest cells a parallel step gives a single task, so that splitting pays for itself
+  static final int MIN_TASK_CELLS = 1 << 12;
+  
   ArrayList<ICell> cells;
   
   CellArray(ArrayList<ICell> cells) {
@@ -140,18 +208,40 @@ class CellArray {
   // Produces a new generation of cells from the current population. Cells at the start and end
   // of the list are treated as having InertCells as left and right neighbors, respectively.
   CellArray nextGen() {
-    ArrayList<ICell> nextGen = new ArrayList<>();
+    return this.nextGen(null);
+  }
+  
+  // Produces a new generation of cells from the current population, computed on the given pool,
+  // or on this thread if the pool is null. The result is the same either way. Each task computes
+  // a run of cells, and only sets its own cells of the new generation.
+  CellArray nextGen(ForkJoinPool pool) {
+    ArrayList<ICell> nextGen = new ArrayList<>(this.cells.size());
     for (int cellIndex = 0; cellIndex < this.cells.size(); cellIndex += 1) {
-      nextGen.add(this.get(cellIndex).childCell(this.get(cellIndex - 1), this.get(cellIndex + 1)));
+      nextGen.add(null);
+    }
+    if (pool == null || this.cells.size() < 2 * MIN_TASK_CELLS) {
+      this.nextCells(nextGen, 0, this.cells.size());
+    } else {
+      pool.invoke(new CellStepTask(this, nextGen, 0, this.cells.size()));
     }
     return new CellArray(nextGen);
   }
   
-  // Gets the ICell at the provided index of this CellArray, or a new InertCell if the provided
-  // index is invalid.
+  // Computes the cells from lo (inclusive) to hi (exclusive) of the next generation of this row
+  // into dst, which must already have a cell (or null) at each of those indices
+  // EFFECT: sets dst[lo] through dst[hi - 1]
+  void nextCells(ArrayList<ICell> dst, int lo, int hi) {
+    for (int cellIndex = lo; cellIndex < hi; cellIndex += 1) {
+      dst.set(cellIndex,
+          this.get(cellIndex).childCell(this.get(cellIndex - 1), this.get(cellIndex + 1)));
+    }
+  }
+  
+  // Gets the ICell at the provided index of this CellArray, or the shared InertCell if the
+  // provided index is invalid.
   ICell get(int index) {
     if (index < 0 || index >= this.cells.size()) {
-      return new InertCell();
+      return CellTable.INERT;
     } else {
       return this.cells.get(index);
     }
@@ -168,6 +258,757 @@ class CellArray {
   }
 }
 
+// Computes a run of cells of the next generation of a CellArray, splitting the run in half until
+// each task has no more than twice CellArray.MIN_TASK_CELLS cells.
+class CellStepTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  CellArray src;
+  ArrayList<ICell> dst;
+  int lo;
+  int hi;
+  
+  CellStepTask(CellArray src, ArrayList<ICell> dst, int lo, int hi) {
+    this.src = src;
+    this.dst = dst;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Computes the cells from lo to hi of the next generation of src into dst
+  // EFFECT: sets dst[lo] through dst[hi - 1]
+  @Override
+  protected void compute() {
+    if (this.hi - this.lo < 2 * CellArray.MIN_TASK_CELLS) {
+      this.src.nextCells(this.dst, this.lo, this.hi);
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new CellStepTask(this.src, this.dst, this.lo, mid),
+          new CellStepTask(this.src, this.dst, mid, this.hi));
+    }
+  }
+}
+
+// Represents a row of cells that all follow the same rule from 0 to 255, bounded by inert cells
+// on the left and right like a CellArray. Each cell is stored as one bit of an array of longs
+// (cell i is bit i % 64 of word i / 64), so a generation is computed 64 cells at a time with
+// shifts and masks, without creating a cell object for every cell. Wide rows can also be split
+// into runs of words that are computed in parallel.
+class PackedCells {
+  static final int WORD_BITS = 64;
+  // the fewest words a parallel step gives a single task, so that splitting pays for itself
+  static final int MIN_TASK_WORDS = 1 << 12;
+  
+  int rule;
+  int size;
+  // the states of the cells, where every bit past the last cell is always 0
+  long[] words;
+  
+  // Constructs a row of size cells following the given rule, all of them off
+  PackedCells(int rule, int size) {
+    if (rule < 0 || rule > 255) {
+      throw new IllegalArgumentException("rule must be between 0 and 255, given " + rule);
+    }
+    if (size < 0) {
+      throw new IllegalArgumentException("size must not be negative, given " + size);
+    }
+    this.rule = rule;
+    this.size = size;
+    this.words = new long[(size + WORD_BITS - 1) / WORD_BITS];
+  }
+  
+  // Constructs a row with the states of the given cells, following the given rule. The cells
+  // themselves are expected to follow the same rule; only their states are kept.
+  PackedCells(int rule, CellArray cells) {
+    this(rule, cells.cells.size());
+    for (int index = 0; index < this.size; index += 1) {
+      this.set(index, cells.cells.get(index).getState());
+    }
+  }
+  
+  // Gets the state of the cell at the provided index, or 0 (the state of an inert cell) if the
+  // index is outside of this row
+  int get(int index) {
+    if (index < 0 || index >= this.size) {
+      return 0;
+    }
+    return (int) (this.words[index / WORD_BITS] >>> (index % WORD_BITS)) & 1;
+  }
+  
+  // Sets the state of the cell at the provided index, which must be 0 or 1
+  // EFFECT: changes the bit of that cell to the state
+  void set(int index, int state) {
+    if (index < 0 || index >= this.size) {
+      throw new IllegalArgumentException(
+          "index must be between 0 and " + (this.size - 1) + ", given " + index);
+    }
+    if (state != 0 && state != 1) {
+      throw new IllegalArgumentException("state must be 0 or 1, given " + state);
+    }
+    long bit = 1L << (index % WORD_BITS);
+    if (state == 1) {
+      this.words[index / WORD_BITS] |= bit;
+    } else {
+      this.words[index / WORD_BITS] &= ~bit;
+    }
+  }
+  
+  // Counts the cells in this row that are on
+  int population() {
+    int count = 0;
+    for (long word : this.words) {
+      count += Long.bitCount(word);
+    }
+    return count;
+  }
+  
+  // Produces a new row with the next generation of cells of this row
+  PackedCells nextGen() {
+    return this.nextGen(null);
+  }
+  
+  // Produces a new row with the next generation of cells of this row, computed on the given pool,
+  // or on this thread if the pool is null. The result is the same either way.
+  PackedCells nextGen(ForkJoinPool pool) {
+    PackedCells next = new PackedCells(this.rule, this.size);
+    this.nextGenInto(next, pool);
+    return next;
+  }
+  
+  // Produces the generation of cells the given number of generations after this row, reusing two
+  // rows in turn rather than allocating a row per generation
+  PackedCells advance(int generations) {
+    return this.advance(generations, null);
+  }
+  
+  // Produces the generation of cells the given number of generations after this row, computing
+  // each generation on the given pool, or on this thread if the pool is null
+  PackedCells advance(int generations, ForkJoinPool pool) {
+    if (generations < 0) {
+      throw new IllegalArgumentException(
+          "generations must not be negative, given " + generations);
+    }
+    PackedCells cur = this.copy();
+    PackedCells next = new PackedCells(this.rule, this.size);
+    for (int gen = 0; gen < generations; gen += 1) {
+      cur.nextGenInto(next, pool);
+      PackedCells done = cur;
+      cur = next;
+      next = done;
+    }
+    return cur;
+  }
+  
+  // Produces a new row with the same rule and states as this one
+  PackedCells copy() {
+    PackedCells copy = new PackedCells(this.rule, this.size);
+    System.arraycopy(this.words, 0, copy.words, 0, this.words.length);
+    return copy;
+  }
+  
+  // Computes the next generation of this row into target, which must be a different row of the
+  // same size
+  // EFFECT: overwrites every cell of target with the child of the same cell in this row
+  void nextGenInto(PackedCells target) {
+    this.nextGenInto(target, null);
+  }
+  
+  // Computes the next generation of this row into target, which must be a different row of the
+  // same size, on the given pool, or on this thread if the pool is null. Each task computes a run
+  // of words from this row, reading one bit past either end of its run, and only writes its own
+  // words of target, so the tasks never need to wait for each other.
+  // EFFECT: overwrites every cell of target with the child of the same cell in this row
+  void nextGenInto(PackedCells target, ForkJoinPool pool) {
+    if (target == this || target.size != this.size) {
+      throw new IllegalArgumentException(
+          "The next generation needs a different row of the same size");
+    }
+    if (pool == null || this.words.length < 2 * MIN_TASK_WORDS) {
+      this.nextWords(target.words, 0, this.words.length);
+    } else {
+      pool.invoke(new PackedStepTask(this, target.words, 0, this.words.length));
+    }
+    // Bits past the last cell are inert, so they stay off whatever the rule
+    if (this.size % WORD_BITS != 0) {
+      target.words[target.words.length - 1] &= (1L << (this.size % WORD_BITS)) - 1;
+    }
+  }
+  
+  // Computes the words from lo (inclusive) to hi (exclusive) of the next generation of this row
+  // into dst, without clearing the bits past the last cell
+  // EFFECT: overwrites dst[lo] through dst[hi - 1]
+  void nextWords(long[] dst, int lo, int hi) {
+    // For each of the 8 neighborhoods, a mask of all ones if the rule turns the cell on for it.
+    // Neighborhood n is the left, middle, and right states as a three-bit integer, as in
+    // ARuleCell.childState.
+    long m0 = -(this.rule & 1);
+    long m1 = -((this.rule >>> 1) & 1);
+    long m2 = -((this.rule >>> 2) & 1);
+    long m3 = -((this.rule >>> 3) & 1);
+    long m4 = -((this.rule >>> 4) & 1);
+    long m5 = -((this.rule >>> 5) & 1);
+    long m6 = -((this.rule >>> 6) & 1);
+    long m7 = -((this.rule >>> 7) & 1);
+    
+    long[] src = this.words;
+    int last = src.length - 1;
+    for (int w = lo; w < hi; w += 1) {
+      long mid = src[w];
+      // The left neighbor of cell i is cell i - 1, one bit lower, carried in from the word before
+      long left = mid << 1;
+      if (w > 0) {
+        left |= src[w - 1] >>> (WORD_BITS - 1);
+      }
+      // The right neighbor of cell i is cell i + 1, one bit higher, carried in from the word after
+      long right = mid >>> 1;
+      if (w < last) {
+        right |= src[w + 1] << (WORD_BITS - 1);
+      }
+      // Choose among the outputs of the rule for the four combinations of middle and right,
+      // once for a left neighbor that is on and once for one that is off
+      long both = mid & right;
+      long midOnly = mid & ~right;
+      long rightOnly = ~mid & right;
+      long neither = ~(mid | right);
+      long ifLeft = (both & m7) | (midOnly & m6) | (rightOnly & m5) | (neither & m4);
+      long ifNoLeft = (both & m3) | (midOnly & m2) | (rightOnly & m1) | (neither & m0);
+      dst[w] = (left & ifLeft) | (~left & ifNoLeft);
+    }
+  }
+  
+  // Produces a CellArray with the same states as this row, using off for every cell that is off
+  // and on for every cell that is on
+  CellArray toCellArray(ICell off, ICell on) {
+    ArrayList<ICell> cells = new ArrayList<>(this.size);
+    for (int index = 0; index < this.size; index += 1) {
+      if (this.get(index) == 1) {
+        cells.add(on);
+      } else {
+        cells.add(off);
+      }
+    }
+    return new CellArray(cells);
+  }
+}
+
+// Computes a run of words of the next generation of a PackedCells, splitting the run in half
+// until each task has no more than twice PackedCells.MIN_TASK_WORDS words.
+class PackedStepTask extends RecursiveAction {
+  private static final long serialVersionUID = 1L;
+  
+  PackedCells src;
+  long[] dst;
+  int lo;
+  int hi;
+  
+  PackedStepTask(PackedCells src, long[] dst, int lo, int hi) {
+    this.src = src;
+    this.dst = dst;
+    this.lo = lo;
+    this.hi = hi;
+  }
+  
+  // Computes the words from lo to hi of the next generation of src into dst
+  // EFFECT: overwrites dst[lo] through dst[hi - 1]
+  @Override
+  protected void compute() {
+    if (this.hi - this.lo < 2 * PackedCells.MIN_TASK_WORDS) {
+      this.src.nextWords(this.dst, this.lo, this.hi);
+    } else {
+      int mid = (this.lo + this.hi) >>> 1;
+      invokeAll(
+          new PackedStepTask(this.src, this.dst, this.lo, mid),
+          new PackedStepTask(this.src, this.dst, mid, this.hi));
+    }
+  }
+}
+
+// Runs an automaton for a number of generations without a world or any images, writing every
+// generation to a channel as it is made. There are two formats:
+//   - packed bits: the int MAGIC, then the int rule, the int number of cells in a row, and the
+//     int number of rows, then each row in turn as (cells + 7) / 8 bytes, where cell i is bit
+//     i % 8 (counting from the lowest bit) of byte i / 8
+//   - PBM: a binary portable bitmap ("P4") with one pixel per cell, black for cells that are on
+// Both are written through one reusable buffer, so a run takes memory proportional to the width
+// of a row however many generations it has.
+class AutomataRunner {
+  static final int MAGIC = 0x43413144;
+  static final int BUFFER_BYTES = 1 << 16;
+  
+  // the first generation written
+  PackedCells start;
+  // the pool each generation is computed on, or null to compute them on the calling thread
+  ForkJoinPool pool;
+  
+  AutomataRunner(PackedCells start, ForkJoinPool pool) {
+    this.start = start;
+    this.pool = pool;
+  }
+  
+  // Runs the automaton from a single cell that is on, in the middle of a row of cells that are
+  // off, like a CAWorld. Takes the rule, the number of cells, the number of generations after
+  // the first, "bits" or "pbm", and the file to write to.
+  public static void main(String[] args) throws IOException {
+    if (args.length != 5 || !(args[3].equals("bits") || args[3].equals("pbm"))) {
+      System.err.println("usage: AutomataRunner <rule> <cells> <generations> bits|pbm <file>");
+      System.exit(2);
+    }
+    int cells = Integer.parseInt(args[1]);
+    PackedCells start = new PackedCells(Integer.parseInt(args[0]), cells);
+    start.set(cells / 2, 1);
+    new AutomataRunner(start, ForkJoinPool.commonPool())
+        .runToFile(Paths.get(args[4]), Integer.parseInt(args[2]), args[3].equals("pbm"));
+  }
+  
+  // Writes the first generation and the given number of generations after it to the file at the
+  // given path, replacing anything it held, as PBM if pbm is true or as packed bits otherwise. The
+  // number of generations is checked before the file is opened, so a bad one leaves it as it was.
+  // EFFECT: creates or overwrites the file
+  void runToFile(Path path, int generations, boolean pbm) throws IOException {
+    this.checkGenerations(generations);
+    try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (pbm) {
+        this.writePbm(out, generations);
+      } else {
+        this.writeBits(out, generations);
+      }
+    }
+  }
+  
+  // Writes the first generation and the given number of generations after it to out as packed
+  // bits, after a header describing them
+  // EFFECT: writes to out
+  void writeBits(WritableByteChannel out, int generations) throws IOException {
+    ByteBuffer buffer = this.buffer(generations);
+    buffer.putInt(MAGIC);
+    buffer.putInt(this.start.rule);
+    buffer.putInt(this.start.size);
+    buffer.putInt(generations + 1);
+    this.writeRows(out, buffer, generations, false);
+  }
+  
+  // Writes the first generation and the given number of generations after it to out as a PBM
+  // image, one row of pixels per generation
+  // EFFECT: writes to out
+  void writePbm(WritableByteChannel out, int generations) throws IOException {
+    ByteBuffer buffer = this.buffer(generations);
+    String header = "P4\n" + this.start.size + " " + (generations + 1) + "\n";
+    for (int i = 0; i < header.length(); i += 1) {
+      buffer.put((byte) header.charAt(i));
+    }
+    this.writeRows(out, buffer, generations, true);
+  }
+  
+  // Produces an empty buffer to write with, throwing an exception if the number of generations
+  // is not one checkGenerations allows
+  ByteBuffer buffer(int generations) {
+    this.checkGenerations(generations);
+    return ByteBuffer.allocateDirect(BUFFER_BYTES);
+  }
+  
+  // Throws an exception if the number of generations is negative, or so large that the number of
+  // rows, one more than it, does not fit in an int
+  void checkGenerations(int generations) {
+    if (generations < 0 || generations == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("generations must be between 0 and "
+          + (Integer.MAX_VALUE - 1) + ", given " + generations);
+    }
+  }
+  
+  // Writes the rows of the first generation and the given number of generations after it through
+  // buffer, which may already hold a header. PBM rows have the first cell of each byte in its
+  // highest bit rather than its lowest.
+  // EFFECT: writes to out, and uses buffer
+  void writeRows(WritableByteChannel out, ByteBuffer buffer, int generations, boolean pbm)
+      throws IOException {
+    PackedCells cur = this.start.copy();
+    PackedCells next = new PackedCells(cur.rule, cur.size);
+    for (int gen = 0; gen <= generations; gen += 1) {
+      if (gen > 0) {
+        cur.nextGenInto(next, this.pool);
+        PackedCells done = cur;
+        cur = next;
+        next = done;
+      }
+      this.putRow(out, buffer, cur.words, (cur.size + 7) / 8, pbm);
+    }
+    this.flush(out, buffer);
+  }
+  
+  // Puts the first rowBytes bytes of the given words into buffer, flushing it to out whenever it
+  // fills up. Whole words are put 8 bytes at a time: in little-endian order for packed bits, or,
+  // for PBM, with their bits reversed and in big-endian order, which reverses the bits of each
+  // byte in place.
+  // EFFECT: puts rowBytes bytes into buffer, and writes to out when it is full
+  void putRow(WritableByteChannel out, ByteBuffer buffer, long[] words, int rowBytes,
+      boolean pbm) throws IOException {
+    if (pbm) {
+      buffer.order(ByteOrder.BIG_ENDIAN);
+    } else {
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+    int wholeWords = rowBytes / 8;
+    for (int w = 0; w < wholeWords; w += 1) {
+      if (buffer.remaining() < 8) {
+        this.flush(out, buffer);
+      }
+      if (pbm) {
+        buffer.putLong(Long.reverse(words[w]));
+      } else {
+        buffer.putLong(words[w]);
+      }
+    }
+    // The last word of a row may only be partly used
+    for (int b = wholeWords * 8; b < rowBytes; b += 1) {
+      if (!buffer.hasRemaining()) {
+        this.flush(out, buffer);
+      }
+      int bits = (int) (words[b / 8] >>> (b % 8 * 8)) & 0xff;
+      if (pbm) {
+        buffer.put((byte) (Integer.reverse(bits) >>> 24));
+      } else {
+        buffer.put((byte) bits);
+      }
+    }
+  }
+  
+  // Writes everything in buffer to out, and empties it
+  // EFFECT: writes to out, and clears buffer
+  void flush(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+    buffer.clear();
+  }
+}
+
+// Evolves rows of cells that all follow one rule, bounded by inert cells, by memoizing how blocks
+// of cells evolve, in the style of Hashlife. A block of 2^k cells is a MemoNode made of two
+// blocks of 2^(k-1) cells, and every block is hash-consed, so equal blocks are the same node.
+// A node remembers the middle half of its block 2^j generations later, for each j up to k - 2,
+// which depends only on the block itself, so a pattern that repeats (such as the Sierpinski
+// triangle of rule 60) is evolved once, and distant generations are reached by doubling.
+//
+// The cells outside of the row are inert, and never change whatever the rule, so the row evolves
+// exactly as a CellArray or PackedCells with the same cells does.
+class MemoAutomaton {
+  static final int OFF = 0;
+  static final int ON = 1;
+  static final int INERT = 2;
+  // the largest number of generations that can be computed at once
+  static final long MAX_GENERATIONS = (1L << 60) - 1;
+  
+  int rule;
+  // the state of the child of a cell in state middle, with neighbors in states left and right, at
+  // index left * 9 + middle * 3 + right
+  int[] childStates;
+  // the leaves: a single off, on, and inert cell
+  MemoNode[] leaves;
+  // every node made of two others, by the ids of its left and right halves
+  HashMap<Long, MemoNode> nodes;
+  // the node of all inert cells at each level
+  ArrayList<MemoNode> inertNodes;
+  // the id the next node made is given
+  int nextId;
+  
+  MemoAutomaton(int rule) {
+    if (rule < 0 || rule > 255) {
+      throw new IllegalArgumentException("rule must be between 0 and 255, given " + rule);
+    }
+    this.rule = rule;
+    this.nodes = new HashMap<>();
+    this.nextId = 0;
+    this.leaves = new MemoNode[3];
+    for (int state = OFF; state <= INERT; state += 1) {
+      this.leaves[state] = new MemoNode(this.nextId, state);
+      this.nextId += 1;
+    }
+    this.inertNodes = new ArrayList<>();
+    this.inertNodes.add(this.leaves[INERT]);
+    
+    // Asking real cells for every child state keeps this consistent with ARuleCell.childState
+    ICell[] cells = new ICell[] {
+        CellTable.ruleCell(rule, 0), CellTable.ruleCell(rule, 1), CellTable.INERT};
+    this.childStates = new int[27];
+    for (int left = OFF; left <= INERT; left += 1) {
+      for (int right = OFF; right <= INERT; right += 1) {
+        this.childStates[left * 9 + OFF * 3 + right] =
+            CellTable.ruleCell(rule, 0).childState(cells[left], cells[right]);
+        this.childStates[left * 9 + ON * 3 + right] =
+            CellTable.ruleCell(rule, 1).childState(cells[left], cells[right]);
+        this.childStates[left * 9 + INERT * 3 + right] = INERT;
+      }
+    }
+  }
+  
+  // Produces the row the given number of generations after the given row, which must follow the
+  // rule of this automaton. Takes time roughly proportional to the number of different blocks
+  // the row goes through, rather than to the number of generations.
+  PackedCells advance(PackedCells row, long generations) {
+    if (row.rule != this.rule) {
+      throw new IllegalArgumentException(
+          "The row must follow rule " + this.rule + ", given rule " + row.rule);
+    }
+    if (generations < 0 || generations > MAX_GENERATIONS) {
+      throw new IllegalArgumentException(
+          "generations must be between 0 and " + MAX_GENERATIONS + ", given " + generations);
+    }
+    // The row must fit in the middle half of the root, and the root must be big enough to advance
+    // by the highest power of two in generations
+    int level = 2;
+    while ((1L << (level - 1)) < row.size) {
+      level += 1;
+    }
+    level = Math.max(level, 65 - Long.numberOfLeadingZeros(generations));
+    
+    // The root covers the cells from -2^(level - 2) to 3 * 2^(level - 2) (exclusive)
+    long quarter = 1L << (level - 2);
+    MemoNode root = this.fromRow(row, -quarter, level);
+    for (int j = 0; j < level - 1; j += 1) {
+      if (((generations >>> j) & 1) == 1) {
+        // The middle half of the root, where the row is, with inert cells all around it again
+        MemoNode middle = this.advance(root, j);
+        MemoNode inert = this.inert(level - 2);
+        root = this.join(this.join(inert, middle.left), this.join(middle.right, inert));
+      }
+    }
+    PackedCells result = new PackedCells(this.rule, row.size);
+    this.toRow(root, -quarter, result);
+    return result;
+  }
+  
+  // Produces the node for the 2^level cells of the row starting at the given index, any of which
+  // may be outside of the row and so inert
+  MemoNode fromRow(PackedCells row, long start, int level) {
+    if (start >= row.size || start + (1L << level) <= 0) {
+      return this.inert(level);
+    }
+    if (level == 0) {
+      return this.leaves[row.get((int) start)];
+    }
+    long half = 1L << (level - 1);
+    return this.join(this.fromRow(row, start, level - 1),
+        this.fromRow(row, start + half, level - 1));
+  }
+  
+  // Sets the cells of the given row that are on in the given node, which starts at the given index
+  // of the row
+  // EFFECT: sets those cells of the row to 1
+  void toRow(MemoNode node, long start, PackedCells row) {
+    if (start >= row.size || start + (1L << node.level) <= 0 || node == this.inert(node.level)) {
+      return;
+    }
+    if (node.level == 0) {
+      if (node.state == ON) {
+        row.set((int) start, 1);
+      }
+    } else {
+      long half = 1L << (node.level - 1);
+      this.toRow(node.left, start, row);
+      this.toRow(node.right, start + half, row);
+    }
+  }
+  
+  // Produces the node made of the given two nodes of the same level, creating it only if there is
+  // not already one
+  MemoNode join(MemoNode left, MemoNode right) {
+    long key = ((long) left.id << 32) | right.id;
+    MemoNode node = this.nodes.get(key);
+    if (node == null) {
+      node = new MemoNode(this.nextId, left, right);
+      this.nextId += 1;
+      this.nodes.put(key, node);
+    }
+    return node;
+  }
+  
+  // Produces the node of 2^level inert cells
+  MemoNode inert(int level) {
+    while (this.inertNodes.size() <= level) {
+      MemoNode below = this.inertNodes.get(this.inertNodes.size() - 1);
+      this.inertNodes.add(this.join(below, below));
+    }
+    return this.inertNodes.get(level);
+  }
+  
+  // Produces the middle half of the given node 2^j generations later, where j is at most two less
+  // than the level of the node. A cell can only be affected by cells at most one away from it in
+  // each generation, so this only depends on the node.
+  // EFFECT: remembers the result in the node, if it was not already there
+  MemoNode advance(MemoNode node, int j) {
+    if (node.results == null) {
+      node.results = new MemoNode[node.level - 1];
+    }
+    if (node.results[j] != null) {
+      return node.results[j];
+    }
+    
+    MemoNode result;
+    if (node.level == 2) {
+      int a = node.left.left.state;
+      int b = node.left.right.state;
+      int c = node.right.left.state;
+      int d = node.right.right.state;
+      result = this.join(this.leaves[this.childStates[a * 9 + b * 3 + c]],
+          this.leaves[this.childStates[b * 9 + c * 3 + d]]);
+    } else {
+      // Three overlapping halves of this node, in quarters: 0 to 2, 1 to 3, and 2 to 4
+      MemoNode first = node.left;
+      MemoNode mid = this.join(node.left.right, node.right.left);
+      MemoNode last = node.right;
+      if (j == node.level - 2) {
+        // Advance each half by 2^(j - 1) to get quarters 0.5 to 3.5, then advance pairs of those
+        // by 2^(j - 1) again to get quarters 1 to 3
+        MemoNode a = this.advance(first, j - 1);
+        MemoNode b = this.advance(mid, j - 1);
+        MemoNode c = this.advance(last, j - 1);
+        result = this.join(this.advance(this.join(a, b), j - 1),
+            this.advance(this.join(b, c), j - 1));
+      } else {
+        // Advance each half by 2^j to get quarters 0.5 to 3.5, then keep quarters 1 to 3
+        MemoNode a = this.advance(first, j);
+        MemoNode b = this.advance(mid, j);
+        MemoNode c = this.advance(last, j);
+        result = this.join(this.join(a.right, b.left), this.join(b.right, c.left));
+      }
+    }
+    node.results[j] = result;
+    return result;
+  }
+}
+
+// Represents a block of 2^level cells for a MemoAutomaton: a single cell if the level is 0, or
+// otherwise a left and a right block of half as many cells. Nodes are only made by their
+// MemoAutomaton, which never makes two with the same halves, so they are compared by identity.
+class MemoNode {
+  int id;
+  int level;
+  // the state of the cell, if this is a single cell
+  int state;
+  MemoNode left;
+  MemoNode right;
+  // the middle half of this block 2^j generations later, at index j, or null if not known yet
+  MemoNode[] results;
+  
+  // Constructs a single cell in the given state
+  MemoNode(int id, int state) {
+    this.id = id;
+    this.level = 0;
+    this.state = state;
+    this.left = null;
+    this.right = null;
+    this.results = null;
+  }
+  
+  // Constructs a block of the two given blocks of the same level
+  MemoNode(int id, MemoNode left, MemoNode right) {
+    this.id = id;
+    this.level = left.level + 1;
+    this.state = -1;
+    this.left = left;
+    this.right = right;
+    this.results = null;
+  }
+}
+
+// Represents the most recent generations of a simulation, up to a fixed capacity. The generations
+// are kept in a circular array, so once it is full, adding a generation replaces the oldest one
+// instead of growing.
+class CellHistory {
+  CellArray[] gens;
+  // the index in gens of the oldest generation
+  int start;
+  int size;
+  
+  CellHistory(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive, given " + capacity);
+    }
+    this.gens = new CellArray[capacity];
+    this.start = 0;
+    this.size = 0;
+  }
+  
+  // Gets the number of generations in this history
+  int size() {
+    return this.size;
+  }
+  
+  // Gets the generation at the provided index, where 0 is the oldest one kept
+  CellArray get(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException(
+          "index must be between 0 and " + (this.size - 1) + ", given " + index);
+    }
+    return this.gens[(this.start + index) % this.gens.length];
+  }
+  
+  // Adds the provided generation as the newest one in this history, dropping the oldest one if
+  // this history is full
+  // EFFECT: stores gen in the slot after the newest generation
+  void add(CellArray gen) {
+    if (this.size < this.gens.length) {
+      this.gens[(this.start + this.size) % this.gens.length] = gen;
+      this.size += 1;
+    } else {
+      this.gens[this.start] = gen;
+      this.start = (this.start + 1) % this.gens.length;
+    }
+  }
+}
+
+// Represents the images of the most recent rows of a simulation, one raster per row. Drawing a
+// row paints the pixels of only that row, into the raster of the oldest row once all of them are
+// in use, so each generation costs time proportional to the width of a row rather than to the
+// whole picture.
+class HistoryRaster {
+  int cellWidth;
+  int cellHeight;
+  ComputedPixelImage[] rows;
+  // the number of rows drawn so far, so the newest row is in rows[(drawn - 1) % rows.length]
+  int drawn;
+  
+  HistoryRaster(int numCells, int cellWidth, int cellHeight, int numRows) {
+    this.cellWidth = cellWidth;
+    this.cellHeight = cellHeight;
+    this.rows = new ComputedPixelImage[numRows];
+    for (int row = 0; row < numRows; row += 1) {
+      this.rows[row] = new ComputedPixelImage(numCells * cellWidth, cellHeight);
+    }
+    this.drawn = 0;
+  }
+  
+  // Paints the provided cells as the newest row, in the same colors as ACell.render: black for
+  // cells that are on, and white for cells that are off
+  // EFFECT: overwrites the raster of the oldest row if every raster is in use
+  void drawRow(CellArray cells) {
+    ComputedPixelImage row = this.rows[this.drawn % this.rows.length];
+    for (int index = 0; index < cells.cells.size(); index += 1) {
+      Color color;
+      if (cells.cells.get(index).getState() == 1) {
+        color = Color.BLACK;
+      } else {
+        color = Color.WHITE;
+      }
+      row.setPixels(index * this.cellWidth, 0, this.cellWidth, this.cellHeight, color);
+    }
+    this.drawn += 1;
+  }
+  
+  // Produces an image of the rows drawn so far and still kept, oldest on top
+  WorldImage image() {
+    int kept = Math.min(this.drawn, this.rows.length);
+    WorldImage image = new EmptyImage();
+    for (int age = kept; age > 0; age -= 1) {
+      image = new AboveImage(image, this.rows[(this.drawn - age) % this.rows.length]);
+    }
+    return image;
+  }
+}
+
 // Represents an imperative world with a cellular automata simulation
 class CAWorld extends World {
   
@@ -182,13 +1023,16 @@ class CAWorld extends World {
   
   // the current generation of cells
   CellArray curGen;
-  // the history of previous generations (earliest state at the start of the list)
-  ArrayList<CellArray> history;
+  // the most recent previous generations (earliest state at index 0)
+  CellHistory history;
+  // the images of the rows on screen, including the current generation
+  HistoryRaster raster;
   
   // Constructs a CAWorld with INITIAL_OFF_CELLS of off cells on the left,
   // then one on cell, then INITIAL_OFF_CELLS of off cells on the right
   CAWorld(ICell off, ICell on) {
-    this.history = new ArrayList<>();
+    this.history = new CellHistory(NUM_HISTORY);
+    this.raster = new HistoryRaster(TOTAL_CELLS, CELL_WIDTH, CELL_HEIGHT, NUM_HISTORY);
     
     // Build a list of INITIAL_OFF_CELLS * 2 off cells
     ArrayList<ICell> cells = new ArrayList<>();
@@ -199,13 +1043,15 @@ class CAWorld extends World {
     cells.add(INITIAL_OFF_CELLS, on);
     
     this.curGen = new CellArray(cells);
+    this.raster.drawRow(this.curGen);
   }
   
   // Modifies this CAWorld by adding the current generation to the history
-  // and setting the current generation to the next one
+  // and setting the current generation to the next one, which is drawn as the newest row
   public void onTick() {
     this.history.add(this.curGen);
     this.curGen = this.curGen.nextGen();
+    this.raster.drawRow(this.curGen);
   }
   
   // Draws the current world, scrolling up from the bottom of the image
@@ -214,12 +1060,8 @@ class CAWorld extends World {
     WorldImage bg = new RectangleImage(TOTAL_WIDTH, TOTAL_HEIGHT,
         OutlineMode.SOLID, new Color(240, 240, 240));
     
-    // build up the image containing the past and current cells
-    WorldImage cells = new EmptyImage();
-    for (CellArray array : this.history) {
-      cells = new AboveImage(cells, array.draw(CELL_WIDTH, CELL_HEIGHT));
-    }
-    cells = new AboveImage(cells, this.curGen.draw(CELL_WIDTH, CELL_HEIGHT));
+    // the rows of the past and current cells were already drawn as each generation was made
+    WorldImage cells = this.raster.image();
     
     // draw all the cells onto the background
     return new OverlayOffsetAlign(AlignModeX.CENTER, AlignModeY.BOTTOM,
@@ -357,7 +1199,7 @@ class ExamplesAutomata {
     // how should i test this one ok
     // You can do field access for tests
     CAWorld world = new CAWorld(inert, r30On);
-    t.checkExpect(world.history, new ArrayList<>());
+    t.checkExpect(world.history.size(), 0);
     t.checkExpect(world.curGen, new CellArray(new ArrayList<>(List.of(
         inert, inert, inert, inert, inert, inert, inert, inert, inert, inert,
         inert, inert, inert, inert, inert, inert, inert, inert, inert, inert,
@@ -386,4 +1228,498 @@ class ExamplesAutomata {
         r30Off, r30Off, r30Off, r30Off, r30Off, r30Off, r30Off, r30Off, r30Off, r30Off
     ))));
   }
+  
+  // Methods on RuleCell --------------------------------------------------------------------------
+  
+  void testRuleCellChildCell(Tester t) {
+    t.checkExpect(new RuleCell(0, 30).childCell(r30On, r30Off), new RuleCell(1, 30));
+    t.checkExpect(new RuleCell(1, 60).childCell(r60On, inert), new RuleCell(0, 60));
+    t.checkExpect(new RuleCell(0, 1).childCell(inert, inert), new RuleCell(1, 1));
+    t.checkConstructorException(
+        new IllegalArgumentException("rule must be between 0 and 255, given 256"),
+        "RuleCell", 0, 256);
+  }
+  
+  // Methods on PackedCells -----------------------------------------------------------------------
+  
+  // Produces a row of the given size following the given rule, with cells turned on by a
+  // simple pseudo-random pattern depending on seed
+  PackedCells scattered(int rule, int size, int seed) {
+    PackedCells row = new PackedCells(rule, size);
+    int x = seed;
+    for (int index = 0; index < size; index += 1) {
+      x = x * 1103515245 + 12345;
+      row.set(index, (x >>> 16) & 1);
+    }
+    return row;
+  }
+  
+  void testPackedCellsConstructor(Tester t) {
+    PackedCells row = new PackedCells(30, 130);
+    t.checkExpect(row.words.length, 3);
+    t.checkExpect(row.population(), 0);
+    t.checkExpect(new PackedCells(30, 0).words.length, 0);
+    t.checkExpect(new PackedCells(30, 64).words.length, 1);
+    t.checkExpect(new PackedCells(60, ca1).words, new long[] {0b1010});
+    t.checkConstructorException(
+        new IllegalArgumentException("rule must be between 0 and 255, given -1"),
+        "PackedCells", -1, 10);
+    t.checkConstructorException(
+        new IllegalArgumentException("size must not be negative, given -1"),
+        "PackedCells", 30, -1);
+  }
+  
+  void testPackedCellsGetSet(Tester t) {
+    PackedCells row = new PackedCells(30, 130);
+    row.set(0, 1);
+    row.set(64, 1);
+    row.set(129, 1);
+    t.checkExpect(row.get(0), 1);
+    t.checkExpect(row.get(1), 0);
+    t.checkExpect(row.get(64), 1);
+    t.checkExpect(row.get(129), 1);
+    t.checkExpect(row.words, new long[] {1L, 1L, 2L});
+    t.checkExpect(row.population(), 3);
+    row.set(64, 0);
+    t.checkExpect(row.get(64), 0);
+    // out of the row, every cell is inert
+    t.checkExpect(row.get(-1), 0);
+    t.checkExpect(row.get(130), 0);
+    t.checkException(
+        new IllegalArgumentException("index must be between 0 and 129, given 130"),
+        row, "set", 130, 1);
+    t.checkException(
+        new IllegalArgumentException("state must be 0 or 1, given 2"),
+        row, "set", 3, 2);
+  }
+  
+  void testPackedCellsNextGen(Tester t) {
+    // a single on cell in the middle of rule 30, as in CAWorld
+    PackedCells row = new PackedCells(30, 41);
+    row.set(20, 1);
+    PackedCells next = row.nextGen();
+    t.checkExpect(next.toCellArray(r30Off, r30On),
+        new CAWorld(r30Off, r30On).curGen.nextGen());
+    t.checkExpect(row.get(20), 1);
+    t.checkExpect(row.population(), 1);
+    
+    // rule 255 turns on every cell, but never the inert ones past the end
+    PackedCells full = new PackedCells(255, 70).nextGen();
+    t.checkExpect(full.population(), 70);
+    t.checkExpect(full.words, new long[] {-1L, 0b111111});
+    
+    t.checkException(
+        new IllegalArgumentException("The next generation needs a different row of the same size"),
+        row, "nextGenInto", row);
+    t.checkException(
+        new IllegalArgumentException("The next generation needs a different row of the same size"),
+        row, "nextGenInto", new PackedCells(30, 40));
+  }
+  
+  void testPackedCellsMatchCellArray(Tester t) {
+    // every rule, on a row spanning several words, for several generations
+    boolean allMatch = true;
+    for (int rule = 0; rule < 256; rule += 1) {
+      PackedCells packed = this.scattered(rule, 150, rule);
+      CellArray cells = packed.toCellArray(new RuleCell(0, rule), new RuleCell(1, rule));
+      for (int gen = 0; gen < 12; gen += 1) {
+        packed = packed.nextGen();
+        cells = cells.nextGen();
+        allMatch = allMatch && Arrays.equals(new PackedCells(rule, cells).words, packed.words);
+      }
+    }
+    t.checkExpect(allMatch, true);
+  }
+  
+  void testPackedCellsAdvance(Tester t) {
+    PackedCells row = this.scattered(110, 200, 7);
+    PackedCells stepped = row;
+    for (int gen = 0; gen < 25; gen += 1) {
+      stepped = stepped.nextGen();
+    }
+    t.checkExpect(row.advance(25), stepped);
+    t.checkExpect(row.advance(0), row);
+    t.checkExpect(row.advance(0) != row, true);
+    t.checkException(
+        new IllegalArgumentException("generations must not be negative, given -1"),
+        row, "advance", -1);
+  }
+  
+  void testPackedCellsToCellArray(Tester t) {
+    PackedCells row = new PackedCells(60, 3);
+    row.set(1, 1);
+    t.checkExpect(row.toCellArray(r60Off, r60On),
+        new CellArray(new ArrayList<>(List.of(r60Off, r60On, r60Off))));
+    t.checkExpect(row.copy(), row);
+    t.checkExpect(row.copy() != row, true);
+  }
+  
+  void testPackedCellsParallel(Tester t) {
+    // wide enough to be split into several tasks, with a partial last word
+    int size = 40 * PackedCells.MIN_TASK_WORDS * PackedCells.WORD_BITS + 37;
+    ForkJoinPool pool = new ForkJoinPool(4);
+    boolean allMatch = true;
+    for (int rule : new int[] {30, 60, 90, 110, 255}) {
+      PackedCells row = this.scattered(rule, size, rule);
+      allMatch = allMatch
+          && Arrays.equals(row.nextGen(pool).words, row.nextGen().words)
+          && Arrays.equals(row.advance(10, pool).words, row.advance(10).words);
+    }
+    pool.shutdown();
+    t.checkExpect(allMatch, true);
+    
+    // a pool makes no difference to a row too small to split
+    PackedCells small = this.scattered(30, 500, 3);
+    t.checkExpect(small.nextGen(ForkJoinPool.commonPool()), small.nextGen());
+  }
+  
+  void testPackedStepTask(Tester t) {
+    PackedCells row = this.scattered(30, 320, 5);
+    long[] expected = row.nextGen().words;
+    // each task computes only its own words, reading the words on either side
+    long[] words = new long[row.words.length];
+    new PackedStepTask(row, words, 1, 3).invoke();
+    t.checkExpect(words, new long[] {0, expected[1], expected[2], 0, 0});
+    row.nextWords(words, 0, 1);
+    row.nextWords(words, 3, 5);
+    t.checkExpect(words, expected);
+  }
+  
+  void testCellArrayParallel(Tester t) {
+    // wide enough to be split into several tasks, with cells of several rules
+    ArrayList<ICell> cells = new ArrayList<>();
+    for (int index = 0; index < 10 * CellArray.MIN_TASK_CELLS + 37; index += 1) {
+      int rule = new int[] {30, 60, 90, 110}[index % 4];
+      cells.add(CellTable.ruleCell(rule, (index * 7 + index / 3) % 5 % 2));
+    }
+    CellArray row = new CellArray(cells);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    CellArray parallel = row;
+    CellArray sequential = row;
+    for (int gen = 0; gen < 5; gen += 1) {
+      parallel = parallel.nextGen(pool);
+      sequential = sequential.nextGen();
+    }
+    pool.shutdown();
+    // the cells are shared, so the same cells are the same objects
+    boolean allMatch = parallel.cells.size() == sequential.cells.size();
+    for (int index = 0; index < sequential.cells.size(); index += 1) {
+      allMatch = allMatch && parallel.cells.get(index) == sequential.cells.get(index);
+    }
+    t.checkExpect(allMatch, true);
+    
+    // a pool makes no difference to a row too small to split
+    CellArray small = new CellArray(new ArrayList<>(List.of(r30Off, r30On, r60On, r30Off)));
+    t.checkExpect(small.nextGen(ForkJoinPool.commonPool()), small.nextGen());
+  }
+  
+  void testCellStepTask(Tester t) {
+    CellArray row = new CellArray(new ArrayList<>(List.of(r30Off, r30On, r30Off, r30Off)));
+    ArrayList<ICell> cells = new ArrayList<>(Arrays.asList(null, null, null, null));
+    // each task computes only its own cells, reading the cells on either side
+    new CellStepTask(row, cells, 1, 3).invoke();
+    t.checkExpect(cells, new ArrayList<>(Arrays.asList(null, r30On, r30On, null)));
+    row.nextCells(cells, 0, 1);
+    row.nextCells(cells, 3, 4);
+    t.checkExpect(new CellArray(cells), row.nextGen());
+  }
+  
+  // Methods on CellHistory and HistoryRaster ----------------------------------------------------
+  
+  void testCellHistory(Tester t) {
+    CellArray a = new CellArray(new ArrayList<>(List.of(r30On)));
+    CellArray b = new CellArray(new ArrayList<>(List.of(r30Off)));
+    CellArray c = new CellArray(new ArrayList<>(List.of(inert)));
+    CellHistory history = new CellHistory(2);
+    t.checkExpect(history.size(), 0);
+    history.add(a);
+    history.add(b);
+    t.checkExpect(history.size(), 2);
+    t.checkExpect(history.get(0), a);
+    t.checkExpect(history.get(1), b);
+    // once full, the oldest generation is dropped
+    history.add(c);
+    t.checkExpect(history.size(), 2);
+    t.checkExpect(history.get(0), b);
+    t.checkExpect(history.get(1), c);
+    t.checkExpect(history.gens.length, 2);
+    t.checkException(
+        new IndexOutOfBoundsException("index must be between 0 and 1, given 2"),
+        history, "get", 2);
+    t.checkConstructorException(
+        new IllegalArgumentException("capacity must be positive, given 0"),
+        "CellHistory", 0);
+  }
+  
+  void testHistoryRasterDrawRow(Tester t) {
+    HistoryRaster raster = new HistoryRaster(5, 2, 3, 2);
+    raster.drawRow(ca1);
+    t.checkExpect(raster.drawn, 1);
+    t.checkExpect(raster.rows[0].getPixel(0, 0), Color.WHITE);
+    t.checkExpect(raster.rows[0].getPixel(2, 2), Color.BLACK);
+    t.checkExpect(raster.rows[0].getPixel(3, 1), Color.BLACK);
+    t.checkExpect(raster.rows[0].getPixel(6, 0), Color.BLACK);
+    t.checkExpect(raster.rows[0].getPixel(9, 2), Color.WHITE);
+    
+    // the third row reuses the raster of the first
+    raster.drawRow(ca1.nextGen());
+    ComputedPixelImage first = raster.rows[0];
+    raster.drawRow(new PackedCells(30, 5).toCellArray(r30Off, r30On));
+    t.checkExpect(raster.rows[0] == first, true);
+    t.checkExpect(raster.rows[0].getPixel(2, 0), Color.WHITE);
+    t.checkExpect(raster.rows[0].getPixel(6, 0), Color.WHITE);
+  }
+  
+  void testHistoryRasterImage(Tester t) {
+    HistoryRaster raster = new HistoryRaster(5, 2, 3, 2);
+    t.checkExpect(raster.image(), new EmptyImage());
+    raster.drawRow(ca1);
+    t.checkExpect(raster.image(), new AboveImage(new EmptyImage(), raster.rows[0]));
+    raster.drawRow(ca1);
+    raster.drawRow(ca1);
+    // the newest row is at the bottom, in the raster the oldest row used to be in
+    t.checkExpect(raster.image(),
+        new AboveImage(new AboveImage(new EmptyImage(), raster.rows[1]), raster.rows[0]));
+  }
+  
+  void testCAWorldBoundedHistory(Tester t) {
+    CAWorld world = new CAWorld(r60Off, r60On);
+    CellArray expected = world.curGen;
+    for (int tick = 0; tick < CAWorld.NUM_HISTORY * 3; tick += 1) {
+      world.onTick();
+      expected = expected.nextGen();
+    }
+    t.checkExpect(world.curGen, expected);
+    t.checkExpect(world.history.size(), CAWorld.NUM_HISTORY);
+    t.checkExpect(world.history.get(CAWorld.NUM_HISTORY - 1).nextGen(), world.curGen);
+    t.checkExpect(world.raster.drawn, CAWorld.NUM_HISTORY * 3 + 1);
+    // the newest row on screen is the current generation
+    HistoryRaster fresh = new HistoryRaster(CAWorld.TOTAL_CELLS,
+        CAWorld.CELL_WIDTH, CAWorld.CELL_HEIGHT, 1);
+    fresh.drawRow(world.curGen);
+    t.checkExpect(world.raster.rows[CAWorld.NUM_HISTORY * 3 % CAWorld.NUM_HISTORY],
+        fresh.rows[0]);
+  }
+  
+  // Methods on MemoAutomaton ---------------------------------------------------------------------
+  
+  void testMemoAutomatonConstructor(Tester t) {
+    MemoAutomaton memo = new MemoAutomaton(30);
+    // a cell that is on with only an off cell on its right stays on in rule 30
+    t.checkExpect(memo.childStates[MemoAutomaton.INERT * 9 + MemoAutomaton.ON * 3], 1);
+    t.checkExpect(memo.childStates[MemoAutomaton.ON * 9 + MemoAutomaton.ON * 3 + 1], 0);
+    t.checkExpect(memo.childStates[MemoAutomaton.ON * 9 + MemoAutomaton.INERT * 3 + 1],
+        MemoAutomaton.INERT);
+    t.checkExpect(memo.inert(0), memo.leaves[MemoAutomaton.INERT]);
+    t.checkConstructorException(
+        new IllegalArgumentException("rule must be between 0 and 255, given 300"),
+        "MemoAutomaton", 300);
+  }
+  
+  void testMemoAutomatonJoin(Tester t) {
+    MemoAutomaton memo = new MemoAutomaton(60);
+    MemoNode on = memo.leaves[MemoAutomaton.ON];
+    MemoNode off = memo.leaves[MemoAutomaton.OFF];
+    MemoNode pair = memo.join(on, off);
+    t.checkExpect(pair.level, 1);
+    // equal blocks are the same node
+    t.checkExpect(memo.join(on, off) == pair, true);
+    t.checkExpect(memo.join(off, on) == pair, false);
+    t.checkExpect(memo.join(pair, pair) == memo.join(memo.join(on, off), pair), true);
+    t.checkExpect(memo.inert(3).level, 3);
+    t.checkExpect(memo.inert(3).left == memo.inert(2), true);
+  }
+  
+  void testMemoAutomatonAdvanceNode(Tester t) {
+    MemoAutomaton memo = new MemoAutomaton(60);
+    MemoNode on = memo.leaves[MemoAutomaton.ON];
+    MemoNode off = memo.leaves[MemoAutomaton.OFF];
+    // on, off, off, off: after one generation, the middle two are on, off
+    MemoNode block = memo.join(memo.join(on, off), memo.join(off, off));
+    t.checkExpect(memo.advance(block, 0), memo.join(on, off));
+    t.checkExpect(block.results[0], memo.join(on, off));
+  }
+  
+  void testMemoAutomatonMatchesPacked(Tester t) {
+    // rules that turn on cells with no neighbors on, and rows that are not a power of two wide
+    boolean allMatch = true;
+    for (int rule : new int[] {1, 30, 60, 90, 110, 129, 150, 255}) {
+      MemoAutomaton memo = new MemoAutomaton(rule);
+      for (int size : new int[] {1, 2, 5, 37, 64}) {
+        PackedCells row = this.scattered(rule, size, rule + size);
+        PackedCells stepped = row;
+        for (int gen = 0; gen <= 70; gen += 1) {
+          allMatch = allMatch && Arrays.equals(memo.advance(row, gen).words, stepped.words);
+          stepped = stepped.nextGen();
+        }
+      }
+    }
+    t.checkExpect(allMatch, true);
+  }
+  
+  void testMemoAutomatonFarFuture(Tester t) {
+    // Rule 60 turns on a cell if it or its left neighbor (but not both) was on, so from a single
+    // cell at the left edge, cell i of generation n is on exactly when the bits of i are a
+    // subset of the bits of n (by Lucas' theorem)
+    MemoAutomaton memo = new MemoAutomaton(60);
+    PackedCells seed = new PackedCells(60, 100);
+    seed.set(0, 1);
+    long[] gens = new long[] {1L << 30, (1L << 30) + 5, (1L << 30) - 1, (1L << 40) + 99};
+    boolean allMatch = true;
+    for (long gen : gens) {
+      PackedCells row = memo.advance(seed, gen);
+      for (int i = 0; i < 100; i += 1) {
+        allMatch = allMatch && row.get(i) == (((gen & i) == i) ? 1 : 0);
+      }
+    }
+    t.checkExpect(allMatch, true);
+    t.checkExpect(memo.advance(seed, (1L << 30) + 5).population(), 4);
+    t.checkExpect(memo.advance(seed, (1L << 30) - 1).population(), 100);
+  }
+  
+  void testMemoAutomatonAdvanceEx(Tester t) {
+    MemoAutomaton memo = new MemoAutomaton(60);
+    t.checkException(
+        new IllegalArgumentException("The row must follow rule 60, given rule 30"),
+        memo, "advance", new PackedCells(30, 4), 1L);
+    t.checkException(
+        new IllegalArgumentException(
+            "generations must be between 0 and 1152921504606846975, given -1"),
+        memo, "advance", new PackedCells(60, 4), -1L);
+    t.checkExpect(memo.advance(new PackedCells(60, 0), 5L).size, 0);
+  }
+  
+  // Methods on CellTable -------------------------------------------------------------------------
+  
+  void testCellTableRuleCell(Tester t) {
+    t.checkExpect(CellTable.ruleCell(30, 1), new RuleCell(1, 30));
+    t.checkExpect(CellTable.ruleCell(255, 0), new RuleCell(0, 255));
+    t.checkExpect(CellTable.ruleCell(30, 1) == CellTable.ruleCell(30, 1), true);
+    t.checkExpect(CellTable.RULE_CELLS.length, 512);
+  }
+  
+  void testSharedChildCells(Tester t) {
+    t.checkExpect(inert.childCell(r60On, r60On) == inert, true);
+    t.checkExpect(r60Off.childCell(r60On, inert) == Rule60.CELLS[1], true);
+    t.checkExpect(r30On.childCell(r30On, r30On) == Rule30.CELLS[0], true);
+    t.checkExpect(new RuleCell(0, 1).childCell(inert, inert) == CellTable.ruleCell(1, 1), true);
+    t.checkExpect(ca1.get(-1) == CellTable.INERT, true);
+    t.checkExpect(ca1.get(5) == CellTable.INERT, true);
+  }
+  
+  void testNextGenCreatesNoCells(Tester t) {
+    CellArray next = new CellArray(new ArrayList<ICell>(Arrays.asList(
+        r30Off, r30On, CellTable.ruleCell(110, 1), r60On))).nextGen();
+    t.checkExpect(next.cells.get(0) == Rule30.CELLS[1], true);
+    t.checkExpect(next.cells.get(1) == Rule30.CELLS[1], true);
+    t.checkExpect(next.cells.get(2) == CellTable.ruleCell(110, 0), true);
+    t.checkExpect(next.cells.get(3) == Rule60.CELLS[0], true);
+  }
+}
+
+class ExamplesAutomataRunner {
+  // Produces a row of the given size following the given rule with only the given cells on
+  PackedCells rowOf(int rule, int size, int... on) {
+    PackedCells row = new PackedCells(rule, size);
+    for (int index : on) {
+      row.set(index, 1);
+    }
+    return row;
+  }
+  
+  // Runs the given runner into a file and produces the bytes that were written
+  byte[] runBytes(AutomataRunner runner, int generations, boolean pbm) throws IOException {
+    Path path = Files.createTempFile("automata", ".out");
+    try {
+      runner.runToFile(path, generations, pbm);
+      return Files.readAllBytes(path);
+    } finally {
+      Files.delete(path);
+    }
+  }
+  
+  void testWriteBits(Tester t) throws IOException {
+    // rule 60 from one on cell: each on cell turns on the cell to its right as well
+    AutomataRunner runner = new AutomataRunner(this.rowOf(60, 10, 1), null);
+    t.checkExpect(this.runBytes(runner, 2, false), new byte[] {
+        0x43, 0x41, 0x31, 0x44, 0, 0, 0, 60, 0, 0, 0, 10, 0, 0, 0, 3,
+        0b10, 0,
+        0b110, 0,
+        0b1010, 0});
+  }
+  
+  void testWritePbm(Tester t) throws IOException {
+    AutomataRunner runner = new AutomataRunner(this.rowOf(60, 10, 1, 9), null);
+    byte[] header = "P4\n10 2\n".getBytes();
+    byte[] bytes = this.runBytes(runner, 1, true);
+    byte[] rows = new byte[bytes.length - header.length];
+    System.arraycopy(bytes, header.length, rows, 0, rows.length);
+    t.checkExpect(new String(bytes, 0, header.length), "P4\n10 2\n");
+    // the first cell of each byte is its highest bit, and cell 9, the last cell, stays on in both
+    // rows, with the rest of its byte left off
+    t.checkExpect(rows, new byte[] {0b01000000, 0b01000000, 0b01100000, 0b01000000});
+  }
+  
+  void testWriteRowsWholeWords(Tester t) throws IOException {
+    // rows of whole words, written through a buffer that fills up many times over
+    PackedCells start = this.rowOf(30, 128, 64, 127);
+    AutomataRunner runner = new AutomataRunner(start, null);
+    byte[] bits = this.runBytes(runner, 1000, false);
+    byte[] pbm = this.runBytes(runner, 1000, true);
+    t.checkExpect(bits.length, 16 + 1001 * 16);
+    t.checkExpect(pbm.length, "P4\n128 1001\n".length() + 1001 * 16);
+    
+    // the last row matches stepping the row directly, in both formats
+    PackedCells last = start.advance(1000);
+    boolean allMatch = true;
+    for (int index = 0; index < 128; index += 1) {
+      int bitsByte = bits[bits.length - 16 + index / 8];
+      int pbmByte = pbm[pbm.length - 16 + index / 8];
+      allMatch = allMatch
+          && ((bitsByte >>> (index % 8)) & 1) == last.get(index)
+          && ((pbmByte >>> (7 - index % 8)) & 1) == last.get(index);
+    }
+    t.checkExpect(allMatch, true);
+  }
+  
+  void testWriteBitsParallel(Tester t) throws IOException {
+    int size = 3 * PackedCells.MIN_TASK_WORDS * PackedCells.WORD_BITS + 5;
+    PackedCells start = this.rowOf(110, size, size / 2, size - 1);
+    ForkJoinPool pool = new ForkJoinPool(3);
+    byte[] parallel = this.runBytes(new AutomataRunner(start, pool), 20, false);
+    pool.shutdown();
+    t.checkExpect(parallel, this.runBytes(new AutomataRunner(start, null), 20, false));
+  }
+  
+  void testRunnerEx(Tester t) {
+    AutomataRunner runner = new AutomataRunner(this.rowOf(30, 8), null);
+    t.checkException(
+        new IllegalArgumentException("generations must be between 0 and 2147483646, given -1"),
+        runner, "buffer", -1);
+    // the number of rows, one more than the generations, must fit in the header
+    t.checkException(
+        new IllegalArgumentException(
+            "generations must be between 0 and 2147483646, given 2147483647"),
+        runner, "buffer", Integer.MAX_VALUE);
+    t.checkExpect(runner.buffer(Integer.MAX_VALUE - 1).capacity(), AutomataRunner.BUFFER_BYTES);
+  }
+  
+  void testRunToFileKeepsFileOnEx(Tester t) throws IOException {
+    AutomataRunner runner = new AutomataRunner(this.rowOf(30, 8), null);
+    Path path = Files.createTempFile("automata", ".out");
+    try {
+      Files.write(path, new byte[] {1, 2, 3});
+      String message = "";
+      try {
+        runner.runToFile(path, -1, false);
+      } catch (IllegalArgumentException e) {
+        message = e.getMessage();
+      }
+      t.checkExpect(message, "generations must be between 0 and 2147483646, given -1");
+      // the file was never opened, so it still holds what it did
+      t.checkExpect(Files.readAllBytes(path), new byte[] {1, 2, 3});
+    } finally {
+      Files.delete(path);
+    }
+  }
 }
\ No newline at end of file
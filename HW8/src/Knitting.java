@@ -1,6 +1,11 @@
 import tester.Tester;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Function;
@@ -21,11 +26,29 @@ class KnittedFabric {
 
   // Renders the fabric as a String, with each row separated by a newline character.
   String renderFabric() {
-    String fabric = "";
+    int length = 0;
     for (KnittedRow row : this.rows) {
-      fabric = fabric + row.renderRow() + "\n";
+      length += row.stitches.size() + 1;
+    }
+    StringBuilder fabric = new StringBuilder(length);
+    for (KnittedRow row : this.rows) {
+      row.renderInto(fabric);
+      fabric.append('\n');
+    }
+    return fabric.toString();
+  }
+
+  // Renders the fabric to out one row at a time, in the same form as renderFabric, so that a large
+  // fabric never has to be held as one String
+  // EFFECT: writes the rendered fabric to out
+  void renderTo(Writer out) throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (KnittedRow row : this.rows) {
+      line.setLength(0);
+      row.renderInto(line);
+      line.append('\n');
+      out.append(line);
     }
-    return fabric;
   }
 
   // Adds a row containing the stitches from rowIter to this fabric, and returns this fabric so
@@ -36,6 +59,20 @@ class KnittedFabric {
     return this;
   }
 
+  // Produces a hash of this fabric that is the same whichever way up it is: the smaller of the
+  // hash of its stitches as they are and the hash of its stitches flipped over. Fabrics that are
+  // the same by sameFabric always have the same fingerprint, so fingerprints can be compared
+  // before fabrics. The fingerprint is computed from the rows each time, so it is never stale.
+  long fingerprint() {
+    long forward = 0;
+    long flipped = 0;
+    for (KnittedRow row : this.rows) {
+      forward = row.hashInto(forward, false);
+      flipped = row.hashInto(flipped, true);
+    }
+    return Math.min(forward, flipped);
+  }
+
   // returns a new KnittedFabric flipped over
   KnittedFabric reversed() {
     ArrayList<KnittedRow> newRows = new ArrayList<>();
@@ -56,6 +93,17 @@ class KnittedFabric {
     return true;
   }
 
+  // Determines if all the rows in this KnittedFabric, flipped over, have the same contents as the
+  // rows of that KnittedFabric, without making the flipped fabric
+  boolean sameRowsReversed(KnittedFabric other) {
+    for (int i = 0; i < this.rows.size(); i++) {
+      if (!this.rows.get(i).sameRowReversed(other.rows.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   // Determines if this fabric looked the same as the other fabric (in both its original direction
   // _and_ flipped over)
   public boolean sameFabric(KnittedFabric other) {
@@ -63,7 +111,7 @@ class KnittedFabric {
       return false;
     }
     // because the fabric could be flipped over
-    return this.sameRows(other) || this.reversed().sameRows(other);
+    return this.sameRows(other) || this.sameRowsReversed(other);
   }
 }
 
@@ -87,11 +135,17 @@ class KnittedRow {
 
   // returns a string representation of this row of stitches
   String renderRow() {
-    String result = "";
-    for (IStitch stitch : stitches) {
-      result += stitch.renderStitch();
+    StringBuilder result = new StringBuilder(this.stitches.size());
+    this.renderInto(result);
+    return result.toString();
+  }
+
+  // Appends the string representation of this row of stitches to the end of out
+  // EFFECT: appends one character per stitch to out
+  void renderInto(StringBuilder out) {
+    for (IStitch stitch : this.stitches) {
+      out.append(stitch.renderStitch());
     }
-    return result;
   }
 
   // Reverses the order of this KnittedRow's stitches, and flips each individual stitch
@@ -104,8 +158,49 @@ class KnittedRow {
     return new KnittedRow(reversedStitches);
   }
 
+  // Mixes the stitches of this row into the hash h, in order or, if flipped, as they would be if
+  // the row were flipped over. The stitch bits are gathered 64 at a time and each long of them is
+  // mixed in, followed by the number of stitches, so rows of different lengths hash differently.
+  long hashInto(long h, boolean flipped) {
+    int size = this.stitches.size();
+    long chunk = 0;
+    for (int i = 0; i < size; i++) {
+      int bit;
+      if (flipped) {
+        bit = 1 - this.stitches.get(size - 1 - i).stitchBit();
+      } else {
+        bit = this.stitches.get(i).stitchBit();
+      }
+      chunk = chunk << 1 | bit;
+      if (i % 64 == 63) {
+        h = KnittedRow.mix(h, chunk);
+        chunk = 0;
+      }
+    }
+    return KnittedRow.mix(KnittedRow.mix(h, chunk), size);
+  }
+
+  // Mixes x into the hash h so that every bit of x affects every bit of the result
+  static long mix(long h, long x) {
+    long mixed = (h ^ x) * 0x9e3779b97f4a7c15L;
+    mixed = (mixed ^ (mixed >>> 31)) * 0xbf58476d1ce4e5b9L;
+    return mixed ^ (mixed >>> 29);
+  }
+
+  // Packs the stitches of this row one bit per stitch
+  PackedRow pack() {
+    RunLengthRow row = new RunLengthRow();
+    for (IStitch stitch : this.stitches) {
+      row.addRun(stitch.stitchBit(), 1);
+    }
+    return row.pack();
+  }
+
   // determines if the stitches of this row are exactly the same as the other row
   public boolean sameRow(KnittedRow other) {
+    if (this.stitches.size() != other.stitches.size()) {
+      return false;
+    }
     for (int i = 0; i < this.stitches.size(); i++) {
       if (!this.stitches.get(i).sameStitch(other.stitches.get(i))) {
         return false;
@@ -113,6 +208,22 @@ class KnittedRow {
     }
     return true;
   }
+
+  // determines if the stitches of this row, flipped over, are exactly the same as the other row.
+  // Flipping a stitch turns a knit into a purl and back, so the stitches match when their bits
+  // differ, and nothing has to be reversed to compare them.
+  public boolean sameRowReversed(KnittedRow other) {
+    if (this.stitches.size() != other.stitches.size()) {
+      return false;
+    }
+    int last = this.stitches.size() - 1;
+    for (int i = 0; i <= last; i++) {
+      if (this.stitches.get(last - i).stitchBit() == other.stitches.get(i).stitchBit()) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
 
 // Knits ------------------------------------------------------------------------------------------
@@ -133,6 +244,9 @@ interface IStitch {
 
   // Determines if this stitch and other are both Purls
   boolean samePurl(Purl other);
+
+  // Produces the bit this stitch is packed as: 1 for a knit and 0 for a purl
+  int stitchBit();
 }
 
 // Represents a single knit in a knitted fabric
@@ -166,6 +280,12 @@ class Knit implements IStitch {
   public boolean samePurl(Purl other) {
     return false;
   }
+
+  // Produces the bit this knit is packed as
+  @Override
+  public int stitchBit() {
+    return 1;
+  }
 }
 
 // Represents a single purl in a knitted fabric
@@ -199,6 +319,12 @@ class Purl implements IStitch {
   public boolean samePurl(Purl other) {
     return true;
   }
+
+  // Produces the bit this purl is packed as
+  @Override
+  public int stitchBit() {
+    return 0;
+  }
 }
 
 // Instructions -----------------------------------------------------------------------------------
@@ -206,6 +332,15 @@ class Purl implements IStitch {
 class KnitFabricInstructions {
   ArrayList<KnitRowInstructions> rowInstructions;
 
+  KnitFabricInstructions(ArrayList<KnitRowInstructions> rowInstructions) {
+    this.rowInstructions = rowInstructions;
+  }
+
+  // Convenience constructor to create instructions with no rows.
+  KnitFabricInstructions() {
+    this(new ArrayList<>());
+  }
+
   KnitFabricInstructions addRow(Iterator<IInstruction> instructions) {
     // TODO
   }
@@ -227,28 +362,91 @@ class KnitFabricInstructions {
     return thisFabric.sameFabric(otherFabric);
   }
 
+  // Compiles every row of these instructions, as written, into a fabric of packed rows without
+  // making any stitches
+  PackedFabric compile() {
+    ArrayList<PackedRow> rows = new ArrayList<>();
+    for (KnitRowInstructions row : this.rowInstructions) {
+      rows.add(row.compile().pack());
+    }
+    return new PackedFabric(rows);
+  }
 }
 
 class KnitRowInstructions {
   ArrayList<IInstruction> instructions;
+
+  KnitRowInstructions(ArrayList<IInstruction> instructions) {
+    this.instructions = instructions;
+  }
+
+  // Compiles these instructions into runs of stitches, merging neighboring instructions for the
+  // same stitch into one run
+  RunLengthRow compile() {
+    RunLengthRow row = new RunLengthRow();
+    for (IInstruction instruction : this.instructions) {
+      instruction.compileInto(row);
+    }
+    return row;
+  }
 }
 
 interface IInstruction extends Iterable<IStitch> {
-
+  // Adds the stitches of this instruction to the end of row, as runs rather than one at a time
+  // EFFECT: adds to the runs of row
+  void compileInto(RunLengthRow row);
 }
 
 abstract class AInstruction implements IInstruction {
   int numRepetitions;
 
   AInstruction(int numRepetitions) {
+    if (numRepetitions < 0) {
+      throw new IllegalArgumentException(
+          "numRepetitions must not be negative, given " + numRepetitions);
+    }
     this.numRepetitions = numRepetitions;
   }
+
+  // Produces the stitch this instruction repeats
+  abstract IStitch stitch();
+
+  // Produces an iterator over the stitches of this instruction
+  @Override
+  public Iterator<IStitch> iterator() {
+    return new RepeatIter<>(this.stitch(), this.numRepetitions);
+  }
+
+  // Adds the stitches of this instruction to the end of row as a single run
+  // EFFECT: adds to the runs of row
+  @Override
+  public void compileInto(RunLengthRow row) {
+    row.addRun(this.stitch().stitchBit(), this.numRepetitions);
+  }
 }
 
 class KnitInstruction extends AInstruction {
   KnitInstruction(int numRepetitions) {
     super(numRepetitions);
   }
+
+  // Produces the stitch this instruction repeats
+  @Override
+  IStitch stitch() {
+    return new Knit();
+  }
+}
+
+class PurlInstruction extends AInstruction {
+  PurlInstruction(int numRepetitions) {
+    super(numRepetitions);
+  }
+
+  // Produces the stitch this instruction repeats
+  @Override
+  IStitch stitch() {
+    return new Purl();
+  }
 }
 
 // instruction classes
@@ -265,6 +463,31 @@ class MtIter<T> implements Iterator<T> {
   }
 }
 
+// An iterator that produces the same item a given number of times
+class RepeatIter<T> implements Iterator<T> {
+  T item;
+  int remaining;
+
+  RepeatIter(T item, int remaining) {
+    this.item = item;
+    this.remaining = remaining;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return this.remaining > 0;
+  }
+
+  @Override
+  public T next() {
+    if (!this.hasNext()) {
+      throw new RuntimeException("Iterator does not have a next element");
+    }
+    this.remaining -= 1;
+    return this.item;
+  }
+}
+
 class ComposedIter<T> implements Iterator<T> {
   Iterator<Iterator<T>> nestedIter;
   Iterator<T> current;
@@ -294,6 +517,282 @@ class ComposedIter<T> implements Iterator<T> {
   }
 }
 
+// Compiled patterns ------------------------------------------------------------------------------
+
+// Represents a run of count stitches of the same kind, given by its stitch bit
+class StitchRun {
+  int bit;
+  int count;
+
+  StitchRun(int bit, int count) {
+    this.bit = bit;
+    this.count = count;
+  }
+}
+
+// Represents a row of stitches as runs of the same stitch. Neighboring runs always have different
+// stitches, so a row of long repeated instructions takes a handful of runs however many stitches
+// it has.
+class RunLengthRow {
+  ArrayList<StitchRun> runs;
+  int length;
+
+  RunLengthRow() {
+    this.runs = new ArrayList<>();
+    this.length = 0;
+  }
+
+  // Adds count stitches with the given bit to the end of this row, lengthening the last run if it
+  // has the same stitch
+  // EFFECT: adds to or lengthens the runs of this row
+  void addRun(int bit, int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count must not be negative, given " + count);
+    }
+    if (count == 0) {
+      return;
+    }
+    int last = this.runs.size() - 1;
+    if (last >= 0 && this.runs.get(last).bit == bit) {
+      this.runs.get(last).count += count;
+    } else {
+      this.runs.add(new StitchRun(bit, count));
+    }
+    this.length += count;
+  }
+
+  // Expands the runs of this row into a packed row
+  PackedRow pack() {
+    PackedRow packed = new PackedRow(this.length);
+    int start = 0;
+    for (StitchRun run : this.runs) {
+      // a new packed row is all purls already
+      if (run.bit == 1) {
+        packed.fill(start, run.count, 1);
+      }
+      start += run.count;
+    }
+    return packed;
+  }
+}
+
+// Represents a row of stitches packed one bit per stitch, 64 to a long: stitch i is bit i % 64 of
+// word i / 64, 1 for a knit and 0 for a purl. Bits past the last stitch are always 0, so two rows
+// of the same length have the same stitches exactly when they have the same words.
+class PackedRow {
+  static final int WORD_BITS = 64;
+
+  int length;
+  long[] words;
+
+  PackedRow(int length) {
+    if (length < 0) {
+      throw new IllegalArgumentException("length must not be negative, given " + length);
+    }
+    this.length = length;
+    this.words = new long[(length + WORD_BITS - 1) / WORD_BITS];
+  }
+
+  // Gets the bit of the stitch at the given index
+  int get(int index) {
+    if (index < 0 || index >= this.length) {
+      throw new IllegalArgumentException(
+          "index must be between 0 and " + (this.length - 1) + ", given " + index);
+    }
+    return (int) (this.words[index / WORD_BITS] >>> (index % WORD_BITS)) & 1;
+  }
+
+  // Sets the bits of count stitches starting at start to bit, a whole word at a time
+  // EFFECT: changes the bits of the given stitches of this row
+  void fill(int start, int count, int bit) {
+    if (start < 0 || count < 0 || start + count > this.length) {
+      throw new IllegalArgumentException("stitches must be between 0 and " + this.length
+          + ", given " + start + " to " + (start + count));
+    }
+    int index = start;
+    int end = start + count;
+    while (index < end) {
+      int offset = index % WORD_BITS;
+      int bits = Math.min(WORD_BITS - offset, end - index);
+      long mask = (bits == WORD_BITS ? -1L : (1L << bits) - 1) << offset;
+      if (bit == 1) {
+        this.words[index / WORD_BITS] |= mask;
+      } else {
+        this.words[index / WORD_BITS] &= ~mask;
+      }
+      index += bits;
+    }
+  }
+
+  // Produces a KnittedRow with the same stitches as this row
+  KnittedRow toKnittedRow() {
+    ArrayList<IStitch> stitches = new ArrayList<>(this.length);
+    for (int i = 0; i < this.length; i += 1) {
+      if (this.get(i) == 1) {
+        stitches.add(new Knit());
+      } else {
+        stitches.add(new Purl());
+      }
+    }
+    return new KnittedRow(stitches);
+  }
+
+  // Determines if this row has exactly the same stitches as the other row
+  boolean sameRow(PackedRow other) {
+    return this.length == other.length && Arrays.equals(this.words, other.words);
+  }
+
+  // Determines if the stitches of this row, flipped over, are exactly the same as the other row.
+  // Each word of the flipped row is made from at most two words of this row, so the rows are
+  // compared a word at a time without making the flipped row.
+  boolean sameRowReversed(PackedRow other) {
+    if (this.length != other.length) {
+      return false;
+    }
+    for (int w = 0; w < this.words.length; w += 1) {
+      if (this.reversedWord(w) != other.words[w]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Produces a new row with the stitches of this row flipped over
+  PackedRow reversed() {
+    PackedRow flipped = new PackedRow(this.length);
+    for (int w = 0; w < this.words.length; w += 1) {
+      flipped.words[w] = this.reversedWord(w);
+    }
+    return flipped;
+  }
+
+  // Produces word w of this row flipped over. Stitch i of the flipped row is stitch
+  // length - 1 - i of this row, turned from a knit into a purl or back. Reversing the order of
+  // the words and the bits in each word moves stitch i to bit words.length * 64 - 1 - i, which is
+  // too high by the bits past the last stitch, so the bits are shifted down by that much, then
+  // inverted, and the bits past the last stitch are cleared again.
+  long reversedWord(int w) {
+    int last = this.words.length - 1;
+    int pad = this.words.length * WORD_BITS - this.length;
+    long word = Long.reverse(this.words[last - w]) >>> pad;
+    if (pad > 0 && w < last) {
+      word |= Long.reverse(this.words[last - w - 1]) << (WORD_BITS - pad);
+    }
+    word = ~word;
+    if (w == last && pad > 0) {
+      word &= (1L << (WORD_BITS - pad)) - 1;
+    }
+    return word;
+  }
+}
+
+// Represents a fabric whose rows are packed one bit per stitch
+class PackedFabric {
+  ArrayList<PackedRow> rows;
+
+  PackedFabric(ArrayList<PackedRow> rows) {
+    this.rows = rows;
+  }
+
+  // Produces a KnittedFabric with the same stitches as this fabric
+  KnittedFabric toKnittedFabric() {
+    ArrayList<KnittedRow> knittedRows = new ArrayList<>(this.rows.size());
+    for (PackedRow row : this.rows) {
+      knittedRows.add(row.toKnittedRow());
+    }
+    return new KnittedFabric(knittedRows);
+  }
+
+  // Determines if this fabric has exactly the same rows as the other fabric
+  boolean sameRows(PackedFabric other) {
+    if (this.rows.size() != other.rows.size()) {
+      return false;
+    }
+    for (int i = 0; i < this.rows.size(); i += 1) {
+      if (!this.rows.get(i).sameRow(other.rows.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Determines if all the rows of this fabric, flipped over, have the same stitches as the rows of
+  // the other fabric
+  boolean sameRowsReversed(PackedFabric other) {
+    if (this.rows.size() != other.rows.size()) {
+      return false;
+    }
+    for (int i = 0; i < this.rows.size(); i += 1) {
+      if (!this.rows.get(i).sameRowReversed(other.rows.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Determines if this fabric looks the same as the other fabric, either as it is or flipped
+  // over, just as KnittedFabric.sameFabric does for the same stitches
+  boolean sameFabric(PackedFabric other) {
+    return this.sameRows(other) || this.sameRowsReversed(other);
+  }
+}
+
+// Fabric catalogs --------------------------------------------------------------------------------
+
+// Represents a catalog of distinct fabrics, where two fabrics are the same if sameFabric says so.
+// Fabrics are kept in buckets by fingerprint, so a new fabric is only compared against the fabrics
+// sharing its fingerprint rather than against every fabric in the catalog. The catalog remembers
+// the fingerprint of each fabric as the key of its bucket, so only the fabric being looked up is
+// fingerprinted, once per lookup. Fabrics must not be changed after they are added.
+class FabricCatalog {
+  ArrayList<KnittedFabric> distinct;
+  // the fabrics of this catalog, by the fingerprint each had when it was added
+  HashMap<Long, ArrayList<KnittedFabric>> byFingerprint;
+
+  FabricCatalog() {
+    this.distinct = new ArrayList<>();
+    this.byFingerprint = new HashMap<>();
+  }
+
+  // Determines if this catalog has a fabric that is the same as the given fabric
+  boolean contains(KnittedFabric fabric) {
+    return this.containsWith(fabric, fabric.fingerprint());
+  }
+
+  // Determines if this catalog has a fabric that is the same as the given fabric, which has the
+  // given fingerprint
+  boolean containsWith(KnittedFabric fabric, long fingerprint) {
+    ArrayList<KnittedFabric> bucket = this.byFingerprint.get(fingerprint);
+    if (bucket == null) {
+      return false;
+    }
+    for (KnittedFabric other : bucket) {
+      if (other.sameFabric(fabric)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Adds the given fabric to this catalog if no fabric in it is the same, and determines if it
+  // was added
+  // EFFECT: adds the fabric to this catalog if it is new
+  boolean add(KnittedFabric fabric) {
+    long fingerprint = fabric.fingerprint();
+    if (this.containsWith(fabric, fingerprint)) {
+      return false;
+    }
+    ArrayList<KnittedFabric> bucket = this.byFingerprint.get(fingerprint);
+    if (bucket == null) {
+      bucket = new ArrayList<>();
+      this.byFingerprint.put(fingerprint, bucket);
+    }
+    bucket.add(fabric);
+    this.distinct.add(fabric);
+    return true;
+  }
+}
+
 // Utils ------------------------------------------------------------------------------------------
 
 class ArrayUtils {
@@ -428,6 +927,54 @@ class ExamplesKnitting {
     );
   }
 
+  void testKnittedFabricRenderTo(Tester t) throws IOException {
+    StringWriter out = new StringWriter();
+    kf2.renderTo(out);
+    t.checkExpect(out.toString(), kf2.renderFabric());
+    StringWriter mtOut = new StringWriter();
+    kfMt.renderTo(mtOut);
+    t.checkExpect(mtOut.toString(), "");
+  }
+
+  void testKnittedFabricSameRowsReversed(Tester t) {
+    t.checkExpect(kfMt.sameRowsReversed(kfMt), true);
+    t.checkExpect(kf1.sameRowsReversed(kf1Rev), true);
+    t.checkExpect(kf2.sameRowsReversed(kf2Rev), true);
+    t.checkExpect(kf2Rev.sameRowsReversed(kf2), true);
+    t.checkExpect(kf2.sameRowsReversed(kf2), false);
+    t.checkExpect(kf2.sameRowsReversed(kf3), false);
+    // matches comparing against a flipped copy
+    t.checkExpect(kf3.sameRowsReversed(kf2Rev), kf3.reversed().sameRows(kf2Rev));
+  }
+
+  void testKnittedFabricFingerprint(Tester t) {
+    long fingerprint = kf2.fingerprint();
+    t.checkExpect(kf2.fingerprint(), fingerprint);
+    // the same whichever way up the fabric is
+    t.checkExpect(kf2Rev.fingerprint(), fingerprint);
+    t.checkExpect(kf1.fingerprint(), kf1Rev.fingerprint());
+    t.checkExpect(kf3.fingerprint() == fingerprint, false);
+    t.checkExpect(kf1.fingerprint() == fingerprint, false);
+    t.checkExpect(kfMt.fingerprint() == fingerprint, false);
+    // rows of only purls still count
+    KnittedFabric purls = new KnittedFabric().addRow(List.of(p, p).iterator());
+    t.checkExpect(purls.fingerprint() == new KnittedFabric().addRow(List.of(p).iterator())
+        .fingerprint(), false);
+  }
+
+  void testKnittedFabricFingerprintChanges(Tester t) {
+    KnittedFabric fabric = new KnittedFabric().addRow(kr1.stitches.iterator());
+    long before = fabric.fingerprint();
+    fabric.addRow(kr2.stitches.iterator());
+    t.checkExpect(fabric.fingerprint() == before, false);
+    t.checkExpect(fabric.fingerprint(), kf2.fingerprint());
+    // changing the rows directly changes the fingerprint too
+    fabric.rows.remove(1);
+    t.checkExpect(fabric.fingerprint(), before);
+    fabric.rows.get(0).stitches.add(p);
+    t.checkExpect(fabric.fingerprint() == before, false);
+  }
+
   // KnittedRow tests -----------------------------------------------------------------------------
 
   void testKnittedRowConstructor(Tester t) {
@@ -447,6 +994,37 @@ class ExamplesKnitting {
     t.checkExpect(kr2.reversed(), kr2Rev);
   }
 
+  void testKnittedRowRenderInto(Tester t) {
+    StringBuilder out = new StringBuilder("row: ");
+    kr1.renderInto(out);
+    krMt.renderInto(out);
+    kr2.renderInto(out);
+    t.checkExpect(out.toString(), "row: VVV----V-V--VV--");
+  }
+
+  void testKnittedRowSameRowReversed(Tester t) {
+    t.checkExpect(krMt.sameRowReversed(krMt), true);
+    t.checkExpect(kr1.sameRowReversed(kr1Rev), true);
+    t.checkExpect(kr1Rev.sameRowReversed(kr1), true);
+    t.checkExpect(kr2.sameRowReversed(kr2Rev), true);
+    t.checkExpect(kr1.sameRowReversed(kr1), false);
+    t.checkExpect(kr1.sameRowReversed(kr2Rev), false);
+  }
+
+  void testKnittedRowHashInto(Tester t) {
+    t.checkExpect(kr1.hashInto(7, true), kr1Rev.hashInto(7, false));
+    t.checkExpect(kr2Rev.hashInto(7, true), kr2.hashInto(7, false));
+    t.checkExpect(kr1.hashInto(7, false) == kr1.hashInto(8, false), false);
+    t.checkExpect(kr1.hashInto(7, false) == kr2.hashInto(7, false), false);
+    // rows longer than 64 stitches are hashed a long at a time
+    ArrayList<IStitch> longStitches = new ArrayList<>();
+    for (int i = 0; i < 150; i++) {
+      longStitches.add(i % 3 == 0 ? k : p);
+    }
+    KnittedRow longRow = new KnittedRow(longStitches);
+    t.checkExpect(longRow.hashInto(0, true), longRow.reversed().hashInto(0, false));
+  }
+
   void testKnittedRowSameRow(Tester t) {
     t.checkExpect(krMt.sameRow(krMt), true);
     t.checkExpect(kr1.sameRow(kr1), true);
@@ -456,6 +1034,9 @@ class ExamplesKnitting {
     t.checkExpect(kr1.sameRow(kr2), false);
     // sameRow does not consider a row the same as its flipped version
     t.checkExpect(kr1.sameRow(kr1Rev), false);
+    // or a row the same as a longer one it starts
+    t.checkExpect(krMt.sameRow(kr1), false);
+    t.checkExpect(krMt.sameRowReversed(kr1), false);
   }
 
   // IStitch tests --------------------------------------------------------------------------------
@@ -479,6 +1060,209 @@ class ExamplesKnitting {
     t.checkExpect(p.sameStitch(k), false);
   }
 
+  void testStitchBit(Tester t) {
+    t.checkExpect(k.stitchBit(), 1);
+    t.checkExpect(p.stitchBit(), 0);
+  }
+
+  // Instruction tests ----------------------------------------------------------------------------
+
+  void testInstructionIterator(Tester t) {
+    t.checkExpect(new KnittedRow(new KnitInstruction(3).iterator()),
+        new KnittedRow(new ArrayList<>(List.of(k, k, k))));
+    t.checkExpect(new KnittedRow(new PurlInstruction(2).iterator()),
+        new KnittedRow(new ArrayList<>(List.of(p, p))));
+    t.checkExpect(new PurlInstruction(0).iterator().hasNext(), false);
+    t.checkConstructorException(
+        new IllegalArgumentException("numRepetitions must not be negative, given -1"),
+        "KnitInstruction", -1);
+  }
+
+  void testCompileInto(Tester t) {
+    RunLengthRow row = new RunLengthRow();
+    new KnitInstruction(3).compileInto(row);
+    t.checkExpect(row.runs, new ArrayList<>(List.of(new StitchRun(1, 3))));
+    // a second instruction for the same stitch lengthens the last run
+    new KnitInstruction(2).compileInto(row);
+    new PurlInstruction(4).compileInto(row);
+    t.checkExpect(row.runs, new ArrayList<>(List.of(new StitchRun(1, 5), new StitchRun(0, 4))));
+    t.checkExpect(row.length, 9);
+  }
+
+  void testKnitRowInstructionsCompile(Tester t) {
+    KnitRowInstructions rib = new KnitRowInstructions(new ArrayList<>(List.of(
+        new KnitInstruction(3), new PurlInstruction(4), new PurlInstruction(0),
+        new KnitInstruction(1))));
+    t.checkExpect(rib.compile().runs, new ArrayList<>(List.of(
+        new StitchRun(1, 3), new StitchRun(0, 4), new StitchRun(1, 1))));
+    t.checkExpect(rib.compile().pack().sameRow(kr1.pack()), true);
+  }
+
+  void testKnitFabricInstructionsCompile(Tester t) {
+    KnitFabricInstructions instructions = new KnitFabricInstructions(new ArrayList<>(List.of(
+        new KnitRowInstructions(new ArrayList<>(List.of(
+            new KnitInstruction(3), new PurlInstruction(4), new KnitInstruction(1)))),
+        new KnitRowInstructions(new ArrayList<>(List.of(
+            new PurlInstruction(1), new KnitInstruction(1), new PurlInstruction(2),
+            new KnitInstruction(2), new PurlInstruction(2)))))));
+    t.checkExpect(instructions.compile().toKnittedFabric(), kf2);
+    t.checkExpect(new KnitFabricInstructions().compile().rows.size(), 0);
+
+    // a long row is a few runs, and packs a word at a time
+    KnitFabricInstructions big = new KnitFabricInstructions(new ArrayList<>(List.of(
+        new KnitRowInstructions(new ArrayList<>(List.of(new KnitInstruction(1000000),
+            new PurlInstruction(1000003), new KnitInstruction(5)))))));
+    PackedRow row = big.compile().rows.get(0);
+    t.checkExpect(row.length, 2000008);
+    t.checkExpect(row.words.length, 31251);
+    t.checkExpect(row.get(999999), 1);
+    t.checkExpect(row.get(1000000), 0);
+    t.checkExpect(row.get(2000002), 0);
+    t.checkExpect(row.get(2000003), 1);
+    t.checkExpect(row.words[31250], 0b11111L << 3);
+  }
+
+  // Compiled pattern tests -----------------------------------------------------------------------
+
+  void testRunLengthRowAddRun(Tester t) {
+    RunLengthRow row = new RunLengthRow();
+    row.addRun(0, 0);
+    t.checkExpect(row.runs, new ArrayList<StitchRun>());
+    row.addRun(0, 2);
+    row.addRun(0, 1);
+    row.addRun(1, 1);
+    t.checkExpect(row.runs, new ArrayList<>(List.of(new StitchRun(0, 3), new StitchRun(1, 1))));
+    t.checkExpect(row.length, 4);
+    t.checkException(new IllegalArgumentException("count must not be negative, given -2"),
+        row, "addRun", 1, -2);
+  }
+
+  void testPackedRowFill(Tester t) {
+    PackedRow row = new PackedRow(200);
+    t.checkExpect(row.words, new long[4]);
+    row.fill(60, 80, 1);
+    t.checkExpect(row.words, new long[] {0xfL << 60, -1L, 0xfffL, 0});
+    row.fill(62, 70, 0);
+    t.checkExpect(row.words, new long[] {0b11L << 60, 0, 0xff0L, 0});
+    t.checkExpect(row.get(61), 1);
+    t.checkExpect(row.get(62), 0);
+    t.checkExpect(row.get(139), 1);
+    t.checkException(
+        new IllegalArgumentException("stitches must be between 0 and 200, given 190 to 201"),
+        row, "fill", 190, 11, 1);
+    t.checkException(new IllegalArgumentException("index must be between 0 and 199, given 200"),
+        row, "get", 200);
+    t.checkConstructorException(
+        new IllegalArgumentException("length must not be negative, given -1"),
+        "PackedRow", -1);
+  }
+
+  void testPackedRowToKnittedRow(Tester t) {
+    t.checkExpect(kr1.pack().toKnittedRow(), kr1);
+    t.checkExpect(kr2.pack().toKnittedRow(), kr2);
+    t.checkExpect(krMt.pack().toKnittedRow(), krMt);
+  }
+
+  void testPackedRowSameRow(Tester t) {
+    t.checkExpect(kr1.pack().sameRow(kr1.pack()), true);
+    t.checkExpect(kr1.pack().sameRow(kr2.pack()), false);
+    t.checkExpect(kr1.pack().sameRow(kr1Rev.pack()), false);
+    // a row of purls is not the same as a shorter row of purls
+    t.checkExpect(new PackedRow(5).sameRow(new PackedRow(4)), false);
+  }
+
+  void testPackedFabricSameRows(Tester t) {
+    PackedFabric pf2 = new PackedFabric(new ArrayList<>(List.of(kr1.pack(), kr2.pack())));
+    t.checkExpect(pf2.sameRows(pf2), true);
+    t.checkExpect(pf2.sameRows(new PackedFabric(new ArrayList<>(List.of(kr1.pack())))), false);
+    PackedFabric pf3 = new PackedFabric(new ArrayList<>(List.of(kr2.pack(), kr1.pack())));
+    t.checkExpect(pf2.sameRows(pf3), false);
+    t.checkExpect(pf2.toKnittedFabric(), kf2);
+  }
+
+  void testPackedRowReversed(Tester t) {
+    t.checkExpect(kr1.pack().reversed(), kr1Rev.pack());
+    t.checkExpect(kr1.pack().sameRowReversed(kr1Rev.pack()), true);
+    t.checkExpect(kr1.pack().sameRowReversed(kr1.pack()), false);
+    t.checkExpect(krMt.pack().sameRowReversed(krMt.pack()), true);
+    t.checkExpect(new PackedRow(5).sameRowReversed(new PackedRow(4)), false);
+    // a row of purls flipped over is a row of knits
+    PackedRow knits = new PackedRow(70);
+    knits.fill(0, 70, 1);
+    t.checkExpect(new PackedRow(70).reversed(), knits);
+
+    // rows within a word, of whole words, and spanning words, against the stitch objects
+    boolean allMatch = true;
+    for (int length : new int[] {1, 7, 63, 64, 65, 128, 130, 200}) {
+      ArrayList<IStitch> stitches = new ArrayList<>();
+      for (int i = 0; i < length; i++) {
+        if ((i * 7 + i / 5) % 3 == 0) {
+          stitches.add(new Knit());
+        } else {
+          stitches.add(new Purl());
+        }
+      }
+      KnittedRow row = new KnittedRow(stitches);
+      PackedRow packed = row.pack();
+      allMatch = allMatch
+          && packed.reversed().sameRow(row.reversed().pack())
+          && packed.sameRowReversed(row.reversed().pack())
+          && !packed.sameRowReversed(packed);
+    }
+    t.checkExpect(allMatch, true);
+  }
+
+  void testPackedFabricSameFabric(Tester t) {
+    PackedFabric pf2 = new PackedFabric(new ArrayList<>(List.of(kr1.pack(), kr2.pack())));
+    PackedFabric pf2Rev = new PackedFabric(new ArrayList<>(List.of(kr1Rev.pack(), kr2Rev.pack())));
+    t.checkExpect(pf2.sameFabric(pf2), true);
+    t.checkExpect(pf2.sameFabric(pf2Rev), true);
+    t.checkExpect(pf2Rev.sameFabric(pf2), true);
+    t.checkExpect(pf2.sameRowsReversed(pf2Rev), true);
+    t.checkExpect(pf2.sameRowsReversed(pf2), false);
+    PackedFabric pf3 = new PackedFabric(new ArrayList<>(List.of(kr2.pack(), kr1.pack())));
+    t.checkExpect(pf2.sameFabric(pf3), kf2.sameFabric(pf3.toKnittedFabric()));
+    t.checkExpect(pf2.sameFabric(new PackedFabric(new ArrayList<>(List.of(kr1.pack())))), false);
+  }
+
+  // FabricCatalog tests --------------------------------------------------------------------------
+
+  void testFabricCatalogAdd(Tester t) {
+    FabricCatalog catalog = new FabricCatalog();
+    t.checkExpect(catalog.contains(kf1), false);
+    t.checkExpect(catalog.add(kf1), true);
+    t.checkExpect(catalog.add(kf1), false);
+    // a fabric flipped over is the same fabric
+    t.checkExpect(catalog.add(kf1Rev), false);
+    t.checkExpect(catalog.add(kf2), true);
+    t.checkExpect(catalog.add(kf3), true);
+    t.checkExpect(catalog.add(kf2Rev), false);
+    t.checkExpect(catalog.contains(kfMt), false);
+    t.checkExpect(catalog.distinct.size(), 3);
+    t.checkExpect(catalog.byFingerprint.size(), 3);
+  }
+
+  void testFabricCatalogMany(Tester t) {
+    // every 10-stitch row, as a one-row fabric, and each flipped over
+    FabricCatalog catalog = new FabricCatalog();
+    int added = 0;
+    for (int pattern = 0; pattern < 1024; pattern++) {
+      ArrayList<IStitch> stitches = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        stitches.add(((pattern >> i) & 1) == 1 ? k : p);
+      }
+      KnittedFabric fabric = new KnittedFabric().addRow(stitches.iterator());
+      if (catalog.add(fabric)) {
+        added++;
+      }
+      catalog.add(fabric.reversed());
+    }
+    // a row is its own flip exactly when it is a palindrome of opposite stitches, which is decided
+    // by its first 5 stitches, so 32 of the 1024 rows are their own flips
+    t.checkExpect(added, (1024 + 32) / 2);
+    t.checkExpect(catalog.distinct.size(), 528);
+  }
+
   // ArrayUtils tests -----------------------------------------------------------------------------
 
   void testReverse(Tester t) {